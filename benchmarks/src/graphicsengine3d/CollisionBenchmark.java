@@ -0,0 +1,103 @@
+package graphicsengine3d;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.j3d.TransformGroup;
+import javax.vecmath.Vector3f;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Mike
+ * One CollisionWorld update of objects drifting across a field, half spheres and half turned boxes, after
+ * Kinematics has moved them a little. The objects turn back every 100 updates so the field stays as crowded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+@State(Scope.Thread)
+public class CollisionBenchmark
+{
+	@Param({"2000", "20000"})
+	public int count;
+	
+	@Param({"false", "true"})
+	public boolean parallel;
+	
+	private Scene3D scene;
+	private Kinematics kinematics;
+	private CollisionWorld collisions;
+	private Object3D[] bodies;
+	private int updates = 0;
+	
+	@Setup
+	public void Setup()
+	{
+		scene = new Scene3D(null);
+		scene.UseTransformStore(count);
+		scene.SetDeferTransforms(true);
+		
+		kinematics = new Kinematics();
+		collisions = scene.UseCollisions();
+		collisions.SetParallelThreshold(parallel ? 1 : Integer.MAX_VALUE);
+		
+		// about 20 objects per square of 10 units, whatever the count
+		Random random = new Random(1);
+		float side = (float)Math.sqrt(count)*2.2f;
+		bodies = new Object3D[count];
+		
+		for (int i = 0; i < count; i++)
+		{
+			Vector3f position = new Vector3f(random.nextFloat()*side, random.nextFloat()*side, random.nextFloat()*2);
+			Vector3f rotation = new Vector3f(0, 0, random.nextFloat()*3);
+			Object3D body = new Object3D(new TransformGroup(), position, rotation);
+			scene.AddObject(body);
+			bodies[i] = body;
+			
+			if (i%2 == 0)
+				collisions.SetSphere(body, 0.5f);
+			else
+				collisions.SetBox(body, 0.6f, 0.3f, 0.3f);
+			
+			kinematics.Add(body);
+			kinematics.SetVelocity(body, random.nextFloat()*2 - 1, random.nextFloat()*2 - 1, 0);
+		}
+		
+		kinematics.Update(0.02f);
+		scene.FlushTransforms();
+		collisions.Update(0.02f);
+	}
+	
+	@Benchmark
+	public CollisionWorld Update()
+	{
+		if (++updates%100 == 0)
+		{
+			Vector3f velocity = new Vector3f();
+			
+			for (int i = 0; i < count; i++)
+			{
+				kinematics.GetVelocity(bodies[i], velocity);
+				kinematics.SetVelocity(bodies[i], -velocity.x, -velocity.y, 0);
+			}
+		}
+		
+		kinematics.Update(0.02f);
+		scene.FlushTransforms();
+		collisions.Update(0.02f);
+		return collisions;
+	}
+}
@@ -0,0 +1,94 @@
+package graphicsengine3d;
+
+import java.awt.AWTEvent;
+import java.awt.Canvas;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseEvent;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * @author Mike
+ * Input going through the universe's input behavior into the buffer and out to the listeners, as it does
+ * for one wakeup. Each call handles a burst of 64 key and mouse events, including runs of moves that are
+ * merged.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class InputBenchmark
+{
+	private AWTEvent[] events = new AWTEvent[64];
+	private InputEventBuffer buffer = new InputEventBuffer(256);
+	private UniverseKeyBoardListener keyboardListener;
+	private UniverseMouseListener mouseListener;
+	
+	@Setup
+	public void Setup(final Blackhole blackhole)
+	{
+		Canvas source = new Canvas();
+		
+		for (int i = 0; i < events.length; i++)
+		{
+			switch (i%8)
+			{
+				case 0:
+					events[i] = new KeyEvent(source, KeyEvent.KEY_PRESSED, i, 0, KeyEvent.VK_W, 'w');
+					break;
+				case 1:
+					events[i] = new KeyEvent(source, KeyEvent.KEY_TYPED, i, 0, KeyEvent.VK_UNDEFINED, 'w');
+					break;
+				case 2:
+					events[i] = new KeyEvent(source, KeyEvent.KEY_RELEASED, i, 0, KeyEvent.VK_W, 'w');
+					break;
+				case 3:
+				case 4:
+				case 5:
+					events[i] = new MouseEvent(source, MouseEvent.MOUSE_MOVED, i, 0, i, i, 0, false);
+					break;
+				case 6:
+					events[i] = new MouseEvent(source, MouseEvent.MOUSE_PRESSED, i, 0, i, i, 1, false, MouseEvent.BUTTON1);
+					break;
+				default:
+					events[i] = new MouseEvent(source, MouseEvent.MOUSE_RELEASED, i, 0, i, i, 1, false, MouseEvent.BUTTON1);
+					break;
+			}
+		}
+		
+		keyboardListener = new UniverseKeyBoardListener()
+		{
+			public void KeyPressed(KeyEvent e) { blackhole.consume(e); }
+			public void KeyReleased(KeyEvent e) { blackhole.consume(e); }
+		};
+		
+		mouseListener = new UniverseMouseListener()
+		{
+			public void MouseClicked(MouseEvent e) { blackhole.consume(e); }
+			public void MouseDragged(MouseEvent e) { blackhole.consume(e); }
+			public void MouseMoved(MouseEvent e) { blackhole.consume(e); }
+			public void MousePressed(MouseEvent e) { blackhole.consume(e); }
+			public void MouseReleased(MouseEvent e) { blackhole.consume(e); }
+		};
+	}
+	
+	@Benchmark
+	public int BufferAndDispatch()
+	{
+		Universe3D.Buffer(events, buffer);
+		return Universe3D.Dispatch(buffer, keyboardListener, mouseListener);
+	}
+}
@@ -0,0 +1,73 @@
+package graphicsengine3d;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.media.j3d.TransformGroup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Mike
+ * One Kinematics update of moving objects in a scene that keeps a TransformStore and defers its transforms,
+ * the way a game moves many shells at once. A third of the bodies also spin.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+@State(Scope.Thread)
+public class KinematicsBenchmark
+{
+	@Param({"1000", "10000", "100000"})
+	public int count;
+	
+	@Param({"false", "true"})
+	public boolean parallel;
+	
+	private Scene3D scene;
+	private Kinematics kinematics;
+	
+	@Setup
+	public void Setup()
+	{
+		scene = new Scene3D(null);
+		scene.UseTransformStore(count);
+		scene.SetDeferTransforms(true);
+		
+		kinematics = new Kinematics();
+		kinematics.SetParallelThreshold(parallel ? 1 : Integer.MAX_VALUE);
+		
+		for (int i = 0; i < count; i++)
+		{
+			Object3D shell = new Object3D(new TransformGroup());
+			scene.AddObject(shell);
+			kinematics.Add(shell);
+			kinematics.SetVelocity(shell, i%100, 50, 20);
+			kinematics.SetAcceleration(shell, 0, 0, -9.8f);
+			
+			if (i%3 == 0)
+				kinematics.SetAngularVelocity(shell, 0, 0, 2);
+		}
+	}
+	
+	@Benchmark
+	public Kinematics Update()
+	{
+		kinematics.Update(0.02f);
+		
+		// commit the deferred transforms as the scene would each frame
+		scene.FlushTransforms();
+		return kinematics;
+	}
+}
@@ -0,0 +1,90 @@
+package graphicsengine3d;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.media.j3d.TransformGroup;
+import javax.vecmath.Vector3f;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Mike
+ * Object3D's rotation, position and scale setters. With deferred on, the object is in a scene that defers
+ * its transforms, so a setter only marks the object dirty, otherwise every call commits the transform.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class Object3DBenchmark
+{
+	@Param({"false", "true"})
+	public boolean deferred;
+	
+	private Object3D object3D;
+	private Vector3f rotation = new Vector3f(0.1f, 0.2f, 0.3f);
+	private Vector3f position = new Vector3f(1.0f, 2.0f, 3.0f);
+	private float angle = 0.0f;
+	
+	@Setup
+	public void Setup()
+	{
+		object3D = new Object3D(new TransformGroup());
+		
+		if (deferred)
+		{
+			Scene3D scene = new Scene3D(null);
+			scene.SetDeferTransforms(true);
+			scene.AddObject(object3D);
+		}
+	}
+	
+	@Benchmark
+	public Object3D SetRotation()
+	{
+		rotation.z = angle += 0.01f;
+		object3D.SetRotation(rotation);
+		return object3D;
+	}
+	
+	@Benchmark
+	public Object3D AddYaw()
+	{
+		object3D.AddYaw(0.01f);
+		return object3D;
+	}
+	
+	@Benchmark
+	public Object3D SetPosition()
+	{
+		position.x = angle += 0.01f;
+		object3D.SetPosition(position);
+		return object3D;
+	}
+	
+	@Benchmark
+	public Object3D AddX()
+	{
+		object3D.AddX(0.01f);
+		return object3D;
+	}
+	
+	@Benchmark
+	public Object3D SetScale()
+	{
+		object3D.SetScale(1.0f + (angle += 0.01f)%1.0f);
+		return object3D;
+	}
+}
@@ -0,0 +1,80 @@
+package graphicsengine3d;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.media.j3d.TransformGroup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Mike
+ * Adding, deleting and clearing a scene's objects. Each call handles all of the objects, so the time is for the
+ * whole scene. Objects and scenes are made fresh before every call and that is not timed.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+@State(Scope.Thread)
+public class Scene3DBenchmark
+{
+	@Param({"1000", "10000", "100000"})
+	public int count;
+	
+	private Scene3D emptyScene;
+	private Scene3D fullScene;
+	private Object3D[] objects;
+	
+	@Setup(Level.Invocation)
+	public void Setup()
+	{
+		objects = new Object3D[count];
+		
+		for (int i = 0; i < count; i++)
+			objects[i] = new Object3D(new TransformGroup());
+		
+		emptyScene = new Scene3D(null);
+		fullScene = new Scene3D(null);
+		
+		for (int i = 0; i < count; i++)
+			fullScene.AddObject(new Object3D(new TransformGroup()));
+	}
+	
+	@Benchmark
+	public Scene3D AddObject()
+	{
+		for (int i = 0; i < count; i++)
+			emptyScene.AddObject(objects[i]);
+		
+		return emptyScene;
+	}
+	
+	@Benchmark
+	public Scene3D DeleteObject()
+	{
+		// deleting from the front moves the last object into each freed index
+		while (fullScene.GetObjectCount() > 0)
+			fullScene.DeleteObject(fullScene.GetObject(0));
+		
+		return fullScene;
+	}
+	
+	@Benchmark
+	public Scene3D ClearObjects()
+	{
+		fullScene.ClearObjects();
+		return fullScene;
+	}
+}
@@ -0,0 +1,62 @@
+package graphicsengine3d;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.media.j3d.Transform3D;
+import javax.media.j3d.TransformGroup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Mike
+ * Universe3D.ViewLookAt. A universe needs a display, so this runs the same steps on a transform group that
+ * is not live: the look at math, then setting the transform.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class ViewLookAtBenchmark
+{
+	private double[] viewMat = new double[16];
+	private Transform3D viewTrans3d = new Transform3D();
+	private TransformGroup viewTransformGroup = new TransformGroup();
+	private double angle = 0.0d;
+	
+	public ViewLookAtBenchmark()
+	{
+		viewTransformGroup.setCapability(TransformGroup.ALLOW_TRANSFORM_WRITE);
+	}
+	
+	@Benchmark
+	public double[] LookAt()
+	{
+		angle += 0.01d;
+		Universe3D.LookAt(viewMat, Math.cos(angle)*10.0d, Math.sin(angle)*10.0d, 5.0d, 0.0d, 0.0d, 0.0d);
+		return viewMat;
+	}
+	
+	@Benchmark
+	public TransformGroup ViewLookAt()
+	{
+		angle += 0.01d;
+		
+		if (Universe3D.LookAt(viewMat, Math.cos(angle)*10.0d, Math.sin(angle)*10.0d, 5.0d, 0.0d, 0.0d, 0.0d))
+		{
+			viewTrans3d.set(viewMat);
+			viewTransformGroup.setTransform(viewTrans3d);
+		}
+		
+		return viewTransformGroup;
+	}
+}
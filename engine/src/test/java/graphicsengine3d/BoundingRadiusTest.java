@@ -0,0 +1,44 @@
+package graphicsengine3d;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.media.j3d.BranchGroup;
+import javax.media.j3d.Locale;
+import javax.media.j3d.Node;
+import javax.media.j3d.VirtualUniverse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.j3d.utils.geometry.ColorCube;
+
+/**
+ * @author Mike
+ * Checks that an object's bounding radius is worked out before its node goes live, so it can still be culled
+ * and picked once the scene is shown.
+ */
+public class BoundingRadiusTest
+{
+	@Before
+	public void Setup()
+	{
+		Natives.Assume();
+	}
+	
+	@Test
+	public void RadiusReadableAfterSceneGoesLive()
+	{
+		Scene3D scene = new Scene3D(null);
+		Object3D cube = new Object3D(new ColorCube(1.0d));
+		scene.AddObject(cube);
+		
+		Node root = cube.GetTransformGroup();
+		
+		while (root.getParent() != null)
+			root = root.getParent();
+		
+		new Locale(new VirtualUniverse()).addBranchGraph((BranchGroup)root);
+		
+		assertEquals(Math.sqrt(3.0d), cube.GetBoundingRadius(), 1e-5d);
+	}
+}
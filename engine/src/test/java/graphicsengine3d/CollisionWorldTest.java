@@ -0,0 +1,152 @@
+package graphicsengine3d;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+
+import javax.media.j3d.TransformGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Mike
+ * Checks that contacts begin and end once each, for spheres, turned boxes and removed bodies, and that splitting
+ * the exact tests across cores finds the same pairs.
+ */
+public class CollisionWorldTest
+{
+	private CollisionWorld world;
+	private Recorder recorder;
+	
+	@Before
+	public void Setup()
+	{
+		Natives.Assume();
+		world = new CollisionWorld();
+		recorder = new Recorder();
+		world.AddListener(recorder);
+	}
+	
+	@Test
+	public void SpheresBeginAndEnd()
+	{
+		Object3D a = Body(0, 0, 0), b = Body(5, 0, 0);
+		world.SetSphere(a, 1);
+		world.SetSphere(b, 1);
+		
+		world.Update(0);
+		assertEquals(0, recorder.begun.size());
+		
+		b.SetX(1.5f);
+		world.Update(0);
+		world.Update(0);
+		assertEquals(1, recorder.begun.size());
+		assertSame(a, recorder.begun.get(0)[0]);
+		assertSame(b, recorder.begun.get(0)[1]);
+		assertEquals(1, world.GetContactCount());
+		
+		b.SetX(2.5f);
+		world.Update(0);
+		assertEquals(1, recorder.ended.size());
+		assertSame(a, recorder.ended.get(0)[0]);
+		assertEquals(0, world.GetContactCount());
+	}
+	
+	@Test
+	public void TurnedBoxesTouchAtTheirCorners()
+	{
+		Object3D a = Body(0, 0, 0), b = Body(2.3f, 0, 0);
+		world.SetBox(a, 1, 1, 1);
+		world.SetBox(b, 1, 1, 1);
+		
+		// square boxes 2.3 apart miss, turning one 45 degrees pushes its corner out to 1 + sqrt(2)
+		world.Update(0);
+		assertEquals(0, recorder.begun.size());
+		
+		b.SetYaw((float)Math.PI/4);
+		world.Update(0);
+		assertEquals(1, recorder.begun.size());
+		
+		b.SetYaw(0);
+		world.Update(0);
+		assertEquals(1, recorder.ended.size());
+	}
+	
+	@Test
+	public void RemovedBodiesEndTheirContacts()
+	{
+		Object3D a = Body(0, 0, 0), b = Body(1, 0, 0);
+		world.SetSphere(a, 1);
+		world.SetBox(b, 1, 1, 1);
+		
+		world.Update(0);
+		assertEquals(1, recorder.begun.size());
+		
+		world.Remove(b);
+		world.Update(0);
+		assertEquals(1, recorder.ended.size());
+		assertSame(b, recorder.ended.get(0)[1]);
+		assertEquals(0, world.GetContactCount());
+	}
+	
+	@Test
+	public void ParallelMatchesSerial()
+	{
+		CollisionWorld parallel = new CollisionWorld();
+		parallel.SetParallelThreshold(1);
+		
+		for (int i = 0; i < 2000; i++)
+		{
+			float x = (i*37)%100, y = (i*53)%100, z = (i*71)%20;
+			Object3D a = Body(x, y, z), b = Body(x, y, z);
+			a.SetYaw(i);
+			b.SetYaw(i);
+			
+			if (i%2 == 0)
+			{
+				world.SetSphere(a, 2);
+				parallel.SetSphere(b, 2);
+			}
+			else
+			{
+				world.SetBox(a, 2, 1, 1);
+				parallel.SetBox(b, 2, 1, 1);
+			}
+		}
+		
+		world.Update(0);
+		parallel.Update(0);
+		
+		assertEquals(world.GetPairCount(), parallel.GetPairCount());
+		assertEquals(world.GetContactCount(), parallel.GetContactCount());
+	}
+	
+	private static Object3D Body(float x, float y, float z)
+	{
+		Object3D object3D = new Object3D(new TransformGroup());
+		object3D.SetX(x);
+		object3D.SetY(y);
+		object3D.SetZ(z);
+		return object3D;
+	}
+	
+	
+	
+	// keeps every pair it is told about
+	private static class Recorder extends ContactListener
+	{
+		ArrayList<Object3D[]> begun = new ArrayList<Object3D[]>(), ended = new ArrayList<Object3D[]>();
+		
+		public void ContactBegin(Object3D a, Object3D b)
+		{
+			begun.add(new Object3D[] {a, b});
+		}
+		
+		public void ContactEnd(Object3D a, Object3D b)
+		{
+			ended.add(new Object3D[] {a, b});
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package graphicsengine3d;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.Node;
+import javax.media.j3d.PointArray;
+import javax.media.j3d.Shape3D;
+import javax.media.j3d.TransformGroup;
+import javax.vecmath.Vector3f;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Mike
+ * Checks that the objects of a compiled scene can be deleted, cleared and added again, whether they are
+ * dynamic, batched, frozen or have levels of detail.
+ */
+public class CompiledSceneTest
+{
+	private GeometryCache cache;
+	private Scene3D scene;
+	private Object3D dynamic, batched, frozen, lod;
+	
+	@Before
+	public void Setup()
+	{
+		Natives.Assume();
+		cache = new GeometryCache();
+		
+		scene = new Scene3D(null);
+		scene.SetCompileOnShow(true);
+		
+		dynamic = new Object3D(cache.GetColorCube(1));
+		batched = Static(cache.GetColorCube(1));
+		frozen = Static(new Shape3D(new PointArray(1, GeometryArray.COORDINATES)));		// points are not merged
+		lod = new Object3D(new Node[] {cache.GetColorCube(1), cache.GetColorCube(0.5f)}, new float[] {100});
+		
+		scene.AddObject(dynamic);
+		scene.AddObject(batched);
+		scene.AddObject(frozen);
+		scene.AddObject(lod);
+		scene.Prepare();
+		
+		assertTrue(batched.IsBatched());
+		assertTrue(frozen.IsCompiled());
+		assertFalse(dynamic.IsCompiled());
+	}
+	
+	@Test
+	public void ObjectsCanBeDeleted()
+	{
+		assertTrue(scene.DeleteObject(dynamic));
+		assertTrue(scene.DeleteObject(batched));
+		assertTrue(scene.DeleteObject(frozen));
+		assertTrue(scene.DeleteObject(lod));
+		assertEquals(0, scene.GetObjectCount());
+		assertEquals(0, scene.GetBatchCount());
+	}
+	
+	@Test
+	public void ScenesCanBeClearedAndDeleted()
+	{
+		scene.ClearObjects();
+		assertEquals(0, scene.GetObjectCount());
+		assertFalse(scene.ContainsObject(dynamic));
+		
+		scene.AddObject(dynamic);
+		scene.AddObject(new Object3D(cache.GetColorCube(1)));
+		scene.Delete();
+		assertEquals(0, scene.GetObjectCount());
+	}
+	
+	@Test
+	public void DeletedObjectsCanBeAddedAgain()
+	{
+		scene.DeleteObject(dynamic);
+		scene.DeleteObject(batched);
+		scene.DeleteObject(lod);
+		assertFalse(scene.AddObject(frozen));
+		
+		// into the same compiled scene, then into a new one that is compiled too
+		assertTrue(scene.AddObject(dynamic));
+		scene.Prepare();
+		scene.DeleteObject(dynamic);
+		
+		Scene3D other = new Scene3D(null);
+		other.SetCompileOnShow(true);
+		assertTrue(other.AddObject(dynamic));
+		assertTrue(other.AddObject(batched));
+		assertTrue(other.AddObject(lod));
+		other.Prepare();
+		
+		assertTrue(batched.IsBatched());
+		dynamic.SetX(5);
+		assertEquals(5, dynamic.GetX(), 0);
+		
+		other.Delete();
+		assertEquals(0, other.GetObjectCount());
+	}
+	
+	@Test
+	public void ObjectsMadeStaticAfterCompilingAreLeftAlone()
+	{
+		dynamic.SetStatic(true);
+		scene.Prepare();
+		
+		assertFalse(dynamic.IsCompiled());
+		assertFalse(dynamic.IsBatched());
+		assertTrue(scene.DeleteObject(dynamic));
+	}
+	
+	private static Object3D Static(Node node)
+	{
+		Object3D object3D = new Object3D(node, new Vector3f(10, 0, 0));
+		object3D.SetStatic(true);
+		return object3D;
+	}
+}
@@ -0,0 +1,83 @@
+package graphicsengine3d;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import javax.media.j3d.TransformGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Mike
+ * Checks that objects marked dirty while their scene flushes are committed by a later flush and never lost.
+ */
+public class DeferredTransformTest
+{
+	private static final int OBJECTS = 2000;
+	private static final int WRITERS = 4;
+	
+	@Before
+	public void Setup()
+	{
+		Natives.Assume();
+	}
+	
+	@Test
+	public void ConcurrentMarksAreFlushed() throws InterruptedException
+	{
+		final Scene3D scene = new Scene3D(null);
+		scene.SetDeferTransforms(true);
+		
+		final Object3D[] objects = new Object3D[OBJECTS];
+		
+		for (int i = 0; i < OBJECTS; i++)
+		{
+			objects[i] = new Object3D(new TransformGroup());
+			scene.AddObject(objects[i]);
+		}
+		
+		// each writer moves its own share of the objects while this thread keeps flushing
+		Thread[] writers = new Thread[WRITERS];
+		
+		for (int w = 0; w < WRITERS; w++)
+		{
+			final int first = w;
+			
+			writers[w] = new Thread()
+			{
+				public void run()
+				{
+					for (int round = 1; round <= 200; round++)
+					{
+						for (int i = first; i < OBJECTS; i += WRITERS)
+							objects[i].SetX(round);
+					}
+				}
+			};
+			writers[w].start();
+		}
+		
+		boolean writing = true;
+		
+		while (writing)
+		{
+			scene.FlushTransforms();
+			writing = false;
+			
+			for (int w = 0; w < WRITERS; w++)
+				writing |= writers[w].isAlive();
+		}
+		
+		for (int w = 0; w < WRITERS; w++)
+			writers[w].join();
+		
+		scene.FlushTransforms();
+		
+		for (int i = 0; i < OBJECTS; i++)
+		{
+			assertFalse("Object " + i + " is still dirty", objects[i].dirty);
+			assertEquals(200.0f, objects[i].GetX(), 0.0f);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package graphicsengine3d;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.media.j3d.TransformGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Mike
+ * Checks that bodies are integrated velocity first, that splitting the update across cores gives the same
+ * result, and that bodies leave their kinematics when deleted from their scene or made static.
+ */
+public class KinematicsTest
+{
+	private Kinematics kinematics;
+	
+	@Before
+	public void Setup()
+	{
+		Natives.Assume();
+		kinematics = new Kinematics();
+	}
+	
+	@Test
+	public void IntegratesVelocityFirst()
+	{
+		Object3D body = new Object3D(new TransformGroup());
+		kinematics.Add(body);
+		kinematics.SetVelocity(body, 1, 0, 0);
+		kinematics.SetAcceleration(body, 0, 0, -10);
+		
+		kinematics.Update(0.5f);
+		assertEquals(0.5f, body.GetX(), 1e-6f);
+		assertEquals(-2.5f, body.GetZ(), 1e-6f);
+		
+		kinematics.Update(0.5f);
+		assertEquals(1.0f, body.GetX(), 1e-6f);
+		assertEquals(-7.5f, body.GetZ(), 1e-6f);
+	}
+	
+	@Test
+	public void ParallelMatchesSerial()
+	{
+		Kinematics parallel = new Kinematics();
+		parallel.SetParallelThreshold(1);
+		
+		Object3D[] a = new Object3D[5000], b = new Object3D[5000];
+		
+		for (int i = 0; i < a.length; i++)
+		{
+			a[i] = new Object3D(new TransformGroup());
+			b[i] = new Object3D(new TransformGroup());
+			kinematics.Add(a[i]);
+			parallel.Add(b[i]);
+			kinematics.SetVelocity(a[i], i, -i, 0.5f*i);
+			parallel.SetVelocity(b[i], i, -i, 0.5f*i);
+			kinematics.SetAngularVelocity(a[i], 0, 0, 0.001f*i);
+			parallel.SetAngularVelocity(b[i], 0, 0, 0.001f*i);
+		}
+		
+		for (int n = 0; n < 3; n++)
+		{
+			kinematics.Update(1/60.0f);
+			parallel.Update(1/60.0f);
+		}
+		
+		for (int i = 0; i < a.length; i++)
+		{
+			assertEquals(a[i].GetX(), b[i].GetX(), 0);
+			assertEquals(a[i].GetY(), b[i].GetY(), 0);
+			assertEquals(a[i].GetZ(), b[i].GetZ(), 0);
+			assertEquals(a[i].GetYaw(), b[i].GetYaw(), 0);
+		}
+	}
+	
+	@Test
+	public void DeletedBodiesAreRemoved()
+	{
+		Scene3D scene = new Scene3D(null);
+		Object3D body = new Object3D(new TransformGroup());
+		Object3D other = new Object3D(new TransformGroup());
+		scene.AddObject(body);
+		scene.AddObject(other);
+		kinematics.Add(body);
+		kinematics.Add(other);
+		kinematics.SetVelocity(body, 1, 0, 0);
+		
+		scene.DeleteObject(body);
+		assertFalse(kinematics.Contains(body));
+		assertEquals(1, kinematics.GetCount());
+		
+		kinematics.Update(1);
+		assertEquals(0, body.GetX(), 0);
+	}
+	
+	@Test
+	public void StaticBodiesAreRefused()
+	{
+		Object3D body = new Object3D(new TransformGroup());
+		body.SetStatic(true);
+		
+		try
+		{
+			kinematics.Add(body);
+			fail("a static object was added");
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+		
+		body.SetStatic(false);
+		assertTrue(kinematics.Add(body));
+		
+		body.SetStatic(true);
+		assertFalse(kinematics.Contains(body));
+		assertEquals(0, kinematics.GetCount());
+	}
+}
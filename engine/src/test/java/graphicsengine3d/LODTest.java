@@ -0,0 +1,88 @@
+package graphicsengine3d;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.media.j3d.Node;
+import javax.media.j3d.TransformGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Mike
+ * Checks that an object's level of detail only changes once the distance is past a threshold by the hysteresis,
+ * so an object sitting on a threshold does not flicker between levels.
+ */
+public class LODTest
+{
+	private Object3D object3D;
+	
+	@Before
+	public void Setup()
+	{
+		Natives.Assume();
+		
+		Node[] levels = {new TransformGroup(), new TransformGroup(), new TransformGroup()};
+		object3D = new Object3D(levels, new float[] {100, 200});
+	}
+	
+	@Test
+	public void ChangesPastHysteresis()
+	{
+		Move(105);
+		assertEquals(0, object3D.GetLODLevel());
+		
+		Move(111);
+		assertEquals(1, object3D.GetLODLevel());
+		
+		Move(95);
+		assertEquals(1, object3D.GetLODLevel());
+		
+		Move(89);
+		assertEquals(0, object3D.GetLODLevel());
+	}
+	
+	@Test
+	public void StaysOnThreshold()
+	{
+		Move(120);
+		
+		for (int i = 0; i < 100; i++)
+		{
+			Move(i%2 == 0 ? 92 : 108);
+			assertEquals(1, object3D.GetLODLevel());
+		}
+	}
+	
+	@Test
+	public void SkipsLevels()
+	{
+		Move(1000);
+		assertEquals(2, object3D.GetLODLevel());
+		
+		Move(0);
+		assertEquals(0, object3D.GetLODLevel());
+	}
+	
+	@Test
+	public void HysteresisCanChange()
+	{
+		object3D.SetLODHysteresis(0.5f);
+		
+		Move(140);
+		assertEquals(0, object3D.GetLODLevel());
+		
+		Move(160);
+		assertEquals(1, object3D.GetLODLevel());
+		
+		object3D.SetLODHysteresis(0);
+		
+		Move(99);
+		assertEquals(0, object3D.GetLODLevel());
+	}
+	
+	private void Move(double distance)
+	{
+		object3D.UpdateLOD(distance*distance);
+	}
+}
@@ -0,0 +1,40 @@
+package graphicsengine3d;
+
+import static org.junit.Assume.assumeTrue;
+
+import javax.media.j3d.Transform3D;
+import javax.media.j3d.TransformGroup;
+
+/**
+ * @author Mike
+ * Skips tests that need the Java3D native libraries when they are not on java.library.path. Java3D loads them
+ * the first time a transform is set, which every Object3D does when it is made. Pass -Djava3d.library.path
+ * to Maven to run those tests.
+ */
+final class Natives
+{
+	private static Boolean loaded;
+	
+	private Natives() {}
+	
+	/**
+	 * Skips the calling test unless the native libraries load.
+	 */
+	static synchronized void Assume()
+	{
+		if (loaded == null)
+		{
+			try
+			{
+				new TransformGroup().setTransform(new Transform3D());
+				loaded = Boolean.TRUE;
+			}
+			catch (LinkageError e)
+			{
+				loaded = Boolean.FALSE;
+			}
+		}
+		
+		assumeTrue("Java3D native libraries are not on java.library.path", loaded.booleanValue());
+	}
+}
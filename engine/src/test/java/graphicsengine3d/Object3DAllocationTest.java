@@ -0,0 +1,116 @@
+package graphicsengine3d;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.media.j3d.TransformGroup;
+import javax.vecmath.Vector3f;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Mike
+ * Checks that moving, turning and scaling an Object3D allocates nothing, by counting the bytes the test thread
+ * allocates over many calls. The object is in a scene that defers its transforms, so only Object3D and its
+ * TransformStore are measured and not Java3D's TransformGroup.
+ */
+public class Object3DAllocationTest
+{
+	private static final int CALLS = 10000;
+	
+	private com.sun.management.ThreadMXBean threads;
+	private Object3D object3D;
+	private Vector3f vector = new Vector3f(0.01f, 0.02f, 0.03f);
+	
+	@Before
+	public void Setup()
+	{
+		Natives.Assume();
+		
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue("Thread allocation counting is not supported", bean instanceof com.sun.management.ThreadMXBean);
+		threads = (com.sun.management.ThreadMXBean)bean;
+		assumeTrue("Thread allocation counting is not supported", threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		
+		Scene3D scene = new Scene3D(null);
+		scene.SetDeferTransforms(true);
+		
+		object3D = new Object3D(new TransformGroup());
+		scene.AddObject(object3D);
+	}
+	
+	@Test
+	public void RotationDoesNotAllocate()
+	{
+		// once first, so the calls are compiled before they are measured
+		Rotate(CALLS);
+		
+		long overhead = Overhead();
+		long before = Allocated();
+		Rotate(CALLS);
+		long allocated = Allocated() - before - overhead;
+		
+		assertEquals("Bytes allocated by " + CALLS + " rounds of rotation calls", 0, allocated);
+	}
+	
+	@Test
+	public void PositionAndScaleDoNotAllocate()
+	{
+		Move(CALLS);
+		
+		long overhead = Overhead();
+		long before = Allocated();
+		Move(CALLS);
+		long allocated = Allocated() - before - overhead;
+		
+		assertEquals("Bytes allocated by " + CALLS + " rounds of position and scale calls", 0, allocated);
+	}
+	
+	private void Rotate(int rounds)
+	{
+		for (int i = 0; i < rounds; i++)
+		{
+			object3D.AddRotation(vector);
+			object3D.AddPitch(0.01f);
+			object3D.AddYaw(0.01f);
+			object3D.AddRoll(0.01f);
+			object3D.SetRotation(vector);
+			object3D.SetPitch(0.5f);
+			object3D.SetYaw(0.5f);
+			object3D.SetRoll(0.5f);
+			object3D.GetRot();
+		}
+	}
+	
+	private void Move(int rounds)
+	{
+		for (int i = 0; i < rounds; i++)
+		{
+			object3D.AddPosition(vector);
+			object3D.AddX(1.0f);
+			object3D.AddY(1.0f);
+			object3D.AddZ(1.0f);
+			object3D.SetPosition(vector);
+			object3D.SetX(2.0f);
+			object3D.SetY(2.0f);
+			object3D.SetZ(2.0f);
+			object3D.AddScale(0.01f);
+			object3D.SetScale(1.0f);
+			object3D.GetPosition();
+		}
+	}
+	
+	private long Allocated()
+	{ return threads.getThreadAllocatedBytes(Thread.currentThread().getId()); }
+	
+	// bytes reading the counter allocates itself
+	private long Overhead()
+	{
+		long before = Allocated();
+		return Allocated() - before;
+	}
+}
@@ -0,0 +1,159 @@
+package graphicsengine3d;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import javax.media.j3d.TransformGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Mike
+ * Checks picks through a scene's bounding volume hierarchy against testing every object's sphere, before and
+ * after objects move, and that objects with an infinite bounding radius can still be picked.
+ */
+public class PickTreeTest
+{
+	private static final int OBJECTS = 500;
+	private static final int RAYS = 2000;
+	
+	private Random random = new Random(11);
+	
+	@Before
+	public void Setup()
+	{
+		Natives.Assume();
+	}
+	
+	@Test
+	public void MatchesBruteForce()
+	{
+		Scene3D scene = new Scene3D(null);
+		Object3D[] objects = new Object3D[OBJECTS];
+		
+		for (int i = 0; i < OBJECTS; i++)
+		{
+			objects[i] = new Object3D(new TransformGroup());
+			objects[i].SetBoundingRadius(0.5f + 4.0f*random.nextFloat());
+			Place(objects[i]);
+			scene.AddObject(objects[i]);
+		}
+		
+		CheckRays(scene, objects);
+		
+		// moving a few objects refits the tree, moving all of them builds it again
+		for (int i = 0; i < OBJECTS; i += 10)
+			Place(objects[i]);
+		
+		CheckRays(scene, objects);
+		
+		for (int i = 0; i < OBJECTS; i++)
+			Place(objects[i]);
+		
+		CheckRays(scene, objects);
+	}
+	
+	@Test
+	public void UnboundedObjectsArePicked()
+	{
+		Scene3D scene = new Scene3D(null);
+		Object3D unbounded = new Object3D(new TransformGroup());
+		unbounded.SetBoundingRadius(Float.POSITIVE_INFINITY);
+		unbounded.SetX(50);
+		unbounded.SetY(10);
+		scene.AddObject(unbounded);
+		
+		PickHit hit = new PickHit();
+		assertTrue(scene.PickRay(0, 10, 0, 1, 0, 0, hit));
+		assertSame(unbounded, hit.GetObject());
+		assertEquals(50.0d, hit.GetDistance(), 1e-9d);
+		
+		// a bounded object in front of it is nearer
+		Object3D near = new Object3D(new TransformGroup());
+		near.SetBoundingRadius(1);
+		near.SetX(20);
+		near.SetY(10);
+		scene.AddObject(near);
+		
+		hit.Reset();
+		assertTrue(scene.PickRay(0, 10, 0, 1, 0, 0, hit));
+		assertSame(near, hit.GetObject());
+		assertEquals(19.0d, hit.GetDistance(), 1e-6d);
+		
+		// nothing is picked behind the ray's origin
+		hit.Reset();
+		assertFalse(scene.PickRay(100, 10, 0, 1, 0, 0, hit));
+	}
+	
+	private void Place(Object3D object3D)
+	{
+		object3D.SetX(200*random.nextFloat() - 100);
+		object3D.SetY(200*random.nextFloat() - 100);
+		object3D.SetZ(200*random.nextFloat() - 100);
+		object3D.SetScale(0.5f + random.nextFloat());
+	}
+	
+	private void CheckRays(Scene3D scene, Object3D[] objects)
+	{
+		PickHit hit = new PickHit();
+		
+		for (int n = 0; n < RAYS; n++)
+		{
+			double ox = 300*random.nextDouble() - 150, oy = 300*random.nextDouble() - 150, oz = 300*random.nextDouble() - 150;
+			double dx = -ox + 100*random.nextDouble() - 50, dy = -oy + 100*random.nextDouble() - 50, dz = -oz + 100*random.nextDouble() - 50;
+			double len = Math.sqrt(dx*dx + dy*dy + dz*dz);
+			dx /= len;
+			dy /= len;
+			dz /= len;
+			
+			Object3D expected = null;
+			double best = Double.POSITIVE_INFINITY;
+			
+			for (int i = 0; i < objects.length; i++)
+			{
+				double t = Intersect(objects[i], ox, oy, oz, dx, dy, dz);
+				
+				if (t < best)
+				{
+					best = t;
+					expected = objects[i];
+				}
+			}
+			
+			hit.Reset();
+			boolean found = scene.PickRay(ox, oy, oz, dx, dy, dz, hit);
+			
+			assertEquals("ray " + n, expected != null, found);
+			
+			if (found)
+			{
+				assertEquals("ray " + n, best, hit.GetDistance(), 1e-3d);
+				assertSame("ray " + n, expected, hit.GetObject());
+			}
+		}
+	}
+	
+	// distance along the ray to an object's sphere, infinite if it misses
+	private static double Intersect(Object3D object3D, double ox, double oy, double oz, double dx, double dy, double dz)
+	{
+		double lx = object3D.GetX() - ox, ly = object3D.GetY() - oy, lz = object3D.GetZ() - oz;
+		double r = object3D.GetBoundingRadius()*Math.abs(object3D.GetScale());
+		double along = lx*dx + ly*dy + lz*dz;
+		double distSq = lx*lx + ly*ly + lz*lz - along*along;
+		
+		if (distSq > r*r)
+			return Double.POSITIVE_INFINITY;
+		
+		double half = Math.sqrt(r*r - distSq);
+		
+		if (along + half < 0.0d)
+			return Double.POSITIVE_INFINITY;
+		
+		return Math.max(along - half, 0.0d);
+	}
+}
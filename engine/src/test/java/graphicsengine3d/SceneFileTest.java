@@ -0,0 +1,177 @@
+package graphicsengine3d;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import javax.media.j3d.Appearance;
+import javax.media.j3d.Link;
+import javax.media.j3d.Shape3D;
+import javax.media.j3d.Transform3D;
+import javax.media.j3d.TransformGroup;
+import javax.vecmath.Vector3f;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.j3d.utils.geometry.Primitive;
+
+/**
+ * @author Mike
+ * Checks that a saved scene loads back with the same meshes, transforms and static flags, that objects which
+ * cannot be saved are left out, and that a file referring to an unknown mesh or holding bad counts adds nothing.
+ */
+public class SceneFileTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private GeometryCache cache;
+	private Appearance red;
+	
+	@Before
+	public void Setup()
+	{
+		Natives.Assume();
+		
+		cache = new GeometryCache();
+		red = new Appearance();
+		cache.RegisterAppearance("red", red);
+		
+		TransformGroup crate = new TransformGroup();
+		crate.addChild(new Shape3D());
+		cache.Register("crate", crate);
+	}
+	
+	@Test
+	public void ObjectsRoundTrip() throws IOException
+	{
+		Scene3D scene = new Scene3D(null);
+		Add(scene, new Object3D(cache.Get("crate"), new Vector3f(1, 2, 3), new Vector3f(0.1f, 0.2f, 0.3f)), 1.5f, true);
+		Add(scene, new Object3D(cache.Get("crate"), new Vector3f(-4, 5, -6)), 1, false);
+		Add(scene, new Object3D(cache.GetLink("crate"), new Vector3f(7, 0, 0), new Vector3f(0, 0, 1)), 2, true);
+		Add(scene, new Object3D(cache.GetBox(1, 2, 3, Primitive.GENERATE_NORMALS, red), new Vector3f(0, 8, 0)), 0.5f, false);
+		Add(scene, new Object3D(cache.GetColorCube(2), new Vector3f(0, 0, 9), new Vector3f(1, 0, 0)), 3, true);
+		
+		// an appearance that is not registered and a node not from the cache are left out
+		Add(scene, new Object3D(cache.GetBox(1, 1, 1, 0, new Appearance())), 1, false);
+		Add(scene, new Object3D(new TransformGroup()), 1, false);
+		
+		File file = folder.newFile("scene.g3ds");
+		assertEquals(5, SceneFile.Save(scene, cache, file));
+		
+		Scene3D loaded = new Scene3D(null);
+		assertEquals(5, SceneFile.Load(file, loaded, cache));
+		assertEquals(5, loaded.GetObjectCount());
+		
+		Transform3D t3d = new Transform3D();
+		double[] saved = new double[16], read = new double[16];
+		
+		for (int i = 0; i < 5; i++)
+		{
+			Object3D a = scene.GetObject(i), b = loaded.GetObject(i);
+			
+			assertEquals(cache.GetOrigin(a.node), cache.GetOrigin(b.node));
+			assertEquals(a.node instanceof Link, b.node instanceof Link);
+			assertEquals(a.IsStatic(), b.IsStatic());
+			assertEquals(a.GetX(), b.GetX(), 0);
+			assertEquals(a.GetY(), b.GetY(), 0);
+			assertEquals(a.GetZ(), b.GetZ(), 0);
+			assertEquals(a.GetPitch(), b.GetPitch(), 0);
+			assertEquals(a.GetYaw(), b.GetYaw(), 0);
+			assertEquals(a.GetRoll(), b.GetRoll(), 0);
+			assertEquals(a.GetScale(), b.GetScale(), 0);
+			
+			a.GetTransformGroup().getTransform(t3d);
+			t3d.get(saved);
+			b.GetTransformGroup().getTransform(t3d);
+			t3d.get(read);
+			assertArrayEquals(saved, read, 1e-12d);
+		}
+	}
+	
+	@Test
+	public void UnknownMeshAddsNothing() throws IOException
+	{
+		Scene3D scene = new Scene3D(null);
+		Add(scene, new Object3D(cache.GetColorCube(1)), 1, false);
+		Add(scene, new Object3D(cache.Get("crate")), 1, false);
+		
+		File file = folder.newFile("scene.g3ds");
+		SceneFile.Save(scene, cache, file);
+		
+		GeometryCache other = new GeometryCache();
+		Scene3D loaded = new Scene3D(null);
+		
+		try
+		{
+			SceneFile.Load(file, loaded, other);
+			fail("a file referring to an unregistered mesh was loaded");
+		}
+		catch (IOException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("crate"));
+		}
+		
+		assertEquals(0, loaded.GetObjectCount());
+	}
+	
+	@Test
+	public void BadCountsThrowIOException() throws IOException
+	{
+		Scene3D scene = new Scene3D(null);
+		Add(scene, new Object3D(cache.GetBox(1, 2, 3, 0, red)), 1, false);
+		
+		File file = folder.newFile("scene.g3ds");
+		SceneFile.Save(scene, cache, file);
+		byte[] saved = Files.readAllBytes(file.toPath());
+		
+		// the reference count, then the primitive's parameter count after its kind, type, flags and appearance
+		ByteBuffer bytes = ByteBuffer.wrap(saved.clone()).order(ByteOrder.LITTLE_ENDIAN);
+		bytes.putInt(8, Integer.MAX_VALUE);
+		AssertBad(file, bytes.array());
+		
+		bytes = ByteBuffer.wrap(saved.clone()).order(ByteOrder.LITTLE_ENDIAN);
+		int appearanceAt = 16 + 1 + 4 + bytes.getInt(17) + 4;
+		int paramsAt = appearanceAt + 4 + bytes.getInt(appearanceAt);
+		bytes.putInt(paramsAt, Integer.MAX_VALUE);
+		AssertBad(file, bytes.array());
+		
+		bytes.putInt(paramsAt, -1);
+		AssertBad(file, bytes.array());
+	}
+	
+	private void AssertBad(File file, byte[] bytes) throws IOException
+	{
+		Files.write(file.toPath(), bytes);
+		Scene3D loaded = new Scene3D(null);
+		
+		try
+		{
+			SceneFile.Load(file, loaded, cache);
+			fail("a file with a bad count was loaded");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+		
+		assertEquals(0, loaded.GetObjectCount());
+	}
+	
+	private static void Add(Scene3D scene, Object3D object3D, float scale, boolean isStatic)
+	{
+		object3D.SetScale(scale);
+		object3D.SetStatic(isStatic);
+		scene.AddObject(object3D);
+	}
+}
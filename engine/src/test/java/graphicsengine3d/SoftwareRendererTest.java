@@ -0,0 +1,155 @@
+package graphicsengine3d;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.QuadArray;
+import javax.media.j3d.Shape3D;
+import javax.vecmath.Vector3f;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Mike
+ * Checks the software renderer's output: what a quad covers and its color, that nearer quads hide farther ones
+ * whatever order they are drawn in, that back faces are culled and that drawing the tiles on several threads
+ * gives the same image as one.
+ */
+public class SoftwareRendererTest
+{
+	private static final int SIZE = 128;
+	private static final int BACKGROUND = 0x102030;
+	
+	private SoftwareRenderer renderer;
+	
+	@Before
+	public void Setup()
+	{
+		Natives.Assume();
+	}
+	
+	@After
+	public void TearDown()
+	{
+		if (renderer != null)
+			renderer.Shutdown();
+	}
+	
+	@Test
+	public void QuadCoversItsProjection()
+	{
+		Scene3D scene = new Scene3D(null);
+		scene.AddObject(Quad(0, 1, 0xFF0000, false));
+		
+		int[] pixels = Render(scene, 1);
+		assertEquals(2, renderer.GetTriangleCount());
+		
+		// half the view is tan(fov/2)*10 wide at the quad, the quad is 2 wide
+		double side = SIZE/(Math.tan(Math.PI/8.0d)*10.0d);
+		int expected = (int)Math.round(side*side);
+		int covered = 0;
+		
+		for (int i = 0; i < pixels.length; i++)
+		{
+			if (pixels[i] == 0xFF0000)
+				covered++;
+			else
+				assertEquals(Integer.toHexString(pixels[i]), BACKGROUND, pixels[i]);
+		}
+		
+		assertTrue(covered + " pixels covered, expected about " + expected, Math.abs(covered - expected) < expected/10);
+		assertEquals(0xFF0000, pixels[SIZE/2*SIZE + SIZE/2]);
+		assertEquals(BACKGROUND, pixels[0]);
+	}
+	
+	@Test
+	public void NearerHidesFarther()
+	{
+		Scene3D nearFirst = new Scene3D(null);
+		nearFirst.AddObject(Quad(-2, 1, 0x00FF00, false));
+		nearFirst.AddObject(Quad(0, 2, 0x0000FF, false));
+		
+		Scene3D farFirst = new Scene3D(null);
+		farFirst.AddObject(Quad(0, 2, 0x0000FF, false));
+		farFirst.AddObject(Quad(-2, 1, 0x00FF00, false));
+		
+		int[] a = Render(nearFirst, 1).clone();
+		int[] b = Render(farFirst, 1);
+		
+		assertEquals(0x00FF00, a[SIZE/2*SIZE + SIZE/2]);
+		assertArrayEquals(a, b);
+	}
+	
+	@Test
+	public void BackFacesAreCulled()
+	{
+		Scene3D scene = new Scene3D(null);
+		scene.AddObject(Quad(0, 1, 0xFF0000, true));
+		
+		int[] pixels = Render(scene, 1);
+		assertEquals(0, renderer.GetTriangleCount());
+		
+		for (int i = 0; i < pixels.length; i++)
+			assertEquals(BACKGROUND, pixels[i]);
+	}
+	
+	@Test
+	public void ThreadsDrawTheSameImage()
+	{
+		Scene3D scene = new Scene3D(null);
+		
+		for (int i = 0; i < 20; i++)
+		{
+			Object3D quad = Quad(i*0.3f - 3, 0.5f + i*0.1f, 0x010101*(i*12), false);
+			quad.SetX(i*0.4f - 4);
+			quad.SetZ((i%5)*0.8f - 2);
+			quad.SetYaw(i*0.2f);
+			scene.AddObject(quad);
+		}
+		
+		int[] single = Render(scene, 1).clone();
+		renderer.Shutdown();
+		int[] threaded = Render(scene, 4);
+		
+		assertArrayEquals(single, threaded);
+	}
+	
+	// a square of one color in the X/Z plane facing the view, which looks along +Y from 10 in front of the origin
+	private static Object3D Quad(float y, float half, int rgb, boolean away)
+	{
+		float[] coords = {-half, 0, -half, half, 0, -half, half, 0, half, -half, 0, half};
+		float r = (rgb >> 16 & 0xFF)/255.0f, g = (rgb >> 8 & 0xFF)/255.0f, b = (rgb & 0xFF)/255.0f;
+		float[] colors = {r, g, b, r, g, b, r, g, b, r, g, b};
+		
+		if (away)
+		{
+			// wind it the other way
+			float[] reversed = new float[12];
+			
+			for (int v = 0; v < 4; v++)
+				System.arraycopy(coords, (3 - v)*3, reversed, v*3, 3);
+			
+			coords = reversed;
+		}
+		
+		QuadArray quad = new QuadArray(4, GeometryArray.COORDINATES | GeometryArray.COLOR_3);
+		quad.setCoordinates(0, coords);
+		quad.setColors(0, colors);
+		
+		return new Object3D(new Shape3D(quad), new Vector3f(0, y, 0));
+	}
+	
+	private int[] Render(Scene3D scene, int threads)
+	{
+		renderer = new SoftwareRenderer(SIZE, SIZE, threads);
+		renderer.SetBackground(BACKGROUND);
+		renderer.ViewLookAt(0, -10, 0, 0, 0, 0);
+		renderer.AddScene(scene);
+		renderer.Render();
+		return renderer.GetPixels();
+	}
+}
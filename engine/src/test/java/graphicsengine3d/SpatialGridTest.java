@@ -0,0 +1,173 @@
+package graphicsengine3d;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import javax.media.j3d.TransformGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Mike
+ * Checks a scene's spatial grid against testing every object as objects move and leave, that emptied cells
+ * are freed and that far off positions do not wrap around onto cells near the origin.
+ */
+public class SpatialGridTest
+{
+	private Random random = new Random(5);
+	
+	@Before
+	public void Setup()
+	{
+		Natives.Assume();
+	}
+	
+	@Test
+	public void QueriesMatchBruteForce()
+	{
+		Scene3D scene = new Scene3D(null);
+		scene.UseSpatialIndex(10);
+		ArrayList<Object3D> objects = new ArrayList<Object3D>();
+		
+		for (int i = 0; i < 400; i++)
+		{
+			Object3D object3D = new Object3D(new TransformGroup());
+			Place(object3D);
+			scene.AddObject(object3D);
+			objects.add(object3D);
+		}
+		
+		for (int round = 0; round < 20; round++)
+		{
+			for (int i = 0; i < objects.size(); i += 3)
+				Place(objects.get(i));
+			
+			scene.DeleteObject(objects.remove(objects.size() - 1));
+			CheckQueries(scene.GetSpatialIndex(), objects);
+		}
+	}
+	
+	@Test
+	public void EmptyCellsAreFreed()
+	{
+		Scene3D scene = new Scene3D(null);
+		scene.UseSpatialIndex(1);
+		Object3D object3D = new Object3D(new TransformGroup());
+		scene.AddObject(object3D);
+		
+		SpatialGrid grid = scene.GetSpatialIndex();
+		
+		for (int i = 0; i < 1000; i++)
+			object3D.SetX(i);
+		
+		assertEquals(1, grid.GetCellCount());
+		
+		scene.DeleteObject(object3D);
+		assertEquals(0, grid.GetCellCount());
+		assertEquals(0, grid.GetSize());
+	}
+	
+	@Test
+	public void FarPositionsDoNotWrap()
+	{
+		Scene3D scene = new Scene3D(null);
+		scene.UseSpatialIndex(1);
+		
+		// 2^21 cells apart, the same cell once the coordinates are cut to 21 bits
+		Object3D near = new Object3D(new TransformGroup());
+		Object3D far = new Object3D(new TransformGroup());
+		far.SetX(2097152);
+		scene.AddObject(far);
+		scene.AddObject(near);
+		assertEquals(2, scene.GetSpatialIndex().GetCellCount());
+		
+		ArrayList<Object3D> result = new ArrayList<Object3D>();
+		scene.GetSpatialIndex().QueryRadius(0, 0, 0, 5, result);
+		assertEquals(1, result.size());
+		assertSame(near, result.get(0));
+		
+		result.clear();
+		scene.GetSpatialIndex().QueryNearest(2097152, 0, 0, 1, result);
+		assertSame(far, result.get(0));
+		
+		result.clear();
+		scene.GetSpatialIndex().QueryBox(2097150, -1, -1, 2097154, 1, 1, result);
+		assertEquals(1, result.size());
+		assertSame(far, result.get(0));
+	}
+	
+	private void Place(Object3D object3D)
+	{
+		object3D.SetX(200*random.nextFloat() - 100);
+		object3D.SetY(200*random.nextFloat() - 100);
+		object3D.SetZ(200*random.nextFloat() - 100);
+	}
+	
+	private void CheckQueries(SpatialGrid grid, ArrayList<Object3D> objects)
+	{
+		assertEquals(objects.size(), grid.GetSize());
+		ArrayList<Object3D> result = new ArrayList<Object3D>();
+		
+		for (int n = 0; n < 20; n++)
+		{
+			float x = 240*random.nextFloat() - 120, y = 240*random.nextFloat() - 120, z = 240*random.nextFloat() - 120;
+			float size = 40*random.nextFloat();
+			HashSet<Object3D> expected = new HashSet<Object3D>();
+			
+			for (int i = 0; i < objects.size(); i++)
+			{
+				Object3D o = objects.get(i);
+				
+				if (o.GetX() >= x && o.GetX() <= x + size && o.GetY() >= y && o.GetY() <= y + size && o.GetZ() >= z && o.GetZ() <= z + size)
+					expected.add(o);
+			}
+			
+			result.clear();
+			grid.QueryBox(x, y, z, x + size, y + size, z + size, result);
+			assertEquals(expected, new HashSet<Object3D>(result));
+			assertEquals(expected.size(), result.size());
+			
+			expected.clear();
+			
+			for (int i = 0; i < objects.size(); i++)
+			{
+				Object3D o = objects.get(i);
+				float dx = o.GetX() - x, dy = o.GetY() - y, dz = o.GetZ() - z;
+				
+				if (dx*dx + dy*dy + dz*dz <= size*size)
+					expected.add(o);
+			}
+			
+			result.clear();
+			grid.QueryRadius(x, y, z, size, result);
+			assertEquals(expected, new HashSet<Object3D>(result));
+			assertEquals(expected.size(), result.size());
+			
+			// the k nearest are no further than any object left out
+			result.clear();
+			grid.QueryNearest(x, y, z, 5, result);
+			assertEquals(Math.min(5, objects.size()), result.size());
+			
+			double furthest = Distance(result.get(result.size() - 1), x, y, z);
+			
+			for (int i = 1; i < result.size(); i++)
+				assertTrue(Distance(result.get(i - 1), x, y, z) <= Distance(result.get(i), x, y, z));
+			
+			for (int i = 0; i < objects.size(); i++)
+				if (!result.contains(objects.get(i)))
+					assertTrue(Distance(objects.get(i), x, y, z) >= furthest);
+		}
+	}
+	
+	private static double Distance(Object3D o, float x, float y, float z)
+	{
+		double dx = o.GetX() - x, dy = o.GetY() - y, dz = o.GetZ() - z;
+		return dx*dx + dy*dy + dz*dz;
+	}
+}
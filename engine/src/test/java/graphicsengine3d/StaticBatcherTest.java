@@ -0,0 +1,100 @@
+package graphicsengine3d;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.media.j3d.BranchGroup;
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.Locale;
+import javax.media.j3d.Node;
+import javax.media.j3d.Shape3D;
+import javax.media.j3d.TransformGroup;
+import javax.media.j3d.TriangleArray;
+import javax.media.j3d.VirtualUniverse;
+import javax.vecmath.Vector3f;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Mike
+ * Checks that static objects sharing geometry with live nodes are merged when the geometry came from a
+ * GeometryCache, and left as they are when it cannot be read.
+ */
+public class StaticBatcherTest
+{
+	@Before
+	public void Setup()
+	{
+		Natives.Assume();
+	}
+	
+	@Test
+	public void CacheMeshesMergeWhileLive()
+	{
+		GeometryCache cache = new GeometryCache();
+		MakeLive(cache.GetColorCube(1));
+		
+		Scene3D scene = new Scene3D(null);
+		Object3D a = Static(cache.GetColorCube(1), 0);
+		Object3D b = Static(cache.GetColorCube(1), 10);
+		scene.AddObject(a);
+		scene.AddObject(b);
+		scene.Prepare();
+		
+		assertTrue(a.IsBatched());
+		assertTrue(b.IsBatched());
+		assertEquals(1, scene.GetBatchCount());
+		assertEquals(2*6*6, VertexCount(scene));
+	}
+	
+	@Test
+	public void UnreadableGeometryIsSkipped()
+	{
+		GeometryCache cache = new GeometryCache();
+		TriangleArray triangle = new TriangleArray(3, GeometryArray.COORDINATES | GeometryArray.COLOR_3);
+		MakeLive(new Shape3D(triangle));
+		
+		// the cube is appended before the triangle cannot be read, so it has to be taken back out
+		TransformGroup group = new TransformGroup();
+		group.addChild(cache.GetColorCube(1));
+		group.addChild(new Shape3D(triangle));
+		
+		Scene3D scene = new Scene3D(null);
+		Object3D readable = Static(cache.GetColorCube(1), 0);
+		Object3D unreadable = Static(group, 10);
+		scene.AddObject(readable);
+		scene.AddObject(unreadable);
+		scene.Prepare();
+		
+		assertTrue(readable.IsBatched());
+		assertFalse(unreadable.IsBatched());
+		assertEquals(6*6, VertexCount(scene));
+		assertEquals(group, unreadable.GetTransformGroup().getChild(0));
+	}
+	
+	private static Object3D Static(Node node, float x)
+	{
+		Object3D object3D = new Object3D(node, new Vector3f(x, 0, 0));
+		object3D.SetStatic(true);
+		return object3D;
+	}
+	
+	private static void MakeLive(Node node)
+	{
+		BranchGroup branch = new BranchGroup();
+		branch.addChild(node);
+		new Locale(new VirtualUniverse()).addBranchGraph(branch);
+	}
+	
+	private static int VertexCount(Scene3D scene)
+	{
+		int count = 0;
+		
+		for (StaticBatcher.Batch batch : scene.GetBatcher().GetBatches())
+			count += batch.vertexCount;
+		
+		return count;
+	}
+}
@@ -0,0 +1,164 @@
+package graphicsengine3d;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import javax.media.j3d.ImageComponent2D;
+import javax.media.j3d.Texture2D;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Mike
+ * Checks that images written as texture files read back with the same texels, flipped for Java 3D, with every
+ * mip level down to 1x1, and that damaged files are refused.
+ */
+public class TextureFileTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Before
+	public void Setup()
+	{
+		Natives.Assume();
+	}
+	
+	@Test
+	public void TexelsRoundTrip() throws IOException
+	{
+		BufferedImage image = new BufferedImage(8, 4, BufferedImage.TYPE_INT_ARGB);
+		
+		for (int y = 0; y < 4; y++)
+			for (int x = 0; x < 8; x++)
+				image.setRGB(x, y, 0xFF000000 | (x*30) << 16 | (y*60) << 8 | (x + y)*10);
+		
+		File file = folder.newFile("texels" + TextureFile.EXTENSION);
+		TextureFile.Write(image, file);
+		Texture2D texture = TextureFile.Read(file);
+		
+		assertEquals(8, texture.getWidth());
+		assertEquals(4, texture.getHeight());
+		assertEquals(4, texture.numMipMapLevels());
+		
+		BufferedImage base = Level(texture, 0);
+		
+		// stored bottom row first
+		for (int y = 0; y < 4; y++)
+			for (int x = 0; x < 8; x++)
+				assertEquals(Integer.toHexString(image.getRGB(x, y)), Integer.toHexString(base.getRGB(x, 3 - y)));
+		
+		// each level is the average of the 2x2 blocks of the one above
+		for (int i = 1; i < 4; i++)
+		{
+			BufferedImage above = Level(texture, i - 1), level = Level(texture, i);
+			assertEquals(Math.max(above.getWidth()/2, 1), level.getWidth());
+			assertEquals(Math.max(above.getHeight()/2, 1), level.getHeight());
+			
+			for (int y = 0; y < level.getHeight(); y++)
+			{
+				for (int x = 0; x < level.getWidth(); x++)
+				{
+					int x1 = Math.min(x*2 + 1, above.getWidth() - 1), y1 = Math.min(y*2 + 1, above.getHeight() - 1);
+					
+					for (int shift = 0; shift < 32; shift += 8)
+					{
+						int sum = (above.getRGB(x*2, y*2) >>> shift & 0xFF) + (above.getRGB(x1, y*2) >>> shift & 0xFF)
+							+ (above.getRGB(x*2, y1) >>> shift & 0xFF) + (above.getRGB(x1, y1) >>> shift & 0xFF);
+						assertEquals((sum + 2) >> 2, level.getRGB(x, y) >>> shift & 0xFF);
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void ScalesToPowerOfTwo() throws IOException
+	{
+		BufferedImage image = new BufferedImage(100, 60, BufferedImage.TYPE_INT_RGB);
+		File file = folder.newFile("scaled" + TextureFile.EXTENSION);
+		TextureFile.Write(image, file);
+		Texture2D texture = TextureFile.Read(file);
+		
+		assertEquals(128, texture.getWidth());
+		assertEquals(64, texture.getHeight());
+		assertEquals(8, texture.numMipMapLevels());
+		assertEquals(1, Level(texture, 7).getWidth());
+		assertEquals(1, Level(texture, 7).getHeight());
+	}
+	
+	@Test
+	public void RefusesDamagedFiles() throws IOException
+	{
+		File file = folder.newFile("damaged" + TextureFile.EXTENSION);
+		TextureFile.Write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), file);
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 1);
+		raf.close();
+		
+		try
+		{
+			TextureFile.Read(file);
+			fail("truncated file was read");
+		}
+		catch (IOException e)
+		{
+		}
+		
+		raf = new RandomAccessFile(file, "rw");
+		raf.writeInt(0);
+		raf.close();
+		
+		try
+		{
+			TextureFile.Read(file);
+			fail("file without the magic number was read");
+		}
+		catch (IOException e)
+		{
+		}
+	}
+	
+	@Test
+	public void RefusesBadSizes() throws IOException
+	{
+		File file = folder.newFile("sizes" + TextureFile.EXTENSION);
+		
+		// 65536*65536*4 wraps to 0 in an int, 24 is not a power of two
+		int[][] sizes = {{65536, 65536}, {24, 16}, {16, 0}};
+		
+		for (int i = 0; i < sizes.length; i++)
+		{
+			TextureFile.Write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), file);
+			
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.seek(8);
+			raf.writeInt(sizes[i][0]);
+			raf.writeInt(sizes[i][1]);
+			raf.close();
+			
+			try
+			{
+				TextureFile.Read(file);
+				fail(sizes[i][0] + "x" + sizes[i][1] + " file was read");
+			}
+			catch (IOException e)
+			{
+			}
+		}
+	}
+	
+	private static BufferedImage Level(Texture2D texture, int level)
+	{
+		return ((ImageComponent2D)texture.getImage(level)).getImage();
+	}
+}
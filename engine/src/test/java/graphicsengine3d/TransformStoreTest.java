@@ -0,0 +1,70 @@
+package graphicsengine3d;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.IdentityHashMap;
+
+import javax.media.j3d.TransformGroup;
+import javax.vecmath.Vector3f;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Mike
+ * Checks that objects outside a scene's store share loose blocks and keep their transforms when they move
+ * into a scene's store and back out.
+ */
+public class TransformStoreTest
+{
+	@Before
+	public void Setup()
+	{
+		Natives.Assume();
+	}
+	
+	@Test
+	public void LooseObjectsShareBlocks()
+	{
+		IdentityHashMap<TransformStore, Boolean> stores = new IdentityHashMap<TransformStore, Boolean>();
+		
+		for (int i = 0; i < 1000; i++)
+			stores.put(new Object3D(new TransformGroup()).store, Boolean.TRUE);
+		
+		assertTrue("1000 objects used " + stores.size() + " stores", stores.size() <= 8);
+	}
+	
+	@Test
+	public void TransformSurvivesMovingStores()
+	{
+		Scene3D scene = new Scene3D(null);
+		scene.UseTransformStore(16);
+		
+		Object3D[] objects = new Object3D[40];
+		
+		for (int i = 0; i < objects.length; i++)
+		{
+			objects[i] = new Object3D(new TransformGroup(), new Vector3f(i, 2*i, 3*i), new Vector3f(0.1f*i, 0, 0));
+			objects[i].SetScale(1 + i);
+			scene.AddObject(objects[i]);
+			assertSame(scene.GetTransformStore(), objects[i].store);
+		}
+		
+		// taking objects out moves the last slot of the scene's store into the freed one
+		for (int i = 0; i < objects.length; i += 2)
+			scene.DeleteObject(objects[i]);
+		
+		for (int i = 0; i < objects.length; i++)
+		{
+			Object3D object3D = objects[i];
+			assertSame(object3D, object3D.store.GetObject(object3D.slot));
+			assertEquals(i, object3D.GetX(), 0.0f);
+			assertEquals(2*i, object3D.GetY(), 0.0f);
+			assertEquals(3*i, object3D.GetZ(), 0.0f);
+			assertEquals(0.1f*i, object3D.GetRoll(), 1e-6f);
+			assertEquals(1 + i, object3D.GetScale(), 0.0f);
+		}
+	}
+}
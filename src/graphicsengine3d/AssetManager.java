@@ -0,0 +1,335 @@
+package graphicsengine3d;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.imageio.ImageIO;
+import javax.media.j3d.Appearance;
+import javax.media.j3d.Texture;
+
+import com.sun.j3d.utils.image.TextureLoader;
+
+/**
+ * @author Mike
+ * Loads textures on a pool of background threads and keeps them in a cache. Start the loads a level needs,
+ * build the scene while they run, then get the results. Loading a path that is already cached or being
+ * loaded returns the same texture instead of reading the file again.
+ * <p>
+ * The cache holds up to a budget of estimated texture memory, when it is over the budget the least recently
+ * used textures are forgotten. Forgotten textures keep working where they are used, they are just loaded
+ * again the next time they are asked for.
+ * <p>
+ * Paths ending in .mip are read as preprocessed texture files, which skips decoding and mipmap generation.
+ * @see TextureFile
+ * @see GraphicsEngine3D#GetAssetManager()
+ */
+public class AssetManager
+{
+	private ExecutorService pool;
+	
+	// textures by path and flags, in order of last use. Textures still loading have no size yet
+	private LinkedHashMap<String, Entry> textures = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long maxBytes;
+	private long bytes = 0;
+	
+	/**
+	 * @param threads	Number of loading threads
+	 * @param maxBytes	Estimated texture memory the cache may hold
+	 */
+	public AssetManager(int threads, long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+		
+		pool = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory()
+		{
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "AssetManager");
+				thread.setDaemon(true);		// loads must not keep the program alive
+				return thread;
+			}
+		});
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Textures
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Starts loading a texture.
+	 * @param path Image file
+	 * @return Future giving the texture
+	 */
+	public Future<Texture> LoadTexture(String path)
+	{ return LoadTexture(path, 0); }
+	
+	/**
+	 * Starts loading a texture.
+	 * @param path	Image file
+	 * @param flags	TextureLoader flags, for example TextureLoader.GENERATE_MIPMAP
+	 * @return Future giving the texture
+	 */
+	public synchronized Future<Texture> LoadTexture(String path, int flags)
+	{
+		return GetEntry(path, flags).task;
+	}
+	
+	/**
+	 * Starts loading a texture and gets an Appearance using it. Every call for the same path and flags
+	 * gives the same Appearance so objects using it can be batched together, copy it with
+	 * cloneNodeComponent before changing it.
+	 * @param path	Image file
+	 * @param flags	TextureLoader flags
+	 * @return Future giving the appearance
+	 */
+	public synchronized Future<Appearance> LoadAppearance(String path, int flags)
+	{
+		return new AppearanceFuture(GetEntry(path, flags));
+	}
+	
+	/**
+	 * Loads a texture, waiting for it if it is not cached.
+	 * @param path Image file
+	 * @return Texture, or null if the file could not be loaded
+	 */
+	public Texture GetTexture(String path)
+	{
+		try
+		{
+			return LoadTexture(path).get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch (ExecutionException e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets if a texture is cached or being loaded.
+	 * @param path	Image file
+	 * @param flags	TextureLoader flags
+	 * @return If the texture is in the cache
+	 */
+	public synchronized boolean Contains(String path, int flags)
+	{ return textures.containsKey(Key(path, flags)); }
+	
+	
+	
+	//*********************************************************************************
+	//Cache
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Sets the estimated texture memory the cache may hold, forgetting textures until it fits.
+	 * @param maxBytes Budget in bytes
+	 */
+	public synchronized void SetMaxBytes(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+		Evict();
+	}
+	
+	/**
+	 * Gets the estimated texture memory the cache may hold.
+	 * @return Budget in bytes
+	 */
+	public synchronized long GetMaxBytes()
+	{ return maxBytes; }
+	
+	/**
+	 * Gets the estimated memory of the loaded textures in the cache.
+	 * @return Bytes
+	 */
+	public synchronized long GetBytes()
+	{ return bytes; }
+	
+	/**
+	 * Gets the number of textures cached or being loaded.
+	 * @return Number of textures
+	 */
+	public synchronized int GetTextureCount()
+	{ return textures.size(); }
+	
+	/**
+	 * Forgets every texture. Loads that are running finish but are not cached.
+	 */
+	public synchronized void Clear()
+	{
+		textures.clear();
+		bytes = 0;
+	}
+	
+	/**
+	 * Stops the loading threads. Loads not started yet are cancelled.
+	 */
+	public void Shutdown()
+	{
+		for (Runnable task : pool.shutdownNow())
+			((FutureTask<?>)task).cancel(false);
+	}
+	
+	private static String Key(String path, int flags)
+	{ return flags + ":" + path; }
+	
+	// gets the path's entry, starting a load if there is none
+	private Entry GetEntry(String path, int flags)
+	{
+		String key = Key(path, flags);
+		Entry entry = textures.get(key);
+		
+		if (entry == null)
+		{
+			entry = new Entry(key, path, flags);
+			textures.put(key, entry);
+			pool.execute(entry.task);
+		}
+		
+		return entry;
+	}
+	
+	// called on the loading thread when a load has finished
+	private synchronized void Loaded(Entry entry)
+	{
+		if (textures.get(entry.key) != entry)
+			return;		// cleared while loading
+		
+		if (entry.bytes < 0)
+			textures.remove(entry.key);		// failed, the next request tries again
+		else
+		{
+			bytes += entry.bytes;
+			Evict();
+		}
+	}
+	
+	// forgets the least recently used loaded textures until the cache is within budget
+	private void Evict()
+	{
+		Iterator<Entry> it = textures.values().iterator();
+		
+		while (bytes > maxBytes && it.hasNext())
+		{
+			Entry entry = it.next();
+			
+			if (entry.task.isDone())
+			{
+				bytes -= entry.bytes;
+				it.remove();
+			}
+		}
+	}
+	
+	
+	
+	// a texture being loaded or loaded, bytes is -1 until it loaded
+	private class Entry implements Callable<Texture>
+	{
+		private final String key;
+		private final String path;
+		private final int flags;
+		private final FutureTask<Texture> task;
+		private volatile long bytes = -1;
+		private Appearance appearance;
+		
+		Entry(String key, String path, int flags)
+		{
+			this.key = key;
+			this.path = path;
+			this.flags = flags;
+			
+			task = new FutureTask<Texture>(this)
+			{
+				protected void done()
+				{ Loaded(Entry.this); }
+			};
+		}
+		
+		public Texture call() throws IOException
+		{
+			if (path.endsWith(TextureFile.EXTENSION))
+			{
+				// preprocessed, already has its mip levels
+				Texture texture = TextureFile.Read(new File(path));
+				long size = (long)texture.getWidth()*texture.getHeight()*4;
+				
+				bytes = texture.numMipMapLevels() > 1 ? size + size/3 : size;
+				return texture;
+			}
+			
+			BufferedImage image = ImageIO.read(new File(path));
+			
+			if (image == null)
+				throw new IOException("Cannot decode " + path);
+			
+			Texture texture = new TextureLoader(image, flags).getTexture();
+			
+			// 4 bytes a texel, a third more for the smaller mip levels
+			long size = (long)image.getWidth()*image.getHeight()*4;
+			
+			if ((flags & TextureLoader.GENERATE_MIPMAP) != 0)
+				size += size/3;
+			
+			bytes = size;
+			return texture;
+		}
+		
+		synchronized Appearance GetAppearance() throws InterruptedException, ExecutionException
+		{
+			if (appearance == null)
+			{
+				appearance = new Appearance();
+				appearance.setTexture(task.get());
+			}
+			
+			return appearance;
+		}
+	}
+	
+	// gives the entry's shared appearance once its texture is loaded
+	private static class AppearanceFuture implements Future<Appearance>
+	{
+		private final Entry entry;
+		
+		AppearanceFuture(Entry entry)
+		{ this.entry = entry; }
+		
+		public boolean cancel(boolean mayInterrupt)
+		{ return false; }
+		
+		public boolean isCancelled()
+		{ return false; }
+		
+		public boolean isDone()
+		{ return entry.task.isDone(); }
+		
+		public Appearance get() throws InterruptedException, ExecutionException
+		{ return entry.GetAppearance(); }
+		
+		public Appearance get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+		{
+			entry.task.get(timeout, unit);
+			return entry.GetAppearance();
+		}
+	}
+}
@@ -0,0 +1,474 @@
+package graphicsengine3d;
+
+import java.awt.AWTException;
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.Point;
+import java.awt.Robot;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * @author Mike
+ * Moves a universe's view. ORBIT circles a point, FOLLOW circles an Object3D and FREE flies from its own position.
+ * Add it to a FrameScheduler and it writes the view once per frame, or call Apply() yourself. The view is only
+ * written when something changed. Z is up, yaw turns around Z and pitch tilts up from the XY plane.
+ * @see FrameScheduler#AddListener(FrameListener)
+ */
+public class CameraController extends FrameListener
+{
+	public static final int ORBIT = 0;
+	public static final int FOLLOW = 1;
+	public static final int FREE = 2;
+	
+	// one robot for every controller, null if the platform does not allow one
+	private static Robot robot;
+	private static boolean robotFailed = false;
+	
+	private Universe3D univ;
+	private int mode = ORBIT;
+	
+	// orbit and follow: point looked at, distance from it and height added to the view
+	// free: position of the view
+	private double x, y, z;
+	private double yaw = 0, pitch = 0;
+	private double distance = 400;
+	private double heightOffset = 0;
+	private double minPitch = -Math.PI/2, maxPitch = Math.PI/2;
+	private double pointerSensitivity = 1.0d/400.0d;
+	
+	private Object3D target;
+	private float targetX, targetY, targetZ;
+	private boolean changed = true;
+	
+	// reads and recenters the pointer on the event dispatch thread for PointerRotate
+	private final PointerReader pointer = new PointerReader();
+	
+	/**
+	 * Creates an orbit controller for a universe's view.
+	 * @param universe Universe whose view is moved
+	 */
+	public CameraController(Universe3D universe)
+	{
+		univ = universe;
+	}
+	
+	/**
+	 * Called by the FrameScheduler, the view only changes once per frame so this does nothing.
+	 * @param step Length of the step in seconds
+	 */
+	public void Update(float step) {}
+	
+	/**
+	 * Called by the FrameScheduler once per frame, applies the view.
+	 * @param alpha Interpolation alpha
+	 */
+	public void Render(float alpha)
+	{
+		Apply();
+	}
+	
+	/**
+	 * Writes the view if anything changed since it was last written. In FOLLOW mode this also checks if the target moved.
+	 * @return If the view was written
+	 */
+	public boolean Apply()
+	{
+		if (mode == FOLLOW && target != null)
+		{
+			float tx = target.GetX(), ty = target.GetY(), tz = target.GetZ();
+			
+			if (tx != targetX || ty != targetY || tz != targetZ)
+			{
+				targetX = tx;
+				targetY = ty;
+				targetZ = tz;
+				x = tx;
+				y = ty;
+				z = tz;
+				changed = true;
+			}
+		}
+		
+		if (!changed)
+			return false;
+		
+		changed = false;
+		
+		double cosPitch = Math.cos(pitch);
+		double dx = Math.cos(yaw)*cosPitch;
+		double dy = Math.sin(yaw)*cosPitch;
+		double dz = Math.sin(pitch);
+		
+		if (mode == FREE)
+			univ.ViewLookAt(x, y, z, x + dx, y + dy, z + dz);
+		else
+			univ.ViewLookAt(x + dx*distance, y + dy*distance, z + dz*distance + heightOffset, x, y, z);
+		
+		return true;
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Mode
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Sets the mode, ORBIT, FOLLOW or FREE.
+	 * @param mode Mode
+	 */
+	public void SetMode(int mode)
+	{
+		this.mode = mode;
+		changed = true;
+	}
+	
+	/**
+	 * Gets the mode.
+	 * @return ORBIT, FOLLOW or FREE
+	 */
+	public int GetMode()
+	{ return mode; }
+	
+	/**
+	 * Switches to FOLLOW mode circling an object.
+	 * @param object3D Object to follow
+	 */
+	public void Follow(Object3D object3D)
+	{
+		target = object3D;
+		targetX = Float.NaN;
+		SetMode(FOLLOW);
+	}
+	
+	/**
+	 * Gets the object followed in FOLLOW mode.
+	 * @return Object3D, or null
+	 */
+	public Object3D GetTarget()
+	{ return target; }
+	
+	
+	
+	//*********************************************************************************
+	//Position
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Sets the point looked at in ORBIT mode, or the view's position in FREE mode.
+	 * @param x X position
+	 * @param y Y position
+	 * @param z Z position
+	 */
+	public void SetPosition(double x, double y, double z)
+	{
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		changed = true;
+	}
+	
+	/**
+	 * Moves along the ground relative to the yaw. In ORBIT mode this moves the point looked at so positive forward
+	 * moves away from the view's side of it, like the view walking forward.
+	 * @param forward Amount forward
+	 * @param right Amount to the right
+	 */
+	public void Pan(double forward, double right)
+	{
+		double cos = Math.cos(yaw), sin = Math.sin(yaw);
+		
+		if (mode == FREE)
+		{
+			x += cos*forward + sin*right;
+			y += sin*forward - cos*right;
+		}
+		else
+		{
+			x += -cos*forward - sin*right;
+			y += -sin*forward + cos*right;
+		}
+		
+		changed = true;
+	}
+	
+	/**
+	 * Moves the view in the direction it faces, including up or down. Only for FREE mode.
+	 * @param amt Amount to move
+	 */
+	public void MoveForward(double amt)
+	{
+		double cosPitch = Math.cos(pitch);
+		
+		x += Math.cos(yaw)*cosPitch*amt;
+		y += Math.sin(yaw)*cosPitch*amt;
+		z += Math.sin(pitch)*amt;
+		changed = true;
+	}
+	
+	/**
+	 * Moves the view up or down.
+	 * @param amt Amount to move
+	 */
+	public void MoveUp(double amt)
+	{
+		z += amt;
+		changed = true;
+	}
+	
+	/**
+	 * Gets the X position of the point looked at, or of the view in FREE mode.
+	 * @return X position
+	 */
+	public double GetX()
+	{ return x; }
+	
+	/**
+	 * Gets the Y position of the point looked at, or of the view in FREE mode.
+	 * @return Y position
+	 */
+	public double GetY()
+	{ return y; }
+	
+	/**
+	 * Gets the Z position of the point looked at, or of the view in FREE mode.
+	 * @return Z position
+	 */
+	public double GetZ()
+	{ return z; }
+	
+	
+	
+	//*********************************************************************************
+	//Angles
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Adds to the yaw.
+	 * @param angle Angle
+	 */
+	public void AddYaw(double angle)
+	{
+		yaw += angle;
+		changed = true;
+	}
+	
+	/**
+	 * Sets the yaw.
+	 * @param angle Angle
+	 */
+	public void SetYaw(double angle)
+	{
+		yaw = angle;
+		changed = true;
+	}
+	
+	/**
+	 * Gets the yaw.
+	 * @return Yaw
+	 */
+	public double GetYaw()
+	{ return yaw; }
+	
+	/**
+	 * Adds to the pitch. The pitch is kept within the pitch limits.
+	 * @param angle Angle
+	 */
+	public void AddPitch(double angle)
+	{
+		SetPitch(pitch + angle);
+	}
+	
+	/**
+	 * Sets the pitch. The pitch is kept within the pitch limits.
+	 * @param angle Angle
+	 */
+	public void SetPitch(double angle)
+	{
+		pitch = Math.max(minPitch, Math.min(maxPitch, angle));
+		changed = true;
+	}
+	
+	/**
+	 * Gets the pitch.
+	 * @return Pitch
+	 */
+	public double GetPitch()
+	{ return pitch; }
+	
+	/**
+	 * Sets the lowest and highest pitch.
+	 * @param min Lowest pitch
+	 * @param max Highest pitch
+	 */
+	public void SetPitchLimits(double min, double max)
+	{
+		minPitch = min;
+		maxPitch = max;
+		SetPitch(pitch);
+	}
+	
+	/**
+	 * Sets the distance of the view from the point looked at in ORBIT and FOLLOW mode.
+	 * @param distance Distance
+	 */
+	public void SetDistance(double distance)
+	{
+		this.distance = distance;
+		changed = true;
+	}
+	
+	/**
+	 * Gets the distance of the view from the point looked at.
+	 * @return Distance
+	 */
+	public double GetDistance()
+	{ return distance; }
+	
+	/**
+	 * Sets a height added to the view's position in ORBIT and FOLLOW mode, the point looked at stays the same.
+	 * @param height Height
+	 */
+	public void SetHeightOffset(double height)
+	{
+		heightOffset = height;
+		changed = true;
+	}
+	
+	/**
+	 * Gets the height added to the view's position.
+	 * @return Height
+	 */
+	public double GetHeightOffset()
+	{ return heightOffset; }
+	
+	
+	
+	//*********************************************************************************
+	//Pointer
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Turns the view by how far the pointer is from a component's center, then moves the pointer back to the center.
+	 * Call it every update while dragging. The pointer is read and moved on the event dispatch thread, so each call
+	 * turns the view by what was measured since the last one.
+	 * @param component Component the pointer is kept in
+	 * @param rotate False to only move the pointer to the center, for the first update of a drag
+	 */
+	public void PointerRotate(Component component, boolean rotate)
+	{
+		int dx, dy;
+		boolean post;
+		
+		synchronized (pointer)
+		{
+			dx = pointer.dx;
+			dy = pointer.dy;
+			pointer.dx = 0;
+			pointer.dy = 0;
+			pointer.component = component;
+			pointer.discard |= !rotate;
+			post = !pointer.pending;
+			pointer.pending = true;
+		}
+		
+		if (rotate)
+		{
+			AddYaw(-dx*pointerSensitivity);
+			AddPitch(dy*pointerSensitivity);
+		}
+		
+		if (post)
+			EventQueue.invokeLater(pointer);
+	}
+	
+	/**
+	 * Sets how many radians one pixel of pointer movement turns the view. The default is 1/400.
+	 * @param sensitivity Radians per pixel
+	 */
+	public void SetPointerSensitivity(double sensitivity)
+	{
+		pointerSensitivity = sensitivity;
+	}
+	
+	private static synchronized Robot GetRobot()
+	{
+		if (robot == null && !robotFailed)
+		{
+			try
+			{
+				robot = new Robot();
+			}
+			catch (AWTException e)
+			{
+				robotFailed = true;
+			}
+			catch (SecurityException e)
+			{
+				robotFailed = true;
+			}
+		}
+		
+		return robot;
+	}
+	
+	
+	
+	// one per controller and posted at most once at a time, so dragging does not allocate on the frame thread
+	private static class PointerReader implements Runnable
+	{
+		// guarded by this
+		Component component;
+		int dx, dy;
+		boolean discard = false;
+		boolean pending = false;
+		
+		// only used on the event dispatch thread
+		private Point center = new Point();
+		
+		public void run()
+		{
+			Component current;
+			boolean measure;
+			
+			synchronized (this)
+			{
+				current = component;
+				measure = !discard;
+				discard = false;
+				pending = false;
+			}
+			
+			Point mouse = current.getMousePosition();
+			
+			if (mouse == null)
+				return;
+			
+			int centerX = current.getWidth()/2;
+			int centerY = current.getHeight()/2;
+			
+			if (measure)
+			{
+				synchronized (this)
+				{
+					dx += mouse.x - centerX;
+					dy += mouse.y - centerY;
+				}
+			}
+			
+			Robot rob = GetRobot();
+			
+			if (rob != null && current.isShowing())
+			{
+				center.setLocation(centerX, centerY);
+				SwingUtilities.convertPointToScreen(center, current);
+				rob.mouseMove(center.x, center.y);
+			}
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package graphicsengine3d;
+
+/**
+ * @author Mike
+ * Builds the chunks of a streamed world. Build is called on one of the streamer's loading threads, Release and Failed
+ * on the frame thread after the chunk's scene has been removed.
+ * @see WorldStreamer
+ */
+public abstract class ChunkBuilder
+{
+	/**
+	 * Adds a chunk's objects to its scene. The scene is not shown yet, so objects can be added directly.
+	 * @param chunkX	Chunk X index, the chunk covers chunkX*size to (chunkX + 1)*size along X
+	 * @param chunkY	Chunk Y index
+	 * @param size		Chunk size
+	 * @param scene		Scene of the chunk
+	 */
+	public abstract void Build(int chunkX, int chunkY, float size, Scene3D scene);
+	
+	/**
+	 * Called when a chunk has gone out of range and its scene was removed. Use it to let go of anything the chunk held.
+	 * @param chunkX	Chunk X index
+	 * @param chunkY	Chunk Y index
+	 * @param scene		Scene of the chunk, now empty
+	 */
+	public void Release(int chunkX, int chunkY, Scene3D scene) {}
+	
+	/**
+	 * Called on the frame thread when Build, or preparing the chunk's scene, threw, errors included. The chunk's
+	 * scene was removed without calling Release, and the chunk is built again once the streamer's retry delay has
+	 * passed if it is still in range. Prints the exception unless overridden.
+	 * @param chunkX	Chunk X index
+	 * @param chunkY	Chunk Y index
+	 * @param e		What Build or Prepare threw
+	 * @see WorldStreamer#SetRetryDelay(float)
+	 */
+	public void Failed(int chunkX, int chunkY, Throwable e)
+	{
+		e.printStackTrace();
+	}
+}
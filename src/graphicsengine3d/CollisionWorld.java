@@ -0,0 +1,828 @@
+package graphicsengine3d;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * @author Mike
+ * Finds which of a scene's objects touch. Objects are given a sphere or a box, the box turns with the object,
+ * and both grow with its scale. Each update:
+ * <ul>
+ * <li>the objects' bounding boxes are refreshed from their TransformStore slots,</li>
+ * <li>the boxes are kept sorted along one axis by insertion sort, which is nearly free when objects move a little
+ * between updates, and swept to find the pairs whose boxes overlap (sweep and prune),</li>
+ * <li>those pairs are tested exactly, split across cores when there are many,</li>
+ * <li>listeners are told about the pairs that started and stopped touching.</li>
+ * </ul>
+ * Bodies can be put in groups with a mask of the groups they touch, so for example shells only test against tanks.
+ * <p>
+ * Register it with a FrameScheduler after whatever moves the objects. Bodies should be changed on the same thread.
+ * @see Scene3D#UseCollisions()
+ * @see ContactListener
+ */
+public class CollisionWorld extends FrameListener
+{
+	/** Shape of a body. */
+	public static final int SPHERE = 0, BOX = 1;
+	
+	// pairs one fork join task tests
+	private static final int CHUNK_SIZE = 512;
+	
+	// bodies by slot, slots are kept while a body lives so indices into the sorted order stay valid
+	private Object3D[] bodies = new Object3D[64];
+	private int[] ids = new int[64];
+	private byte[] shapes = new byte[64];
+	private float[] sizeX = new float[64], sizeY = new float[64], sizeZ = new float[64];	// radius or half extents
+	private int[] groups = new int[64], masks = new int[64];
+	private int slotCount = 0;
+	private int[] freeSlots = new int[16];
+	private int freeCount = 0;
+	private int[] removedSlots = new int[16];	// freed once they are out of the order
+	private int removedCount = 0;
+	private int bodyCount = 0;
+	private int nextId = 0;
+	
+	// world bounding boxes, by slot
+	private float[] minX = new float[64], minY = new float[64], minZ = new float[64];
+	private float[] maxX = new float[64], maxY = new float[64], maxZ = new float[64];
+	
+	// slots sorted by the minimum on the sweep axis, with that minimum. Removed slots are dropped on the next update
+	private int[] order = new int[64];
+	private float[] orderMin = new float[64];
+	private float[] swept = new float[0];	// max on the sweep axis and the other two axes' ranges, in order
+	private int orderCount = 0;
+	private int added = 0;
+	private int axis = 0;
+	
+	// pairs whose boxes overlap, and whether their shapes touch
+	private int[] pairA = new int[256], pairB = new int[256];
+	private boolean[] touching = new boolean[256];
+	private int pairCount = 0;
+	
+	// touching pairs of this and the last update, keyed by the ids of the two bodies
+	private Contacts contacts = new Contacts(), lastContacts = new Contacts();
+	
+	private volatile ContactListener[] listeners = new ContactListener[0];
+	
+	private int parallelThreshold = 4096;
+	private ForkJoinPool pool;
+	
+	
+	
+	//*********************************************************************************
+	//Bodies
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Gives an object a sphere, centered on its position. Objects given a shape again keep their contacts.
+	 * @param object3D	Object
+	 * @param radius	Radius before scaling
+	 */
+	public void SetSphere(Object3D object3D, float radius)
+	{
+		int slot = Slot(object3D);
+		shapes[slot] = SPHERE;
+		sizeX[slot] = radius;
+		sizeY[slot] = radius;
+		sizeZ[slot] = radius;
+	}
+	
+	/**
+	 * Gives an object a box, centered on its position and turned with it.
+	 * @param object3D	Object
+	 * @param halfX		Half the width along the object's X axis, before scaling
+	 * @param halfY		Half the width along Y
+	 * @param halfZ		Half the width along Z
+	 */
+	public void SetBox(Object3D object3D, float halfX, float halfY, float halfZ)
+	{
+		int slot = Slot(object3D);
+		shapes[slot] = BOX;
+		sizeX[slot] = halfX;
+		sizeY[slot] = halfY;
+		sizeZ[slot] = halfZ;
+	}
+	
+	/**
+	 * Sets which groups a body is in and which groups it touches. Two bodies are tested when each is in a group
+	 * the other touches. By default bodies are in group 1 and touch every group.
+	 * @param object3D	Object, must have a shape
+	 * @param group		Bits of the groups the body is in
+	 * @param mask		Bits of the groups the body touches
+	 */
+	public void SetFilter(Object3D object3D, int group, int mask)
+	{
+		if (object3D.collisions != this)
+			throw new IllegalArgumentException("Object3D has no shape in this CollisionWorld");
+		
+		groups[object3D.collisionSlot] = group;
+		masks[object3D.collisionSlot] = mask;
+	}
+	
+	/**
+	 * Takes an object's shape away. Its contacts end on the next update.
+	 * @param object3D Object
+	 * @return If the object had a shape
+	 */
+	public boolean Remove(Object3D object3D)
+	{
+		if (object3D.collisions != this)
+			return false;
+		
+		int slot = object3D.collisionSlot;
+		bodies[slot] = null;
+		object3D.collisions = null;
+		object3D.collisionSlot = -1;
+		
+		if (removedCount == removedSlots.length)
+			removedSlots = Arrays.copyOf(removedSlots, removedCount*2);
+		
+		removedSlots[removedCount++] = slot;
+		bodyCount--;
+		return true;
+	}
+	
+	/**
+	 * Gets the number of objects with a shape.
+	 * @return Number of bodies
+	 */
+	public int GetCount()
+	{ return bodyCount; }
+	
+	/**
+	 * Gets if an object has a shape here.
+	 * @param object3D Object
+	 * @return If the object is a body
+	 */
+	public boolean Contains(Object3D object3D)
+	{ return object3D.collisions == this; }
+	
+	// the object's slot, a new one if it has no shape yet
+	private int Slot(Object3D object3D)
+	{
+		if (object3D.collisions == this)
+			return object3D.collisionSlot;
+		
+		if (object3D.collisions != null)
+			throw new IllegalArgumentException("Object3D already has a shape in another CollisionWorld");
+		
+		int slot;
+		
+		if (freeCount > 0)
+			slot = freeSlots[--freeCount];
+		else
+		{
+			if (slotCount == bodies.length)
+				Grow(slotCount*2);
+			
+			slot = slotCount++;
+		}
+		
+		bodies[slot] = object3D;
+		ids[slot] = nextId++;
+		groups[slot] = 1;
+		masks[slot] = -1;
+		object3D.collisions = this;
+		object3D.collisionSlot = slot;
+		bodyCount++;
+		
+		// new slots go at the end of the order and are sorted in on the next update
+		if (orderCount == order.length)
+		{
+			order = Arrays.copyOf(order, orderCount*2);
+			orderMin = Arrays.copyOf(orderMin, orderCount*2);
+		}
+		
+		order[orderCount++] = slot;
+		added++;
+		
+		return slot;
+	}
+	
+	private void Grow(int capacity)
+	{
+		bodies = Arrays.copyOf(bodies, capacity);
+		ids = Arrays.copyOf(ids, capacity);
+		shapes = Arrays.copyOf(shapes, capacity);
+		sizeX = Arrays.copyOf(sizeX, capacity); sizeY = Arrays.copyOf(sizeY, capacity); sizeZ = Arrays.copyOf(sizeZ, capacity);
+		groups = Arrays.copyOf(groups, capacity); masks = Arrays.copyOf(masks, capacity);
+		minX = Arrays.copyOf(minX, capacity); minY = Arrays.copyOf(minY, capacity); minZ = Arrays.copyOf(minZ, capacity);
+		maxX = Arrays.copyOf(maxX, capacity); maxY = Arrays.copyOf(maxY, capacity); maxZ = Arrays.copyOf(maxZ, capacity);
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Listeners
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Adds a listener.
+	 * @param listener Listener
+	 */
+	public synchronized void AddListener(ContactListener listener)
+	{
+		ContactListener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+		newListeners[listeners.length] = listener;
+		
+		listeners = newListeners;
+	}
+	
+	/**
+	 * Removes a listener.
+	 * @param listener Listener
+	 * @return If the listener was found and removed
+	 */
+	public synchronized boolean RemoveListener(ContactListener listener)
+	{
+		for (int i = 0; i < listeners.length; i++)
+		{
+			if (listeners[i] == listener)
+			{
+				ContactListener[] newListeners = new ContactListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, newListeners, 0, i);
+				System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+				
+				listeners = newListeners;
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Sets the number of overlapping pairs from which the exact tests are split across cores. The default is 4096.
+	 * @param pairs Number of pairs
+	 */
+	public void SetParallelThreshold(int pairs)
+	{
+		parallelThreshold = Math.max(pairs, 1);
+	}
+	
+	/**
+	 * Gets the number of overlapping pairs from which the exact tests are split across cores.
+	 * @return Number of pairs
+	 */
+	public int GetParallelThreshold()
+	{ return parallelThreshold; }
+	
+	
+	
+	//*********************************************************************************
+	//Contacts
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Gets the number of touching pairs found by the last update.
+	 * @return Number of contacts
+	 */
+	public int GetContactCount()
+	{ return contacts.count; }
+	
+	/**
+	 * Gets the first object of a touching pair.
+	 * @param index Contact, 0 to GetContactCount() - 1
+	 * @return Object
+	 */
+	public Object3D GetContactA(int index)
+	{ return contacts.a[index]; }
+	
+	/**
+	 * Gets the second object of a touching pair.
+	 * @param index Contact, 0 to GetContactCount() - 1
+	 * @return Object
+	 */
+	public Object3D GetContactB(int index)
+	{ return contacts.b[index]; }
+	
+	/**
+	 * Gets the number of pairs whose bounding boxes overlapped in the last update, the pairs that were tested exactly.
+	 * @return Number of pairs
+	 */
+	public int GetPairCount()
+	{ return pairCount; }
+	
+	
+	
+	//*********************************************************************************
+	//Update
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Finds the touching pairs and tells the listeners what changed.
+	 * @param step Step length in seconds, not used
+	 */
+	public void Update(float step)
+	{
+		UpdateBounds();
+		SortAxis();
+		Sweep();
+		
+		if (pairCount >= parallelThreshold)
+		{
+			if (pool == null)
+				pool = new ForkJoinPool();
+			
+			pool.invoke(new TestTask(0, pairCount));
+		}
+		else
+			Test(0, pairCount);
+		
+		ReportContacts();
+	}
+	
+	// refreshes the world bounding boxes from the transforms
+	private void UpdateBounds()
+	{
+		for (int slot = 0; slot < slotCount; slot++)
+		{
+			Object3D body = bodies[slot];
+			
+			if (body == null)
+				continue;
+			
+			TransformStore store = body.store;
+			int s = body.slot;
+			float scale = Math.abs(store.scale[s]);
+			float hx = sizeX[slot]*scale, hy = sizeY[slot]*scale, hz = sizeZ[slot]*scale;
+			float ex = hx, ey = hy, ez = hz;
+			
+			if (shapes[slot] == BOX)
+			{
+				// half extents of the turned box along the world axes
+				double[] r = store.rotMat;
+				int o = s*9;
+				ex = (float)(Math.abs(r[o])*hx + Math.abs(r[o + 1])*hy + Math.abs(r[o + 2])*hz);
+				ey = (float)(Math.abs(r[o + 3])*hx + Math.abs(r[o + 4])*hy + Math.abs(r[o + 5])*hz);
+				ez = (float)(Math.abs(r[o + 6])*hx + Math.abs(r[o + 7])*hy + Math.abs(r[o + 8])*hz);
+			}
+			
+			float x = store.posX[s], y = store.posY[s], z = store.posZ[s];
+			minX[slot] = x - ex; maxX[slot] = x + ex;
+			minY[slot] = y - ey; maxY[slot] = y + ey;
+			minZ[slot] = z - ez; maxZ[slot] = z + ez;
+		}
+	}
+	
+	// keeps the order sorted by the minimum on the axis the bodies are most spread along
+	private void SortAxis()
+	{
+		if (removedCount > 0)
+		{
+			// drop the removed slots, the rest stay in order, then let the slots be used again
+			int n = 0;
+			
+			for (int i = 0; i < orderCount; i++)
+			{
+				if (bodies[order[i]] != null)
+					order[n++] = order[i];
+			}
+			
+			orderCount = n;
+			
+			if (freeCount + removedCount > freeSlots.length)
+				freeSlots = Arrays.copyOf(freeSlots, freeCount + removedCount);
+			
+			System.arraycopy(removedSlots, 0, freeSlots, freeCount, removedCount);
+			freeCount += removedCount;
+			removedCount = 0;
+		}
+		
+		boolean resort = added > 64 && added*8 > orderCount;
+		int bestAxis = BestAxis();
+		
+		if (bestAxis != axis)
+		{
+			axis = bestAxis;
+			resort = true;
+		}
+		
+		float[] min = axis == 0 ? minX : axis == 1 ? minY : minZ;
+		
+		for (int i = 0; i < orderCount; i++)
+			orderMin[i] = min[order[i]];
+		
+		if (resort)
+			FullSort();
+		else
+		{
+			// insertion sort, objects only move a few places between updates
+			for (int i = 1; i < orderCount; i++)
+			{
+				float key = orderMin[i];
+				
+				if (key >= orderMin[i - 1])
+					continue;
+				
+				int slot = order[i];
+				int j = i - 1;
+				
+				while (j >= 0 && orderMin[j] > key)
+				{
+					orderMin[j + 1] = orderMin[j];
+					order[j + 1] = order[j];
+					j--;
+				}
+				
+				orderMin[j + 1] = key;
+				order[j + 1] = slot;
+			}
+		}
+		
+		added = 0;
+	}
+	
+	// the axis with the most spread out centers, only changed when another is clearly better so the order is kept
+	private int BestAxis()
+	{
+		if (orderCount < 2)
+			return axis;
+		
+		double sumX = 0, sumY = 0, sumZ = 0, sumSqX = 0, sumSqY = 0, sumSqZ = 0;
+		int step = Math.max(orderCount/256, 1), n = 0;
+		
+		for (int i = 0; i < orderCount; i += step, n++)
+		{
+			int slot = order[i];
+			double x = minX[slot] + maxX[slot], y = minY[slot] + maxY[slot], z = minZ[slot] + maxZ[slot];
+			sumX += x; sumSqX += x*x;
+			sumY += y; sumSqY += y*y;
+			sumZ += z; sumSqZ += z*z;
+		}
+		
+		double varianceX = sumSqX - sumX*sumX/n, varianceY = sumSqY - sumY*sumY/n, varianceZ = sumSqZ - sumZ*sumZ/n;
+		double current = axis == 0 ? varianceX : axis == 1 ? varianceY : varianceZ;
+		int best = axis;
+		double bestVariance = current*1.5d;
+		
+		if (varianceX > bestVariance)
+		{
+			best = 0;
+			bestVariance = varianceX;
+		}
+		
+		if (varianceY > bestVariance)
+		{
+			best = 1;
+			bestVariance = varianceY;
+		}
+		
+		if (varianceZ > bestVariance)
+			best = 2;
+		
+		return best;
+	}
+	
+	// sorts the whole order, used when many bodies were added or the axis changed
+	private void FullSort()
+	{
+		long[] keys = new long[orderCount];
+		
+		for (int i = 0; i < orderCount; i++)
+		{
+			// flip the bits of negative floats so their ints sort like the floats
+			int bits = Float.floatToIntBits(orderMin[i]);
+			bits ^= (bits >> 31) & 0x7FFFFFFF;
+			keys[i] = ((long)bits << 32) | order[i];
+		}
+		
+		Arrays.sort(keys);
+		
+		float[] min = axis == 0 ? minX : axis == 1 ? minY : minZ;
+		
+		for (int i = 0; i < orderCount; i++)
+		{
+			order[i] = (int)keys[i];
+			orderMin[i] = min[order[i]];
+		}
+	}
+	
+	// finds the pairs whose boxes overlap by walking the order
+	private void Sweep()
+	{
+		float[] max = axis == 0 ? maxX : axis == 1 ? maxY : maxZ;
+		float[] minB = axis == 0 ? minY : minX, maxB = axis == 0 ? maxY : maxX;
+		float[] minC = axis == 2 ? minY : minZ, maxC = axis == 2 ? maxY : maxZ;
+		
+		// copy the boxes in sorted order so the sweep reads them one after another
+		if (swept.length < orderCount*5)
+			swept = new float[order.length*5];
+		
+		for (int i = 0, k = 0; i < orderCount; i++, k += 5)
+		{
+			int slot = order[i];
+			swept[k] = max[slot];
+			swept[k + 1] = minB[slot];
+			swept[k + 2] = maxB[slot];
+			swept[k + 3] = minC[slot];
+			swept[k + 4] = maxC[slot];
+		}
+		
+		pairCount = 0;
+		
+		for (int i = 0; i < orderCount; i++)
+		{
+			int k = i*5;
+			float end = swept[k], aMinB = swept[k + 1], aMaxB = swept[k + 2], aMinC = swept[k + 3], aMaxC = swept[k + 4];
+			
+			for (int j = i + 1; j < orderCount && orderMin[j] <= end; j++)
+			{
+				int l = j*5;
+				
+				if (aMinB > swept[l + 2] || swept[l + 1] > aMaxB || aMinC > swept[l + 4] || swept[l + 3] > aMaxC)
+					continue;
+				
+				int a = order[i], b = order[j];
+				
+				if ((groups[a] & masks[b]) == 0 || (groups[b] & masks[a]) == 0)
+					continue;
+				
+				if (pairCount == pairA.length)
+				{
+					pairA = Arrays.copyOf(pairA, pairCount*2);
+					pairB = Arrays.copyOf(pairB, pairCount*2);
+					touching = new boolean[pairCount*2];
+				}
+				
+				pairA[pairCount] = a;
+				pairB[pairCount] = b;
+				pairCount++;
+			}
+		}
+	}
+	
+	// tests the pairs from to to - 1 exactly, each pair only writes its own result
+	private void Test(int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			int a = pairA[i], b = pairB[i];
+			
+			if (shapes[a] == SPHERE && shapes[b] == SPHERE)
+				touching[i] = SphereSphere(a, b);
+			else if (shapes[a] == SPHERE)
+				touching[i] = SphereBox(a, b);
+			else if (shapes[b] == SPHERE)
+				touching[i] = SphereBox(b, a);
+			else
+				touching[i] = BoxBox(a, b);
+		}
+	}
+	
+	private boolean SphereSphere(int a, int b)
+	{
+		Object3D bodyA = bodies[a], bodyB = bodies[b];
+		TransformStore sa = bodyA.store, sb = bodyB.store;
+		int ia = bodyA.slot, ib = bodyB.slot;
+		
+		double dx = sa.posX[ia] - sb.posX[ib], dy = sa.posY[ia] - sb.posY[ib], dz = sa.posZ[ia] - sb.posZ[ib];
+		double r = sizeX[a]*Math.abs(sa.scale[ia]) + sizeX[b]*Math.abs(sb.scale[ib]);
+		
+		return dx*dx + dy*dy + dz*dz <= r*r;
+	}
+	
+	private boolean SphereBox(int sphere, int box)
+	{
+		Object3D bodyS = bodies[sphere], bodyB = bodies[box];
+		TransformStore ss = bodyS.store, sb = bodyB.store;
+		int is = bodyS.slot, ib = bodyB.slot;
+		double[] r = sb.rotMat;
+		int o = ib*9;
+		double scale = Math.abs(sb.scale[ib]);
+		double radius = sizeX[sphere]*Math.abs(ss.scale[is]);
+		
+		// the sphere's center in the box's frame, the box's axes are the columns of its rotation
+		double px = ss.posX[is] - sb.posX[ib], py = ss.posY[is] - sb.posY[ib], pz = ss.posZ[is] - sb.posZ[ib];
+		double lx = r[o]*px + r[o + 3]*py + r[o + 6]*pz;
+		double ly = r[o + 1]*px + r[o + 4]*py + r[o + 7]*pz;
+		double lz = r[o + 2]*px + r[o + 5]*py + r[o + 8]*pz;
+		
+		// distance from the center to the nearest point of the box
+		double dx = Math.max(Math.abs(lx) - sizeX[box]*scale, 0.0d);
+		double dy = Math.max(Math.abs(ly) - sizeY[box]*scale, 0.0d);
+		double dz = Math.max(Math.abs(lz) - sizeZ[box]*scale, 0.0d);
+		
+		return dx*dx + dy*dy + dz*dz <= radius*radius;
+	}
+	
+	// separating axis test of two turned boxes: the 3 axes of each and the 9 cross products
+	private boolean BoxBox(int a, int b)
+	{
+		Object3D bodyA = bodies[a], bodyB = bodies[b];
+		TransformStore sa = bodyA.store, sb = bodyB.store;
+		int ia = bodyA.slot, ib = bodyB.slot;
+		double[] ra = sa.rotMat, rb = sb.rotMat;
+		int oa = ia*9, ob = ib*9;
+		
+		double scaleA = Math.abs(sa.scale[ia]), scaleB = Math.abs(sb.scale[ib]);
+		double a0 = sizeX[a]*scaleA, a1 = sizeY[a]*scaleA, a2 = sizeZ[a]*scaleA;
+		double b0 = sizeX[b]*scaleB, b1 = sizeY[b]*scaleB, b2 = sizeZ[b]*scaleB;
+		
+		// R = A^T B, the rotation of B in A's frame, mIJ is A's axis I dotted with B's axis J. Kept in locals as
+		// this runs for every pair, on several threads
+		double m00 = Dot(ra, oa, rb, ob), m01 = Dot(ra, oa, rb, ob + 1), m02 = Dot(ra, oa, rb, ob + 2);
+		double m10 = Dot(ra, oa + 1, rb, ob), m11 = Dot(ra, oa + 1, rb, ob + 1), m12 = Dot(ra, oa + 1, rb, ob + 2);
+		double m20 = Dot(ra, oa + 2, rb, ob), m21 = Dot(ra, oa + 2, rb, ob + 1), m22 = Dot(ra, oa + 2, rb, ob + 2);
+		
+		// the absolute values with a little slack for parallel edges
+		double abs00 = Math.abs(m00) + 1e-6d, abs01 = Math.abs(m01) + 1e-6d, abs02 = Math.abs(m02) + 1e-6d;
+		double abs10 = Math.abs(m10) + 1e-6d, abs11 = Math.abs(m11) + 1e-6d, abs12 = Math.abs(m12) + 1e-6d;
+		double abs20 = Math.abs(m20) + 1e-6d, abs21 = Math.abs(m21) + 1e-6d, abs22 = Math.abs(m22) + 1e-6d;
+		
+		// B's center in A's frame
+		double px = sb.posX[ib] - sa.posX[ia], py = sb.posY[ib] - sa.posY[ia], pz = sb.posZ[ib] - sa.posZ[ia];
+		double t0 = ra[oa]*px + ra[oa + 3]*py + ra[oa + 6]*pz;
+		double t1 = ra[oa + 1]*px + ra[oa + 4]*py + ra[oa + 7]*pz;
+		double t2 = ra[oa + 2]*px + ra[oa + 5]*py + ra[oa + 8]*pz;
+		
+		// A's axes
+		if (Math.abs(t0) > a0 + b0*abs00 + b1*abs01 + b2*abs02) return false;
+		if (Math.abs(t1) > a1 + b0*abs10 + b1*abs11 + b2*abs12) return false;
+		if (Math.abs(t2) > a2 + b0*abs20 + b1*abs21 + b2*abs22) return false;
+		
+		// B's axes
+		if (Math.abs(t0*m00 + t1*m10 + t2*m20) > a0*abs00 + a1*abs10 + a2*abs20 + b0) return false;
+		if (Math.abs(t0*m01 + t1*m11 + t2*m21) > a0*abs01 + a1*abs11 + a2*abs21 + b1) return false;
+		if (Math.abs(t0*m02 + t1*m12 + t2*m22) > a0*abs02 + a1*abs12 + a2*abs22 + b2) return false;
+		
+		// cross products of A's axis I and B's axis J
+		if (Math.abs(t2*m10 - t1*m20) > a1*abs20 + a2*abs10 + b1*abs02 + b2*abs01) return false;
+		if (Math.abs(t2*m11 - t1*m21) > a1*abs21 + a2*abs11 + b2*abs00 + b0*abs02) return false;
+		if (Math.abs(t2*m12 - t1*m22) > a1*abs22 + a2*abs12 + b0*abs01 + b1*abs00) return false;
+		
+		if (Math.abs(t0*m20 - t2*m00) > a2*abs00 + a0*abs20 + b1*abs12 + b2*abs11) return false;
+		if (Math.abs(t0*m21 - t2*m01) > a2*abs01 + a0*abs21 + b2*abs10 + b0*abs12) return false;
+		if (Math.abs(t0*m22 - t2*m02) > a2*abs02 + a0*abs22 + b0*abs11 + b1*abs10) return false;
+		
+		if (Math.abs(t1*m00 - t0*m10) > a0*abs10 + a1*abs00 + b1*abs22 + b2*abs21) return false;
+		if (Math.abs(t1*m01 - t0*m11) > a0*abs11 + a1*abs01 + b2*abs20 + b0*abs22) return false;
+		if (Math.abs(t1*m02 - t0*m12) > a0*abs12 + a1*abs02 + b0*abs21 + b1*abs20) return false;
+		
+		return true;
+	}
+	
+	// column ca of one rotation dotted with column cb of another, both stored row by row
+	private static double Dot(double[] ra, int ca, double[] rb, int cb)
+	{
+		return ra[ca]*rb[cb] + ra[ca + 3]*rb[cb + 3] + ra[ca + 6]*rb[cb + 6];
+	}
+	
+	// swaps in the touching pairs of this update and tells the listeners which began and ended
+	private void ReportContacts()
+	{
+		Contacts last = contacts;
+		contacts = lastContacts;
+		lastContacts = last;
+		contacts.Clear();
+		
+		ContactListener[] current = listeners;
+		
+		for (int i = 0; i < pairCount; i++)
+		{
+			if (!touching[i])
+				continue;
+			
+			int a = pairA[i], b = pairB[i];
+			
+			// the body made first comes first, so the key of a pair does not depend on the sweep order
+			if (ids[a] > ids[b])
+			{
+				int swap = a; a = b; b = swap;
+			}
+			
+			long key = ((long)ids[a] << 32) | (ids[b] & 0xFFFFFFFFL);
+			contacts.Add(key, bodies[a], bodies[b]);
+			
+			if (!last.Touch(key))
+			{
+				for (int l = 0; l < current.length; l++)
+					current[l].ContactBegin(bodies[a], bodies[b]);
+			}
+		}
+		
+		for (int i = 0; i < last.count; i++)
+		{
+			if (!last.touched[i])
+			{
+				for (int l = 0; l < current.length; l++)
+					current[l].ContactEnd(last.a[i], last.b[i]);
+			}
+		}
+	}
+	
+	
+	
+	// touching pairs with a hash of their keys, so the last update's pairs can be looked up
+	private static class Contacts
+	{
+		int count = 0;
+		long[] keys = new long[64];
+		Object3D[] a = new Object3D[64], b = new Object3D[64];
+		boolean[] touched = new boolean[64];
+		
+		// open addressing table of indices + 1, 0 is empty
+		int[] table = new int[128];
+		
+		void Clear()
+		{
+			Arrays.fill(a, 0, count, null);
+			Arrays.fill(b, 0, count, null);
+			Arrays.fill(table, 0);
+			count = 0;
+		}
+		
+		void Add(long key, Object3D objA, Object3D objB)
+		{
+			if (count == keys.length)
+			{
+				keys = Arrays.copyOf(keys, count*2);
+				a = Arrays.copyOf(a, count*2);
+				b = Arrays.copyOf(b, count*2);
+				touched = new boolean[count*2];
+			}
+			
+			if (count*2 >= table.length)
+			{
+				table = new int[table.length*2];
+				
+				for (int i = 0; i < count; i++)
+					Insert(i);
+			}
+			
+			keys[count] = key;
+			a[count] = objA;
+			b[count] = objB;
+			touched[count] = false;
+			Insert(count++);
+		}
+		
+		private void Insert(int index)
+		{
+			int h = Hash(keys[index]) & (table.length - 1);
+			
+			while (table[h] != 0)
+				h = (h + 1) & (table.length - 1);
+			
+			table[h] = index + 1;
+		}
+		
+		// marks a pair as still touching, returns if it was there
+		boolean Touch(long key)
+		{
+			int h = Hash(key) & (table.length - 1);
+			
+			while (table[h] != 0)
+			{
+				int index = table[h] - 1;
+				
+				if (keys[index] == key)
+				{
+					touched[index] = true;
+					return true;
+				}
+				
+				h = (h + 1) & (table.length - 1);
+			}
+			
+			return false;
+		}
+		
+		private static int Hash(long key)
+		{
+			key *= 0x9E3779B97F4A7C15L;
+			return (int)(key ^ (key >>> 32));
+		}
+	}
+	
+	
+	
+	// splits a range of pairs in halves until they are small enough to test directly
+	private class TestTask extends RecursiveAction
+	{
+		private final int from, to;
+		
+		TestTask(int from, int to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute()
+		{
+			if (to - from <= CHUNK_SIZE)
+			{
+				Test(from, to);
+				return;
+			}
+			
+			int middle = (from + to) >>> 1;
+			invokeAll(new TestTask(from, middle), new TestTask(middle, to));
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package graphicsengine3d;
+
+/**
+ * @author Mike
+ * Told when two bodies of a CollisionWorld start and stop touching. The first object is always the one that
+ * was given its shape first. Called on the thread that updates the world.
+ * @see CollisionWorld
+ */
+public abstract class ContactListener
+{
+	/**
+	 * Called on the first update two bodies touch.
+	 * @param a First object
+	 * @param b Second object
+	 */
+	public abstract void ContactBegin(Object3D a, Object3D b);
+	
+	/**
+	 * Called on the first update two bodies that touched no longer do, or when one of them was removed.
+	 * @param a First object
+	 * @param b Second object
+	 */
+	public void ContactEnd(Object3D a, Object3D b) {}
+}
@@ -0,0 +1,395 @@
+package graphicsengine3d;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Enumeration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.media.j3d.Behavior;
+import javax.media.j3d.BoundingSphere;
+import javax.media.j3d.BranchGroup;
+import javax.media.j3d.View;
+import javax.media.j3d.WakeupOnElapsedFrames;
+import javax.vecmath.Point3d;
+
+/**
+ * @author Mike
+ * Per frame measurements of the engine, kept in histograms so percentiles like p99.9 can be read from a
+ * whole session. Each frame the time since the last frame, the time Java3D took to render the last frame,
+ * the time spent in FrameScheduler updates, and the number of transform commits, objects added and removed
+ * and input events read during the frame are recorded.
+ * <p>
+ * The counts are gathered across the engine while it runs, whether or not metrics were asked for, as a single
+ * atomic add each. Times are in nanoseconds, the render time is only measured by Java3D to the millisecond.
+ * <p>
+ * The histograms can be read directly, published over JMX with RegisterMBean, or written to a CSV file
+ * every few seconds with StartCsvDump. Rows of the file are totals since the start or the last Reset.
+ * @see GraphicsEngine3D#GetMetrics()
+ * @see Histogram
+ */
+public class EngineMetrics
+{
+	/** Index of a histogram. */
+	public static final int FRAME_TIME = 0, RENDER_TIME = 1, UPDATE_TIME = 2, TRANSFORM_COMMITS = 3,
+			OBJECTS_ADDED = 4, OBJECTS_REMOVED = 5, INPUT_EVENTS = 6;
+	
+	private static final String[] NAMES = {"FrameTime", "RenderTime", "UpdateTime", "TransformCommits",
+			"ObjectsAdded", "ObjectsRemoved", "InputEvents"};
+	private static final String[] STATS = {"Count", "Mean", "P50", "P99", "P999", "Max"};
+	
+	// gathered by the rest of the engine, taken each frame
+	static final AtomicLong updateNanos = new AtomicLong();
+	static final AtomicLong transformCommits = new AtomicLong();
+	static final AtomicLong objectsAdded = new AtomicLong();
+	static final AtomicLong objectsRemoved = new AtomicLong();
+	static final AtomicLong inputEvents = new AtomicLong();
+	
+	private Universe3D univ;
+	private BranchGroup metricsBranch = new BranchGroup();
+	private Histogram[] histograms = new Histogram[NAMES.length];
+	
+	private long lastTime = -1;
+	private long lastFrameNumber = -1;
+	
+	private ScheduledExecutorService csvTimer;
+	private PrintWriter csvWriter;
+	private ObjectName mbeanName;
+	
+	protected EngineMetrics(Universe3D universe)
+	{
+		univ = universe;
+		
+		for (int i = 0; i < histograms.length; i++)
+			histograms[i] = new Histogram();
+		
+		// start counting from now, not from when the engine was made
+		updateNanos.set(0);
+		transformCommits.set(0);
+		objectsAdded.set(0);
+		objectsRemoved.set(0);
+		inputEvents.set(0);
+		
+		MetricsBehavior behavior = new MetricsBehavior();
+		behavior.setSchedulingBounds(new BoundingSphere(new Point3d(), 1000000000));
+		
+		metricsBranch.addChild(behavior);
+		metricsBranch.compile();
+		univ.AddBranchGraph(metricsBranch);
+	}
+	
+	/**
+	 * Gets a histogram.
+	 * @param index Histogram, like FRAME_TIME
+	 * @return Histogram
+	 */
+	public Histogram GetHistogram(int index)
+	{ return histograms[index]; }
+	
+	/**
+	 * Gets the name of a histogram as used in JMX and CSV columns.
+	 * @param index Histogram, like FRAME_TIME
+	 * @return Name
+	 */
+	public static String GetName(int index)
+	{ return NAMES[index]; }
+	
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public void Reset()
+	{
+		for (int i = 0; i < histograms.length; i++)
+			histograms[i].Reset();
+	}
+	
+	// records one frame, runs on the Java3D behavior thread
+	private void RecordFrame()
+	{
+		long now = System.nanoTime();
+		
+		if (lastTime != -1)
+			histograms[FRAME_TIME].Record(now - lastTime);
+		
+		lastTime = now;
+		
+		View view = univ.getSimpleUniverse().getViewer().getView();
+		long frameNumber = view.getFrameNumber();
+		
+		if (frameNumber != lastFrameNumber)
+		{
+			histograms[RENDER_TIME].Record(view.getLastFrameDuration()*1000000L);
+			lastFrameNumber = frameNumber;
+		}
+		
+		histograms[UPDATE_TIME].Record(updateNanos.getAndSet(0));
+		histograms[TRANSFORM_COMMITS].Record(transformCommits.getAndSet(0));
+		histograms[OBJECTS_ADDED].Record(objectsAdded.getAndSet(0));
+		histograms[OBJECTS_REMOVED].Record(objectsRemoved.getAndSet(0));
+		histograms[INPUT_EVENTS].Record(inputEvents.getAndSet(0));
+	}
+	
+	
+	
+	//*********************************************************************************
+	//CSV
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Starts appending a row to a CSV file at a fixed period. Each histogram gets count, mean, p50, p99, p99.9
+	 * and max columns. A header is written when the file is new.
+	 * @param file		CSV file
+	 * @param seconds	Seconds between rows
+	 * @throws IOException If the file could not be opened
+	 */
+	public synchronized void StartCsvDump(File file, double seconds) throws IOException
+	{
+		StopCsvDump();
+		
+		boolean header = !file.exists() || file.length() == 0;
+		csvWriter = new PrintWriter(new FileWriter(file, true));
+		
+		if (header)
+		{
+			StringBuilder line = new StringBuilder("time");
+			
+			for (int i = 0; i < NAMES.length; i++)
+			{
+				String name = NAMES[i];
+				line.append(',').append(name).append("Count,").append(name).append("Mean,").append(name).append("P50,")
+						.append(name).append("P99,").append(name).append("P999,").append(name).append("Max");
+			}
+			
+			csvWriter.println(line);
+			csvWriter.flush();
+		}
+		
+		csvTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "EngineMetrics");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		long period = Math.max((long)(seconds*1000.0d), 1);
+		csvTimer.scheduleAtFixedRate(new Runnable()
+		{
+			public void run()
+			{
+				WriteCsvRow();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Writes a last row and closes the CSV file.
+	 */
+	public synchronized void StopCsvDump()
+	{
+		if (csvTimer == null)
+			return;
+		
+		csvTimer.shutdownNow();
+		csvTimer = null;
+		
+		WriteCsvRow();
+		csvWriter.close();
+		csvWriter = null;
+	}
+	
+	private synchronized void WriteCsvRow()
+	{
+		if (csvWriter == null)
+			return;
+		
+		StringBuilder line = new StringBuilder();
+		line.append(System.currentTimeMillis());
+		
+		for (int i = 0; i < histograms.length; i++)
+		{
+			Histogram histogram = histograms[i];
+			line.append(',').append(histogram.GetCount());
+			line.append(',').append(histogram.GetMean());
+			line.append(',').append(histogram.GetPercentile(50.0d));
+			line.append(',').append(histogram.GetPercentile(99.0d));
+			line.append(',').append(histogram.GetPercentile(99.9d));
+			line.append(',').append(histogram.GetMax());
+		}
+		
+		csvWriter.println(line);
+		csvWriter.flush();
+	}
+	
+	
+	
+	//*********************************************************************************
+	//JMX
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Publishes the metrics on the platform MBean server as graphicsengine3d:type=EngineMetrics,name=[name].
+	 * Each histogram has Count, Mean, P50, P99, P999 and Max attributes, for example FrameTimeP99, and there
+	 * is a Reset operation.
+	 * @param name Name to tell engines apart
+	 * @return If the metrics were registered, false if the name is taken or JMX refused it
+	 */
+	public synchronized boolean RegisterMBean(String name)
+	{
+		UnregisterMBean();
+		
+		try
+		{
+			ObjectName objectName = new ObjectName("graphicsengine3d:type=EngineMetrics,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), objectName);
+			mbeanName = objectName;
+			return true;
+		}
+		catch (JMException e)
+		{
+			return false;
+		}
+	}
+	
+	/**
+	 * Removes the metrics from the platform MBean server.
+	 */
+	public synchronized void UnregisterMBean()
+	{
+		if (mbeanName == null)
+			return;
+		
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+		}
+		catch (JMException e) {}
+		
+		mbeanName = null;
+	}
+	
+	
+	
+	// the histograms' statistics as read only attributes
+	private class MetricsMBean implements DynamicMBean
+	{
+		public Object getAttribute(String attribute) throws AttributeNotFoundException
+		{
+			for (int i = 0; i < NAMES.length; i++)
+			{
+				if (!attribute.startsWith(NAMES[i]))
+					continue;
+				
+				String stat = attribute.substring(NAMES[i].length());
+				Histogram histogram = histograms[i];
+				
+				if (stat.equals("Count"))
+					return histogram.GetCount();
+				else if (stat.equals("Mean"))
+					return histogram.GetMean();
+				else if (stat.equals("P50"))
+					return histogram.GetPercentile(50.0d);
+				else if (stat.equals("P99"))
+					return histogram.GetPercentile(99.0d);
+				else if (stat.equals("P999"))
+					return histogram.GetPercentile(99.9d);
+				else if (stat.equals("Max"))
+					return histogram.GetMax();
+			}
+			
+			throw new AttributeNotFoundException(attribute);
+		}
+		
+		public AttributeList getAttributes(String[] attributes)
+		{
+			AttributeList list = new AttributeList();
+			
+			for (String attribute : attributes)
+			{
+				try
+				{
+					list.add(new Attribute(attribute, getAttribute(attribute)));
+				}
+				catch (AttributeNotFoundException e) {}
+			}
+			
+			return list;
+		}
+		
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+		{
+			throw new AttributeNotFoundException(attribute.getName() + " is read only");
+		}
+		
+		public AttributeList setAttributes(AttributeList attributes)
+		{ return new AttributeList(); }
+		
+		public Object invoke(String actionName, Object[] params, String[] signature)
+		{
+			if (actionName.equals("Reset"))
+				Reset();
+			
+			return null;
+		}
+		
+		public MBeanInfo getMBeanInfo()
+		{
+			MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[NAMES.length*STATS.length];
+			
+			for (int i = 0; i < NAMES.length; i++)
+			{
+				for (int s = 0; s < STATS.length; s++)
+				{
+					String type = STATS[s].equals("Mean") ? "double" : "long";
+					attributes[i*STATS.length + s] = new MBeanAttributeInfo(NAMES[i] + STATS[s], type,
+							NAMES[i] + " " + STATS[s], true, false, false);
+				}
+			}
+			
+			MBeanOperationInfo[] operations = {new MBeanOperationInfo("Reset", "Forgets everything recorded so far",
+					null, "void", MBeanOperationInfo.ACTION)};
+			
+			return new MBeanInfo(EngineMetrics.class.getName(), "Per frame engine metrics, times in nanoseconds",
+					attributes, null, operations, null);
+		}
+	}
+	
+	
+	
+	//Metrics Behavior. Records the metrics once per frame
+	private class MetricsBehavior extends Behavior
+	{
+		private WakeupOnElapsedFrames wakeup = new WakeupOnElapsedFrames(0);
+		
+		public void initialize()
+		{
+			this.wakeupOn(wakeup);
+		}
+		
+		public void processStimulus(Enumeration criteria)
+		{
+			RecordFrame();
+			
+			this.wakeupOn(wakeup);
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package graphicsengine3d;
+
+/**
+ * @author Mike
+ * Receives the fixed rate updates and the per frame render call of a FrameScheduler.
+ * @see FrameScheduler
+ */
+public abstract class FrameListener
+{
+	/**
+	 * Called at the scheduler's fixed update rate.
+	 * @param step Length of the step in seconds
+	 */
+	public abstract void Update(float step);
+	
+	/**
+	 * Called once per rendered frame after the updates.
+	 * @param alpha How far the frame is between the last update and the next, 0 to 1. Use it to interpolate positions.
+	 */
+	public void Render(float alpha) {}
+}
@@ -0,0 +1,254 @@
+package graphicsengine3d;
+
+import java.util.Enumeration;
+
+import javax.media.j3d.Behavior;
+import javax.media.j3d.BoundingSphere;
+import javax.media.j3d.BranchGroup;
+import javax.media.j3d.WakeupOnElapsedFrames;
+import javax.vecmath.Point3d;
+
+/**
+ * @author Mike
+ * Runs FrameListener's at a fixed update rate, driven by the universe's frames rather than by a sleep loop.
+ * Each frame the time since the last frame is measured with System.nanoTime() and as many fixed steps as
+ * fit are run, limited by the catch up limit and the frame budget. Listeners are then told how far the
+ * frame is into the next step so they can interpolate.
+ * @see FrameListener
+ * @see GraphicsEngine3D#GetScheduler()
+ */
+public class FrameScheduler
+{
+	private Universe3D univ;
+	private BranchGroup schedulerBranch = new BranchGroup();
+	
+	private volatile FrameListener[] listeners = new FrameListener[0];
+	
+	private long stepNanos = 20000000L;
+	private int maxCatchUpSteps = 5;
+	private long budgetNanos = 10000000L;
+	
+	private long lastTime = -1;
+	private long accumulator = 0;
+	private long updateCount = 0;
+	private long timeNanos = 0;		// simulated time, summed per update so changing the rate does not move it
+	private long droppedSteps = 0;
+	private float alpha = 0.0f;
+	
+	protected FrameScheduler(Universe3D universe)
+	{
+		univ = universe;
+		
+		SchedulerBehavior behavior = new SchedulerBehavior();
+		behavior.setSchedulingBounds(new BoundingSphere(new Point3d(), 1000000000));
+		behavior.setSchedulingInterval(0);		// run before the scenes flush their transforms
+		
+		schedulerBranch.addChild(behavior);
+		schedulerBranch.compile();
+		univ.AddBranchGraph(schedulerBranch);
+	}
+	
+	/**
+	 * Adds a listener.
+	 * @param listener Listener
+	 */
+	public synchronized void AddListener(FrameListener listener)
+	{
+		FrameListener[] newListeners = new FrameListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+		newListeners[listeners.length] = listener;
+		
+		listeners = newListeners;
+	}
+	
+	/**
+	 * Removes a listener.
+	 * @param listener Listener
+	 * @return If the listener was found and removed
+	 */
+	public synchronized boolean RemoveListener(FrameListener listener)
+	{
+		for (int i = 0; i < listeners.length; i++)
+		{
+			if (listeners[i] == listener)
+			{
+				FrameListener[] newListeners = new FrameListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, newListeners, 0, i);
+				System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+				
+				listeners = newListeners;
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Settings
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Sets how many fixed updates are run per second. The default is 50. Rates above a billion are run
+	 * at one update per nanosecond.
+	 * @param hz Updates per second, above 0
+	 */
+	public void SetUpdateRate(double hz)
+	{
+		if (!(hz > 0))
+			throw new IllegalArgumentException("Update rate must be above 0");
+		
+		stepNanos = Math.max((long)(1000000000.0d/hz), 1);
+	}
+	
+	/**
+	 * Gets how many fixed updates are run per second.
+	 * @return Updates per second
+	 */
+	public double GetUpdateRate()
+	{ return 1000000000.0d/stepNanos; }
+	
+	/**
+	 * Sets the most updates run in one frame to catch up after a slow frame. Time beyond that is dropped
+	 * so a long stall does not cause a burst of updates. The default is 5.
+	 * @param steps Maximum updates per frame
+	 */
+	public void SetMaxCatchUpSteps(int steps)
+	{
+		maxCatchUpSteps = Math.max(steps, 1);
+	}
+	
+	/**
+	 * Gets the most updates run in one frame.
+	 * @return Maximum updates per frame
+	 */
+	public int GetMaxCatchUpSteps()
+	{ return maxCatchUpSteps; }
+	
+	/**
+	 * Sets how long the updates of one frame may take. Once it is used up the remaining steps of the frame
+	 * are dropped. At least one update is always run. The default is 10 milliseconds.
+	 * @param millis Budget in milliseconds
+	 */
+	public void SetFrameBudget(double millis)
+	{
+		budgetNanos = (long)(millis*1000000.0d);
+	}
+	
+	/**
+	 * Gets how long the updates of one frame may take.
+	 * @return Budget in milliseconds
+	 */
+	public double GetFrameBudget()
+	{ return budgetNanos/1000000.0d; }
+	
+	/**
+	 * Sets the shortest time a frame may take, this caps the frame rate. Sets the universe view's minimum frame cycle time.
+	 * @param millis Minimum frame time in milliseconds
+	 */
+	public void SetMinimumFrameTime(long millis)
+	{
+		univ.getSimpleUniverse().getViewer().getView().setMinimumFrameCycleTime(millis);
+	}
+	
+	
+	
+	//*********************************************************************************
+	//State
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Gets how far the last frame was between the last update and the next, 0 to 1.
+	 * @return Interpolation alpha
+	 */
+	public float GetAlpha()
+	{ return alpha; }
+	
+	/**
+	 * Gets the number of updates run so far.
+	 * @return Update count
+	 */
+	public long GetUpdateCount()
+	{ return updateCount; }
+	
+	/**
+	 * Gets the number of updates dropped because of the catch up limit or the frame budget.
+	 * @return Dropped update count
+	 */
+	public long GetDroppedSteps()
+	{ return droppedSteps; }
+	
+	/**
+	 * Gets the simulated time, the sum of the step lengths of the updates run so far.
+	 * @return Simulated time in seconds
+	 */
+	public double GetTime()
+	{ return timeNanos/1000000000.0d; }
+	
+	// runs the updates and render calls for one frame
+	private void RunFrame()
+	{
+		long now = System.nanoTime();
+		
+		if (lastTime == -1)
+			lastTime = now;
+		
+		accumulator += now - lastTime;
+		lastTime = now;
+		
+		FrameListener[] current = listeners;
+		float step = stepNanos/1000000000.0f;
+		int steps = 0;
+		
+		while (accumulator >= stepNanos)
+		{
+			if (steps == maxCatchUpSteps || (steps > 0 && System.nanoTime() - now > budgetNanos))
+			{
+				// out of time, drop the whole steps that are left
+				droppedSteps += accumulator/stepNanos;
+				accumulator %= stepNanos;
+				break;
+			}
+			
+			for (int i = 0; i < current.length; i++)
+				current[i].Update(step);
+			
+			accumulator -= stepNanos;
+			timeNanos += stepNanos;
+			updateCount++;
+			steps++;
+		}
+		
+		if (steps > 0)
+			EngineMetrics.updateNanos.addAndGet(System.nanoTime() - now);
+		
+		alpha = (float)accumulator/stepNanos;
+		
+		for (int i = 0; i < current.length; i++)
+			current[i].Render(alpha);
+	}
+	
+	
+	
+	//Scheduler Behavior. Runs the scheduler once per frame
+	private class SchedulerBehavior extends Behavior
+	{
+		private WakeupOnElapsedFrames wakeup = new WakeupOnElapsedFrames(0);
+		
+		public void initialize()
+		{
+			this.wakeupOn(wakeup);
+		}
+		
+		public void processStimulus(Enumeration criteria)
+		{
+			RunFrame();
+			
+			this.wakeupOn(wakeup);
+		}
+	}
+}
@@ -0,0 +1,426 @@
+package graphicsengine3d;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.WeakHashMap;
+
+import javax.media.j3d.Appearance;
+import javax.media.j3d.Geometry;
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.Group;
+import javax.media.j3d.IndexedGeometryArray;
+import javax.media.j3d.Link;
+import javax.media.j3d.Node;
+import javax.media.j3d.Shape3D;
+import javax.media.j3d.SharedGroup;
+import javax.media.j3d.TransformGroup;
+
+import com.sun.j3d.utils.geometry.Box;
+import com.sun.j3d.utils.geometry.ColorCube;
+import com.sun.j3d.utils.geometry.Cone;
+import com.sun.j3d.utils.geometry.Cylinder;
+import com.sun.j3d.utils.geometry.Sphere;
+
+/**
+ * @author Mike
+ * Hands out nodes that share their geometry and appearance. The first request for a kind of mesh makes a
+ * prototype, every request after that gets a copy of the prototype's nodes that references the prototype's
+ * geometry arrays and appearances instead of building new ones. Meshes are keyed by primitive type and
+ * parameters, or by a name for meshes made elsewhere.
+ * <p>
+ * Appearances are keyed by reference, so reuse one Appearance object for objects that should share.
+ * Prototypes are given the capabilities to read their nodes and geometry, so static objects made from them can
+ * be merged while other copies of the mesh are live.
+ * Objects made from the cache can be saved with SceneFile if their appearance is registered under a name.
+ * @see GraphicsEngine3D#GetGeometryCache()
+ * @see SceneFile
+ */
+public class GeometryCache
+{
+	private HashMap<Object, Node> prototypes = new HashMap<Object, Node>();
+	private HashMap<Object, SharedGroup> sharedGroups = new HashMap<Object, SharedGroup>();
+	
+	// the key or name each handed out node was made from, so scenes can be saved as references
+	private WeakHashMap<Node, Object> origins = new WeakHashMap<Node, Object>();
+	private HashMap<String, Appearance> appearances = new HashMap<String, Appearance>();
+	private IdentityHashMap<Appearance, String> appearanceNames = new IdentityHashMap<Appearance, String>();
+	
+	
+	
+	//*********************************************************************************
+	//Primitives
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Gets a ColorCube.
+	 * @param scale Half the width of the cube
+	 * @return Node sharing the cube's geometry
+	 */
+	public synchronized Node GetColorCube(double scale)
+	{
+		MeshKey key = new MeshKey("ColorCube", 0, null, (float)scale);
+		Node prototype = prototypes.get(key);
+		
+		if (prototype == null)
+		{
+			prototype = new ColorCube(scale);
+			AllowReads(prototype);
+			prototypes.put(key, prototype);
+		}
+		
+		return Track(prototype.cloneTree(), key);
+	}
+	
+	/**
+	 * Gets a Box.
+	 * @param xdim		Half the X size
+	 * @param ydim		Half the Y size
+	 * @param zdim		Half the Z size
+	 * @param flags		Primitive flags
+	 * @param appearance	Appearance, may be null
+	 * @return Node sharing the box's geometry and appearance
+	 */
+	public synchronized Node GetBox(float xdim, float ydim, float zdim, int flags, Appearance appearance)
+	{
+		MeshKey key = new MeshKey("Box", flags, appearance, xdim, ydim, zdim);
+		Node prototype = prototypes.get(key);
+		
+		if (prototype == null)
+		{
+			prototype = new Box(xdim, ydim, zdim, flags, appearance);
+			AllowReads(prototype);
+			prototypes.put(key, prototype);
+		}
+		
+		return Track(prototype.cloneTree(), key);
+	}
+	
+	/**
+	 * Gets a Sphere.
+	 * @param radius		Radius
+	 * @param flags		Primitive flags
+	 * @param divisions	Number of divisions around the sphere
+	 * @param appearance	Appearance, may be null
+	 * @return Node sharing the sphere's geometry and appearance
+	 */
+	public synchronized Node GetSphere(float radius, int flags, int divisions, Appearance appearance)
+	{
+		MeshKey key = new MeshKey("Sphere", flags, appearance, radius, divisions);
+		Node prototype = prototypes.get(key);
+		
+		if (prototype == null)
+		{
+			prototype = new Sphere(radius, flags, divisions, appearance);
+			AllowReads(prototype);
+			prototypes.put(key, prototype);
+		}
+		
+		return Track(prototype.cloneTree(), key);
+	}
+	
+	/**
+	 * Gets a Cylinder.
+	 * @param radius		Radius
+	 * @param height		Height
+	 * @param flags		Primitive flags
+	 * @param xdivision	Number of divisions around the cylinder
+	 * @param ydivision	Number of divisions along the cylinder
+	 * @param appearance	Appearance, may be null
+	 * @return Node sharing the cylinder's geometry and appearance
+	 */
+	public synchronized Node GetCylinder(float radius, float height, int flags, int xdivision, int ydivision, Appearance appearance)
+	{
+		MeshKey key = new MeshKey("Cylinder", flags, appearance, radius, height, xdivision, ydivision);
+		Node prototype = prototypes.get(key);
+		
+		if (prototype == null)
+		{
+			prototype = new Cylinder(radius, height, flags, xdivision, ydivision, appearance);
+			AllowReads(prototype);
+			prototypes.put(key, prototype);
+		}
+		
+		return Track(prototype.cloneTree(), key);
+	}
+	
+	/**
+	 * Gets a Cone.
+	 * @param radius		Radius of the base
+	 * @param height		Height
+	 * @param flags		Primitive flags
+	 * @param xdivision	Number of divisions around the cone
+	 * @param ydivision	Number of divisions along the cone
+	 * @param appearance	Appearance, may be null
+	 * @return Node sharing the cone's geometry and appearance
+	 */
+	public synchronized Node GetCone(float radius, float height, int flags, int xdivision, int ydivision, Appearance appearance)
+	{
+		MeshKey key = new MeshKey("Cone", flags, appearance, radius, height, xdivision, ydivision);
+		Node prototype = prototypes.get(key);
+		
+		if (prototype == null)
+		{
+			prototype = new Cone(radius, height, flags, xdivision, ydivision, appearance);
+			AllowReads(prototype);
+			prototypes.put(key, prototype);
+		}
+		
+		return Track(prototype.cloneTree(), key);
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Named Meshes
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Registers a mesh made elsewhere, for example by a model loader, under a name. The node becomes
+	 * the prototype and must not be added to a scene itself.
+	 * @param name		Name of the mesh
+	 * @param prototype	Node to copy
+	 */
+	public synchronized void Register(String name, Node prototype)
+	{
+		AllowReads(prototype);
+		prototypes.put(name, prototype);
+		sharedGroups.remove(name);
+	}
+	
+	/**
+	 * Gets if a mesh has been registered under a name.
+	 * @param name Name of the mesh
+	 * @return If the mesh is registered
+	 */
+	public synchronized boolean Contains(String name)
+	{ return prototypes.containsKey(name); }
+	
+	/**
+	 * Gets a copy of a registered mesh that shares its geometry and appearances.
+	 * @param name Name of the mesh
+	 * @return Node, or null if no mesh is registered under the name
+	 */
+	public synchronized Node Get(String name)
+	{
+		Node prototype = prototypes.get(name);
+		
+		if (prototype == null)
+			return null;
+		
+		return Track(prototype.cloneTree(), name);
+	}
+	
+	/**
+	 * Gets a Link to one compiled SharedGroup holding a registered mesh. A Link is a single node however
+	 * large the mesh is, but the mesh can no longer be changed and its parts cannot be picked or culled
+	 * separately. The same SharedGroup is used for every Link of the name.
+	 * @param name Name of the mesh
+	 * @return Link, or null if no mesh is registered under the name
+	 */
+	public synchronized Link GetLink(String name)
+	{
+		SharedGroup shared = sharedGroups.get(name);
+		
+		if (shared == null)
+		{
+			Node prototype = prototypes.get(name);
+			
+			if (prototype == null)
+				return null;
+			
+			shared = new SharedGroup();
+			shared.addChild(prototype.cloneTree());
+			shared.compile();
+			sharedGroups.put(name, shared);
+		}
+		
+		return (Link)Track(new Link(shared), name);
+	}
+	
+	/**
+	 * Gets the number of meshes in the cache.
+	 * @return Number of distinct meshes
+	 */
+	public synchronized int GetMeshCount()
+	{ return prototypes.size(); }
+	
+	/**
+	 * Forgets every mesh. Nodes already handed out keep working.
+	 */
+	public synchronized void Clear()
+	{
+		prototypes.clear();
+		sharedGroups.clear();
+		origins.clear();
+		appearances.clear();
+		appearanceNames.clear();
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Appearances
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Registers an appearance under a name, so primitives using it can be saved and loaded by SceneFile.
+	 * @param name		Name of the appearance
+	 * @param appearance	Appearance
+	 */
+	public synchronized void RegisterAppearance(String name, Appearance appearance)
+	{
+		Appearance old = appearances.put(name, appearance);
+		
+		if (old != null)
+			appearanceNames.remove(old);
+		
+		appearanceNames.put(appearance, name);
+	}
+	
+	/**
+	 * Gets a registered appearance.
+	 * @param name Name of the appearance
+	 * @return Appearance, or null if none is registered under the name
+	 */
+	public synchronized Appearance GetAppearance(String name)
+	{ return appearances.get(name); }
+	
+	/**
+	 * Gets the name an appearance is registered under.
+	 * @param appearance Appearance
+	 * @return Name, or null if the appearance is not registered
+	 */
+	public synchronized String GetAppearanceName(Appearance appearance)
+	{ return appearanceNames.get(appearance); }
+	
+	
+	
+	//*********************************************************************************
+	//References
+	//
+	//*********************************************************************************
+	
+	// lets StaticBatcher read copies of a prototype once they or the geometry they share are live or compiled.
+	// Parts that are already live or compiled keep the capabilities they have
+	private static void AllowReads(Node node)
+	{
+		if (node.isLive() || node.isCompiled())
+			return;
+		
+		if (node instanceof Shape3D)
+		{
+			Shape3D shape = (Shape3D)node;
+			shape.setCapability(Shape3D.ALLOW_GEOMETRY_READ);
+			shape.setCapability(Shape3D.ALLOW_APPEARANCE_READ);
+			
+			for (int i = 0; i < shape.numGeometries(); i++)
+			{
+				Geometry geometry = shape.getGeometry(i);
+				
+				if (geometry instanceof GeometryArray && !geometry.isLive() && !geometry.isCompiled())
+				{
+					geometry.setCapability(GeometryArray.ALLOW_COUNT_READ);
+					geometry.setCapability(GeometryArray.ALLOW_FORMAT_READ);
+					geometry.setCapability(GeometryArray.ALLOW_COORDINATE_READ);
+					geometry.setCapability(GeometryArray.ALLOW_NORMAL_READ);
+					geometry.setCapability(GeometryArray.ALLOW_COLOR_READ);
+					geometry.setCapability(GeometryArray.ALLOW_TEXCOORD_READ);
+					
+					if (geometry instanceof IndexedGeometryArray)
+					{
+						geometry.setCapability(IndexedGeometryArray.ALLOW_COORDINATE_INDEX_READ);
+						geometry.setCapability(IndexedGeometryArray.ALLOW_NORMAL_INDEX_READ);
+						geometry.setCapability(IndexedGeometryArray.ALLOW_COLOR_INDEX_READ);
+						geometry.setCapability(IndexedGeometryArray.ALLOW_TEXCOORD_INDEX_READ);
+					}
+				}
+			}
+		}
+		else if (node instanceof Group)
+		{
+			Group group = (Group)node;
+			group.setCapability(Group.ALLOW_CHILDREN_READ);
+			
+			if (group instanceof TransformGroup)
+				group.setCapability(TransformGroup.ALLOW_TRANSFORM_READ);
+			
+			for (int i = 0; i < group.numChildren(); i++)
+				AllowReads(group.getChild(i));
+		}
+	}
+	
+	private Node Track(Node node, Object origin)
+	{
+		origins.put(node, origin);
+		return node;
+	}
+	
+	/**
+	 * Gets what a node handed out by the cache was made from.
+	 * @param node Node
+	 * @return The mesh's name, a MeshKey for primitives, or null if the node did not come from the cache
+	 */
+	synchronized Object GetOrigin(Node node)
+	{ return origins.get(node); }
+	
+	/**
+	 * Gets a primitive by its type name, the way the getters for each type do.
+	 * @param type		ColorCube, Box, Sphere, Cylinder or Cone
+	 * @param flags		Primitive flags
+	 * @param appearance	Appearance, may be null
+	 * @param params		The getter's size and division parameters in order
+	 * @return Node sharing the primitive's geometry, or null if the type or parameters are not known
+	 */
+	Node GetPrimitive(String type, int flags, Appearance appearance, float[] params)
+	{
+		if (type.equals("ColorCube") && params.length == 1)
+			return GetColorCube(params[0]);
+		else if (type.equals("Box") && params.length == 3)
+			return GetBox(params[0], params[1], params[2], flags, appearance);
+		else if (type.equals("Sphere") && params.length == 2)
+			return GetSphere(params[0], flags, (int)params[1], appearance);
+		else if (type.equals("Cylinder") && params.length == 4)
+			return GetCylinder(params[0], params[1], flags, (int)params[2], (int)params[3], appearance);
+		else if (type.equals("Cone") && params.length == 4)
+			return GetCone(params[0], params[1], flags, (int)params[2], (int)params[3], appearance);
+		
+		return null;
+	}
+	
+	
+	
+	// primitive type, flags, appearance by reference and the sizes
+	static class MeshKey
+	{
+		final String type;
+		final int flags;
+		final Appearance appearance;
+		final float[] params;
+		
+		MeshKey(String type, int flags, Appearance appearance, float... params)
+		{
+			this.type = type;
+			this.flags = flags;
+			this.appearance = appearance;
+			this.params = params;
+		}
+		
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof MeshKey))
+				return false;
+			
+			MeshKey k = (MeshKey)o;
+			return type.equals(k.type) && flags == k.flags && appearance == k.appearance && Arrays.equals(params, k.params);
+		}
+		
+		public int hashCode()
+		{
+			return (type.hashCode()*31 + flags)*31 + System.identityHashCode(appearance) + Arrays.hashCode(params);
+		}
+	}
+}
@@ -15,6 +15,11 @@ import javax.swing.JPanel;
 public class GraphicsEngine3D
 {
 	protected static Vector<Universe3D> universes = new Vector<Universe3D>();
+	private FrameScheduler scheduler;
+	private GeometryCache geometryCache = new GeometryCache();
+	private AssetManager assetManager;
+	private EngineMetrics metrics;
+	private Kinematics kinematics;
 	
 	/**
 	 * Creates a new Universe3D. This is used as the default universe.
@@ -57,6 +62,74 @@ public class GraphicsEngine3D
 		return universes.get(0);
 	}
 	
+	/**
+	 * Gets the frame scheduler of the default universe. It is created the first time this is called.
+	 * @return FrameScheduler
+	 * @see FrameScheduler
+	 */
+	public synchronized FrameScheduler GetScheduler()
+	{
+		if (scheduler == null)
+			scheduler = new FrameScheduler(GetDefaultUniverse());
+		
+		return scheduler;
+	}
+	
+	/**
+	 * Gets the engine's geometry cache, use it to make objects of the same kind share one copy of their geometry.
+	 * @return GeometryCache
+	 * @see GeometryCache
+	 */
+	public GeometryCache GetGeometryCache()
+	{
+		return geometryCache;
+	}
+	
+	/**
+	 * Gets the engine's asset manager, use it to load textures in the background. It is created the first time
+	 * this is called, with a loading thread per processor and a 64MB texture budget.
+	 * @return AssetManager
+	 * @see AssetManager
+	 */
+	public synchronized AssetManager GetAssetManager()
+	{
+		if (assetManager == null)
+			assetManager = new AssetManager(Runtime.getRuntime().availableProcessors(), 64L << 20);
+		
+		return assetManager;
+	}
+	
+	/**
+	 * Gets the engine's kinematics, which moves objects by their velocities on each update of the frame
+	 * scheduler. It is created and added to the scheduler the first time this is called.
+	 * @return Kinematics
+	 * @see Kinematics
+	 */
+	public synchronized Kinematics GetKinematics()
+	{
+		if (kinematics == null)
+		{
+			kinematics = new Kinematics();
+			GetScheduler().AddListener(kinematics);
+		}
+		
+		return kinematics;
+	}
+	
+	/**
+	 * Gets the engine's metrics, frame times and per frame counts kept as histograms. Recording starts the
+	 * first time this is called.
+	 * @return EngineMetrics
+	 * @see EngineMetrics
+	 */
+	public synchronized EngineMetrics GetMetrics()
+	{
+		if (metrics == null)
+			metrics = new EngineMetrics(GetDefaultUniverse());
+		
+		return metrics;
+	}
+	
 	protected void finalize() throws Throwable
 	{
 		universes.clear();
@@ -0,0 +1,133 @@
+package graphicsengine3d;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Mike
+ * Lock free histogram of non negative long values, like frame times in nanoseconds. Values below 128 have a
+ * bucket each, above that every power of two is split into 64 buckets, so recorded values keep about two
+ * significant digits (within 1.6%) over the whole long range in a fixed 30KB of counts. Recording is a few
+ * atomic adds and never allocates, so it can be called every frame from any thread.
+ * @see EngineMetrics
+ */
+public class Histogram
+{
+	private static final int SUB_BITS = 6;
+	private static final int SUB_COUNT = 1 << SUB_BITS;					// buckets per power of two
+	private static final int LINEAR = SUB_COUNT*2;						// values with a bucket each
+	private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1)*SUB_COUNT;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * Adds a value.
+	 * @param value Value, negative values are counted as 0
+	 */
+	public void Record(long value)
+	{
+		if (value < 0)
+			value = 0;
+		
+		counts.incrementAndGet(Bucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		
+		long m;
+		
+		while (value > (m = max.get()) && !max.compareAndSet(m, value));
+	}
+	
+	/**
+	 * Forgets all values. Values recorded at the same time may be kept or lost.
+	 */
+	public void Reset()
+	{
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+	
+	/**
+	 * Gets the number of values recorded.
+	 * @return Count
+	 */
+	public long GetCount()
+	{ return count.get(); }
+	
+	/**
+	 * Gets the largest value recorded.
+	 * @return Largest value, 0 if none were recorded
+	 */
+	public long GetMax()
+	{ return max.get(); }
+	
+	/**
+	 * Gets the average of the values recorded.
+	 * @return Mean, 0 if none were recorded
+	 */
+	public double GetMean()
+	{
+		long n = count.get();
+		return n == 0 ? 0.0d : (double)sum.get()/n;
+	}
+	
+	/**
+	 * Gets the value that a percentage of the recorded values are at or below, for example 99.9 for p99.9.
+	 * The result is the top of the value's bucket, so it is at most 1.6% above the value, and never above the max.
+	 * @param percentile Percentage, 0 to 100
+	 * @return Value, 0 if none were recorded
+	 */
+	public long GetPercentile(double percentile)
+	{
+		long total = 0;
+		
+		for (int i = 0; i < BUCKETS; i++)
+			total += counts.get(i);
+		
+		if (total == 0)
+			return 0;
+		
+		// the small offset keeps rounding error from pushing an exact rank like 99.9% of 100000 to the next value
+		long target = Math.max((long)Math.ceil(Math.min(percentile, 100.0d)/100.0d*total - 1e-6d), 1);
+		long seen = 0;
+		
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts.get(i);
+			
+			if (seen >= target)
+				return Math.min(Highest(i), max.get());
+		}
+		
+		return max.get();
+	}
+	
+	// values below LINEAR have their own bucket, above that the top SUB_BITS + 1 bits pick the bucket
+	private static int Bucket(long value)
+	{
+		if (value < LINEAR)
+			return (int)value;
+		
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return LINEAR + (shift - 1)*SUB_COUNT + (int)(value >>> shift) - SUB_COUNT;
+	}
+	
+	// largest value that falls in a bucket
+	private static long Highest(int bucket)
+	{
+		if (bucket < LINEAR)
+			return bucket;
+		
+		int shift = (bucket - LINEAR)/SUB_COUNT + 1;
+		long top = (bucket - LINEAR)%SUB_COUNT + SUB_COUNT;
+		
+		return ((top + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,210 @@
+package graphicsengine3d;
+
+import java.awt.AWTEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseEvent;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Mike
+ * Lock free ring buffer of input events. The universe's input behavior is the only writer and the game loop
+ * the only reader. Each event is kept as primitive fields in arrays indexed by slot, so reading does not allocate.
+ * When the buffer is full new events are dropped and counted.
+ * <p>
+ * Reading: while (buffer.Next()) { ... buffer.GetID(), buffer.GetX(), ... }
+ * @see Universe3D#GetInputBuffer()
+ */
+public class InputEventBuffer
+{
+	private final int mask;
+	private final int[] ids;
+	private final int[] xs, ys;
+	private final int[] keyCodes;
+	private final char[] keyChars;
+	private final int[] buttons;
+	private final int[] modifiers;
+	private final long[] whens;
+	private final AWTEvent[] events;
+	
+	// head is the next slot to write, tail the oldest slot not yet released by the reader
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long dropped = 0;
+	
+	// reader state
+	private boolean reading = false;
+	private int current;
+	
+	/**
+	 * Creates a buffer.
+	 * @param capacity Number of events the buffer can hold, rounded up to a power of two
+	 */
+	public InputEventBuffer(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		
+		mask = size - 1;
+		ids = new int[size];
+		xs = new int[size];
+		ys = new int[size];
+		keyCodes = new int[size];
+		keyChars = new char[size];
+		buttons = new int[size];
+		modifiers = new int[size];
+		whens = new long[size];
+		events = new AWTEvent[size];
+	}
+	
+	/**
+	 * Adds an event. Only the input behavior may call this.
+	 * @param event Key or mouse event
+	 * @return If the event was added, false if the buffer was full
+	 */
+	boolean Publish(AWTEvent event)
+	{
+		long h = head.get();
+		
+		if (h - tail.get() > mask)
+		{
+			dropped++;
+			return false;
+		}
+		
+		int i = (int)h & mask;
+		ids[i] = event.getID();
+		events[i] = event;
+		
+		if (event instanceof MouseEvent)
+		{
+			MouseEvent e = (MouseEvent)event;
+			xs[i] = e.getX();
+			ys[i] = e.getY();
+			buttons[i] = e.getButton();
+			modifiers[i] = e.getModifiersEx();
+			whens[i] = e.getWhen();
+			keyCodes[i] = KeyEvent.VK_UNDEFINED;
+			keyChars[i] = KeyEvent.CHAR_UNDEFINED;
+		}
+		else if (event instanceof KeyEvent)
+		{
+			KeyEvent e = (KeyEvent)event;
+			keyCodes[i] = e.getKeyCode();
+			keyChars[i] = e.getKeyChar();
+			modifiers[i] = e.getModifiersEx();
+			whens[i] = e.getWhen();
+			xs[i] = 0;
+			ys[i] = 0;
+			buttons[i] = MouseEvent.NOBUTTON;
+		}
+		
+		head.lazySet(h + 1);		// publish the slot
+		return true;
+	}
+	
+	/**
+	 * Moves to the next event and releases the previous one.
+	 * @return If there was another event
+	 */
+	public boolean Next()
+	{
+		long t = tail.get();
+		
+		if (reading)
+		{
+			events[current] = null;
+			tail.lazySet(++t);
+		}
+		
+		reading = t != head.get();
+		current = (int)t & mask;
+		
+		if (reading)
+			EngineMetrics.inputEvents.incrementAndGet();
+		
+		return reading;
+	}
+	
+	/**
+	 * Gets the number of events waiting to be read.
+	 * @return Number of events
+	 */
+	public int GetSize()
+	{ return (int)(head.get() - tail.get()); }
+	
+	/**
+	 * Gets the number of events that were dropped because the buffer was full.
+	 * @return Number of dropped events
+	 */
+	public long GetDroppedCount()
+	{ return dropped; }
+	
+	
+	
+	//*********************************************************************************
+	//Current Event
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Gets the current event's AWT id, for example KeyEvent.KEY_PRESSED or MouseEvent.MOUSE_MOVED.
+	 * @return Event id
+	 */
+	public int GetID()
+	{ return ids[current]; }
+	
+	/**
+	 * Gets the current mouse event's X position.
+	 * @return X position, 0 for key events
+	 */
+	public int GetX()
+	{ return xs[current]; }
+	
+	/**
+	 * Gets the current mouse event's Y position.
+	 * @return Y position, 0 for key events
+	 */
+	public int GetY()
+	{ return ys[current]; }
+	
+	/**
+	 * Gets the current key event's key code.
+	 * @return Key code, KeyEvent.VK_UNDEFINED for mouse events
+	 */
+	public int GetKeyCode()
+	{ return keyCodes[current]; }
+	
+	/**
+	 * Gets the current key event's character.
+	 * @return Character, KeyEvent.CHAR_UNDEFINED for mouse events
+	 */
+	public char GetKeyChar()
+	{ return keyChars[current]; }
+	
+	/**
+	 * Gets the current mouse event's button.
+	 * @return Button, MouseEvent.NOBUTTON for key events
+	 */
+	public int GetButton()
+	{ return buttons[current]; }
+	
+	/**
+	 * Gets the current event's extended modifiers.
+	 * @return Modifiers
+	 */
+	public int GetModifiers()
+	{ return modifiers[current]; }
+	
+	/**
+	 * Gets when the current event happened.
+	 * @return Time in milliseconds
+	 */
+	public long GetWhen()
+	{ return whens[current]; }
+	
+	/**
+	 * Gets the AWT event the current record was made from.
+	 * @return Event
+	 */
+	public AWTEvent GetEvent()
+	{ return events[current]; }
+}
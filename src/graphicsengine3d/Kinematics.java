@@ -0,0 +1,347 @@
+package graphicsengine3d;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.vecmath.Vector3f;
+
+/**
+ * @author Mike
+ * Moves Object3D's by velocity, acceleration and angular velocity. Each update every body is integrated in one
+ * pass over primitive arrays, velocity first and then position (semi implicit Euler), and rotation by the
+ * angular velocity the same way AddRotation rotates. Large counts are split across cores with fork join.
+ * The results are written straight into the objects' TransformStore slots, then each moved object's transform
+ * is committed once, or marked dirty if its scene defers transforms.
+ * <p>
+ * Register it with a FrameScheduler, or use GraphicsEngine3D.GetKinematics which does. Bodies should be added,
+ * removed and changed on the update thread, between updates. Deleting a body from its scene or making it static
+ * removes it, so do those on the update thread too.
+ * @see GraphicsEngine3D#GetKinematics()
+ * @see TransformStore
+ */
+public class Kinematics extends FrameListener
+{
+	// bodies one fork join task integrates
+	private static final int CHUNK_SIZE = 2048;
+	
+	private Object3D[] bodies = new Object3D[64];
+	private int count = 0;
+	
+	// per body, indexed like bodies
+	private float[] velX = new float[64], velY = new float[64], velZ = new float[64];
+	private float[] accX = new float[64], accY = new float[64], accZ = new float[64];
+	private float[] angX = new float[64], angY = new float[64], angZ = new float[64];
+	private boolean[] moved = new boolean[64];
+	
+	private int parallelThreshold = 8192;
+	private ForkJoinPool pool;
+	
+	
+	
+	//*********************************************************************************
+	//Bodies
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Starts moving an object, at rest. Static and compiled objects cannot be moved, their geometry no longer follows
+	 * their transform.
+	 * @param object3D Object
+	 * @return If the object was added, false if it is already moved by kinematics
+	 * @throws IllegalArgumentException If the object is static or compiled
+	 */
+	public boolean Add(Object3D object3D)
+	{
+		if (object3D.IsStatic() || object3D.IsCompiled())
+			throw new IllegalArgumentException("Static and compiled objects cannot be moved by kinematics");
+		
+		if (object3D.kinematics != null)
+			return false;
+		
+		if (count == bodies.length)
+			Grow(count*2);
+		
+		int i = count++;
+		bodies[i] = object3D;
+		velX[i] = 0.0f; velY[i] = 0.0f; velZ[i] = 0.0f;
+		accX[i] = 0.0f; accY[i] = 0.0f; accZ[i] = 0.0f;
+		angX[i] = 0.0f; angY[i] = 0.0f; angZ[i] = 0.0f;
+		
+		object3D.kinematics = this;
+		object3D.kinematicsIndex = i;
+		return true;
+	}
+	
+	/**
+	 * Stops moving an object. It stays where it is.
+	 * @param object3D Object
+	 * @return If the object was found and removed
+	 */
+	public boolean Remove(Object3D object3D)
+	{
+		if (object3D.kinematics != this)
+			return false;
+		
+		// move the last body into the freed index
+		int i = object3D.kinematicsIndex, last = --count;
+		
+		if (i != last)
+		{
+			bodies[i] = bodies[last];
+			bodies[i].kinematicsIndex = i;
+			velX[i] = velX[last]; velY[i] = velY[last]; velZ[i] = velZ[last];
+			accX[i] = accX[last]; accY[i] = accY[last]; accZ[i] = accZ[last];
+			angX[i] = angX[last]; angY[i] = angY[last]; angZ[i] = angZ[last];
+		}
+		
+		bodies[last] = null;
+		object3D.kinematics = null;
+		object3D.kinematicsIndex = -1;
+		return true;
+	}
+	
+	/**
+	 * Stops moving all objects.
+	 */
+	public void Clear()
+	{
+		for (int i = 0; i < count; i++)
+		{
+			bodies[i].kinematics = null;
+			bodies[i].kinematicsIndex = -1;
+		}
+		
+		Arrays.fill(bodies, 0, count, null);
+		count = 0;
+	}
+	
+	/**
+	 * Gets the number of objects moved.
+	 * @return Number of bodies
+	 */
+	public int GetCount()
+	{ return count; }
+	
+	/**
+	 * Gets if an object is moved by this.
+	 * @param object3D Object
+	 * @return If the object is a body
+	 */
+	public boolean Contains(Object3D object3D)
+	{ return object3D.kinematics == this; }
+	
+	/**
+	 * Sets an object's velocity.
+	 * @param object3D	Object, must have been added
+	 * @param x			X velocity in units per second
+	 * @param y			Y velocity
+	 * @param z			Z velocity
+	 */
+	public void SetVelocity(Object3D object3D, float x, float y, float z)
+	{
+		int i = Index(object3D);
+		velX[i] = x; velY[i] = y; velZ[i] = z;
+	}
+	
+	/**
+	 * Sets an object's acceleration.
+	 * @param object3D	Object, must have been added
+	 * @param x			X acceleration in units per second squared
+	 * @param y			Y acceleration
+	 * @param z			Z acceleration
+	 */
+	public void SetAcceleration(Object3D object3D, float x, float y, float z)
+	{
+		int i = Index(object3D);
+		accX[i] = x; accY[i] = y; accZ[i] = z;
+	}
+	
+	/**
+	 * Sets how fast an object's rotation angles change, as AddRotation would change them.
+	 * @param object3D	Object, must have been added
+	 * @param x			Roll rate, radians per second around X
+	 * @param y			Pitch rate around Y
+	 * @param z			Yaw rate around Z
+	 */
+	public void SetAngularVelocity(Object3D object3D, float x, float y, float z)
+	{
+		int i = Index(object3D);
+		angX[i] = x; angY[i] = y; angZ[i] = z;
+	}
+	
+	/**
+	 * Gets an object's velocity.
+	 * @param object3D	Object, must have been added
+	 * @param velocity	Set to the velocity
+	 * @return velocity
+	 */
+	public Vector3f GetVelocity(Object3D object3D, Vector3f velocity)
+	{
+		int i = Index(object3D);
+		velocity.set(velX[i], velY[i], velZ[i]);
+		return velocity;
+	}
+	
+	/**
+	 * Gets an object's acceleration.
+	 * @param object3D		Object, must have been added
+	 * @param acceleration	Set to the acceleration
+	 * @return acceleration
+	 */
+	public Vector3f GetAcceleration(Object3D object3D, Vector3f acceleration)
+	{
+		int i = Index(object3D);
+		acceleration.set(accX[i], accY[i], accZ[i]);
+		return acceleration;
+	}
+	
+	/**
+	 * Gets an object's angular velocity.
+	 * @param object3D	Object, must have been added
+	 * @param angular	Set to the angular velocity
+	 * @return angular
+	 */
+	public Vector3f GetAngularVelocity(Object3D object3D, Vector3f angular)
+	{
+		int i = Index(object3D);
+		angular.set(angX[i], angY[i], angZ[i]);
+		return angular;
+	}
+	
+	private int Index(Object3D object3D)
+	{
+		if (object3D.kinematics != this)
+			throw new IllegalArgumentException("Object3D is not moved by this Kinematics");
+		
+		return object3D.kinematicsIndex;
+	}
+	
+	private void Grow(int capacity)
+	{
+		bodies = Arrays.copyOf(bodies, capacity);
+		velX = Arrays.copyOf(velX, capacity); velY = Arrays.copyOf(velY, capacity); velZ = Arrays.copyOf(velZ, capacity);
+		accX = Arrays.copyOf(accX, capacity); accY = Arrays.copyOf(accY, capacity); accZ = Arrays.copyOf(accZ, capacity);
+		angX = Arrays.copyOf(angX, capacity); angY = Arrays.copyOf(angY, capacity); angZ = Arrays.copyOf(angZ, capacity);
+		moved = new boolean[capacity];
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Settings
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Sets the number of bodies from which updates are split across cores. Below it a single thread is
+	 * faster than handing out the work. The default is 8192.
+	 * @param bodies Number of bodies
+	 */
+	public void SetParallelThreshold(int bodies)
+	{
+		parallelThreshold = Math.max(bodies, 1);
+	}
+	
+	/**
+	 * Gets the number of bodies from which updates are split across cores.
+	 * @return Number of bodies
+	 */
+	public int GetParallelThreshold()
+	{ return parallelThreshold; }
+	
+	
+	
+	//*********************************************************************************
+	//Integration
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Integrates every body over a step and commits the transforms of the bodies that moved.
+	 * @param step Step length in seconds
+	 */
+	public void Update(float step)
+	{
+		if (count >= parallelThreshold)
+		{
+			if (pool == null)
+				pool = new ForkJoinPool();
+			
+			pool.invoke(new IntegrateTask(0, count, step));
+		}
+		else
+			Integrate(0, count, step);
+		
+		// the transform path touches the scenes, so it stays on this thread
+		for (int i = 0; i < count; i++)
+		{
+			if (moved[i])
+				bodies[i].UpdateTransform();
+		}
+	}
+	
+	// integrates bodies from to to - 1, each body only writes its own slot and index
+	private void Integrate(int from, int to, float step)
+	{
+		for (int i = from; i < to; i++)
+		{
+			Object3D body = bodies[i];
+			TransformStore store = body.store;
+			int slot = body.slot;
+			
+			float vx = velX[i] += accX[i]*step;
+			float vy = velY[i] += accY[i]*step;
+			float vz = velZ[i] += accZ[i]*step;
+			float ax = angX[i], ay = angY[i], az = angZ[i];
+			
+			boolean translating = vx != 0.0f || vy != 0.0f || vz != 0.0f;
+			boolean rotating = ax != 0.0f || ay != 0.0f || az != 0.0f;
+			
+			if (translating)
+			{
+				store.posX[slot] += vx*step;
+				store.posY[slot] += vy*step;
+				store.posZ[slot] += vz*step;
+			}
+			
+			if (rotating)
+			{
+				store.MulRotation(slot, ax*step, ay*step, az*step);
+				store.rotX[slot] += ax*step;
+				store.rotY[slot] += ay*step;
+				store.rotZ[slot] += az*step;
+			}
+			
+			moved[i] = translating || rotating;
+		}
+	}
+	
+	
+	
+	// splits a range of bodies in halves until they are small enough to integrate directly
+	private class IntegrateTask extends RecursiveAction
+	{
+		private final int from, to;
+		private final float step;
+		
+		IntegrateTask(int from, int to, float step)
+		{
+			this.from = from;
+			this.to = to;
+			this.step = step;
+		}
+		
+		protected void compute()
+		{
+			if (to - from <= CHUNK_SIZE)
+			{
+				Kinematics.this.Integrate(from, to, step);
+				return;
+			}
+			
+			int middle = (from + to) >>> 1;
+			invokeAll(new IntegrateTask(from, middle, step), new IntegrateTask(middle, to, step));
+		}
+	}
+}
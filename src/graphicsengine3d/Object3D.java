@@ -1,23 +1,87 @@
 package graphicsengine3d;
 
+import javax.media.j3d.BoundingSphere;
+import javax.media.j3d.Bounds;
+import javax.media.j3d.BranchGroup;
+import javax.media.j3d.CapabilityNotSetException;
 import javax.media.j3d.Node;
+import javax.media.j3d.Switch;
 import javax.media.j3d.Transform3D;
 import javax.media.j3d.TransformGroup;
+import javax.vecmath.Point3d;
 import javax.vecmath.Vector3f;
 
 /**
  * @author Mike
  * Manages a J3D Node. Must be added to a Scene3D to be visible.
+ * The position, rotation and scale are kept in a TransformStore slot.
  * @see Scene3D
+ * @see TransformStore
  */
 public class Object3D
 {
 	protected Node node;
 	protected TransformGroup trans = new TransformGroup();
 	private Transform3D trans3d = new Transform3D();
-	private Vector3f pos = new Vector3f();
-	private Vector3f rot = new Vector3f();
-	private float scale = 1.0f;
+	
+	// position, rotation and scale live in a TransformStore slot, a loose one until a scene with a store takes the object
+	TransformStore store;
+	int slot = -1;
+	
+	// returned by GetPosition and GetRot, only created if those are used
+	private Vector3f pos;
+	private Vector3f rot;
+	
+	// scratch matrix so transform updates never allocate
+	private double[] mat = new double[16];
+	
+	// scene the object was added to, its index there and whether it is waiting for that scene to commit its transform
+	Scene3D scene;
+	int sceneIndex = -1;
+	volatile boolean dirty = false;
+	
+	// radius of a sphere around the object's origin holding the node, used for culling. NaN until computed
+	private float boundingRadius = Float.NaN;
+	
+	// switch the scene culls the object with and whether it is culled
+	Switch cullSwitch;
+	boolean culled = false;
+	
+	// branch of a compiled scene the object was removed from. Its node cannot leave the compiled groups, so the
+	// branch is added again whole
+	BranchGroup compiledBranch;
+	
+	// cell of the scene's spatial grid the object is in and its index in that cell
+	SpatialGrid.Cell gridCell;
+	int gridIndex = -1;
+	
+	// index of the object in its scene's pick tree and whether it moved since the tree was last refit
+	int pickIndex = -1;
+	boolean pickMoved = false;
+	
+	// levels of detail, null if the object has one node. The switch is the object's node
+	private Node[] lodNodes;
+	private float[] lodDistances;
+	private float lodHysteresis = 0.1f;
+	private double[] lodOut, lodIn;
+	private Switch lodSwitch;
+	private int lodLevel = 0;
+	int lodSceneIndex = -1;
+	
+	// kinematics moving the object and its index there
+	Kinematics kinematics;
+	int kinematicsIndex = -1;
+	
+	// collision world the object has a shape in and its slot there
+	CollisionWorld collisions;
+	int collisionSlot = -1;
+	
+	// static objects are merged into their scene's batches when it is shown, batches is null until then
+	private boolean isStatic = false;
+	StaticBatcher.Batch[] batches;
+	
+	// compiled into its scene's branch with no write capabilities, the transform group can no longer change
+	private boolean compiled = false;
 	
 	/**
 	 * Creates an object at the default position and rotation.
@@ -51,9 +115,19 @@ public class Object3D
 	public Object3D(Node node, Vector3f posVector, Vector3f rotVector)
 	{ Init(node, null, posVector, rotVector); }
 	
+	/**
+	 * Creates an object that shows a less detailed node the further it is from the view.
+	 * Each node can only belong to one object, share geometry between the nodes instead.
+	 * @param levels	J3D Nodes, most detailed first
+	 * @param distances	Distance from the view at which each level after the first is used, increasing
+	 */
+	public Object3D(Node[] levels, float[] distances)
+	{ Init(CreateLevels(levels, distances), null, null, null); }
+	
 	
 	private void Init(Node node, Transform3D newTrans, Vector3f posVector, Vector3f rotVector)
 	{
+		TransformStore.AllocateLoose(this);
 		trans.setCapability(TransformGroup.ALLOW_TRANSFORM_WRITE);
 		
 		this.node = node;
@@ -73,7 +147,8 @@ public class Object3D
 	}
 	
 	/**
-	 * Gets the object's transform group.
+	 * Gets the object's transform group. An object whose node was merged into a compiled scene's batches gets a new
+	 * one when it is added to a scene again.
 	 * @return Object's TransformGroup
 	 */
 	public TransformGroup GetTransformGroup()
@@ -87,9 +162,10 @@ public class Object3D
 	 */
 	public void SetTransform3D(Transform3D transform)
 	{
-		trans.setTransform(transform);
+		if (!compiled)
+			trans.setTransform(transform);
 	}
-	
+
 //*********************************************************************************
 //Rotation
 //
@@ -101,23 +177,12 @@ public class Object3D
 	 */
 	public void AddRotation(Vector3f rotVector)
 	{
-		// create transformations and apply rotations
-		Transform3D trans1 = new Transform3D();
-		Transform3D trans2 = new Transform3D();
-		Transform3D trans3 = new Transform3D();
-		trans1.rotX(rotVector.x);
-		trans2.rotY(rotVector.y);
-		trans3.rotZ(rotVector.z);
-
-		// multiply transformations
-		trans3d.mul(trans1);
-		trans3d.mul(trans2);
-		trans3d.mul(trans3);
+		MulRotation(rotVector.x, rotVector.y, rotVector.z);
 		
-		trans.setTransform(trans3d);
-		rot.x += rotVector.x;
-		rot.y += rotVector.y;
-		rot.z += rotVector.z;
+		store.rotX[slot] += rotVector.x;
+		store.rotY[slot] += rotVector.y;
+		store.rotZ[slot] += rotVector.z;
+		UpdateTransform();
 	}
 	
 	/**
@@ -126,12 +191,10 @@ public class Object3D
 	 */
 	public void AddPitch(float angle)
 	{
-		Transform3D trans1 = new Transform3D();
-		trans1.rotY(angle);
+		MulRotation(0.0f, angle, 0.0f);
 		
-		trans3d.mul(trans1);
-		trans.setTransform(trans3d);
-		rot.y += angle;
+		store.rotY[slot] += angle;
+		UpdateTransform();
 	}
 	
 	/**
@@ -140,12 +203,10 @@ public class Object3D
 	 */
 	public void AddYaw(float angle)
 	{
-		Transform3D trans1 = new Transform3D();
-		trans1.rotZ(angle);
+		MulRotation(0.0f, 0.0f, angle);
 		
-		trans3d.mul(trans1);
-		trans.setTransform(trans3d);
-		rot.z += angle;
+		store.rotZ[slot] += angle;
+		UpdateTransform();
 	}
 	
 	/**
@@ -154,92 +215,117 @@ public class Object3D
 	 */
 	public void AddRoll(float angle)
 	{
-		Transform3D trans1 = new Transform3D();
-		trans1.rotX(angle);
+		MulRotation(angle, 0.0f, 0.0f);
 		
-		trans3d.mul(trans1);
-		trans.setTransform(trans3d);
-		rot.x += angle;
+		store.rotX[slot] += angle;
+		UpdateTransform();
 	}
 	
 	/**
 	 * Sets the object's rotation.
-	 * @param angle Angle
+	 * @param rotVector Rotation (X, Y, Z)
 	 */
 	public void SetRotation(Vector3f rotVector)
 	{
-		trans3d = new Transform3D();
-		rot = new Vector3f();
-		SetPosition(pos);
-		AddRotation(rotVector);
+		store.rotX[slot] = rotVector.x;
+		store.rotY[slot] = rotVector.y;
+		store.rotZ[slot] = rotVector.z;
+		
+		ResetRotation();
+		UpdateTransform();
 	}
 	
 	/**
-	 * Sets the object's pitch.
+	 * Sets the object's pitch. The roll and yaw are kept.
 	 * @param angle Angle
 	 */
 	public void SetPitch(float angle)
 	{
-		trans3d = new Transform3D();
-		rot = new Vector3f();
-		SetPosition(pos);
-		AddRotation(new Vector3f(rot.x, angle, rot.z));
+		store.rotY[slot] = angle;
+		
+		ResetRotation();
+		UpdateTransform();
 	}
 	
 	/**
-	 * Sets the object's yaw.
+	 * Sets the object's yaw. The roll and pitch are kept.
 	 * @param angle Angle
 	 */
 	public void SetYaw(float angle)
 	{
-		trans3d = new Transform3D();
-		rot = new Vector3f();
-		SetPosition(pos);
-		AddRotation(new Vector3f(rot.x, rot.y, angle));
+		store.rotZ[slot] = angle;
+		
+		ResetRotation();
+		UpdateTransform();
 	}
 	
 	/**
-	 * Sets the object's roll.
+	 * Sets the object's roll. The pitch and yaw are kept.
 	 * @param angle Angle
 	 */
 	public void SetRoll(float angle)
 	{
-		trans3d = new Transform3D();
-		rot = new Vector3f();
-		SetPosition(pos);
-		AddRotation(new Vector3f(angle, rot.y, rot.z));
+		store.rotX[slot] = angle;
+		
+		ResetRotation();
+		UpdateTransform();
+	}
+	
+	// rotMat = rotMat * rotX(x) * rotY(y) * rotZ(z), same order AddRotation has always applied
+	private void MulRotation(float x, float y, float z)
+	{
+		store.MulRotation(slot, x, y, z);
+	}
+	
+	// rebuilds the rotation matrix from the stored angles
+	private void ResetRotation()
+	{
+		double[] rotMat = store.rotMat;
+		int r = slot*9;
+		
+		rotMat[r]     = 1.0d; rotMat[r + 1] = 0.0d; rotMat[r + 2] = 0.0d;
+		rotMat[r + 3] = 0.0d; rotMat[r + 4] = 1.0d; rotMat[r + 5] = 0.0d;
+		rotMat[r + 6] = 0.0d; rotMat[r + 7] = 0.0d; rotMat[r + 8] = 1.0d;
+		
+		MulRotation(store.rotX[slot], store.rotY[slot], store.rotZ[slot]);
 	}
 	
 	/**
-	 * Gets the objet's rotation.
+	 * Gets the objet's rotation. The returned vector is refreshed on each call, changing it does not rotate the object.
 	 * @return Rotation
 	 */
 	public Vector3f GetRot()
-	{ return rot; }
+	{
+		if (rot == null)
+			rot = new Vector3f();
+		
+		rot.set(store.rotX[slot], store.rotY[slot], store.rotZ[slot]);
+		return rot;
+	}
 	
 	/**
 	 * Gets the objet's pitch.
 	 * @return Pitch
 	 */
 	public float GetPitch()
-	{ return rot.y; }
+	{ return store.rotY[slot]; }
 	
 	/**
 	 * Gets the objet's yaw.
 	 * @return Yaw
 	 */
 	public float GetYaw()
-	{ return rot.z; }
+	{ return store.rotZ[slot]; }
 	
 	/**
 	 * Gets the objet's roll.
 	 * @return Roll
 	 */
 	public float GetRoll()
-	{ return rot.x; }
+	{ return store.rotX[slot]; }
+	
 	
 	
-
 	//*********************************************************************************
 	//Position
 	//
@@ -251,12 +337,11 @@ public class Object3D
 	 */
 	public void AddPosition(Vector3f posVector)
 	{
-		pos.x += posVector.x;
-		pos.y += posVector.y;
-		pos.z += posVector.z;
+		store.posX[slot] += posVector.x;
+		store.posY[slot] += posVector.y;
+		store.posZ[slot] += posVector.z;
 		
-		trans3d.setTranslation(pos);
-		trans.setTransform(trans3d);
+		UpdateTransform();
 	}
 	
 	/**
@@ -265,10 +350,9 @@ public class Object3D
 	 */
 	public void AddX(float amt)
 	{
-		pos.x += amt;
+		store.posX[slot] += amt;
 		
-		trans3d.setTranslation(pos);
-		trans.setTransform(trans3d);
+		UpdateTransform();
 	}
 	
 	/**
@@ -277,10 +361,9 @@ public class Object3D
 	 */
 	public void AddY(float amt)
 	{
-		pos.y += amt;
+		store.posY[slot] += amt;
 		
-		trans3d.setTranslation(pos);
-		trans.setTransform(trans3d);
+		UpdateTransform();
 	}
 	
 	/**
@@ -289,10 +372,9 @@ public class Object3D
 	 */
 	public void AddZ(float amt)
 	{
-		pos.z += amt;
+		store.posZ[slot] += amt;
 		
-		trans3d.setTranslation(pos);
-		trans.setTransform(trans3d);
+		UpdateTransform();
 	}
 	
 	/**
@@ -301,12 +383,11 @@ public class Object3D
 	 */
 	public void SetPosition(Vector3f posVector)
 	{
-		pos.x = posVector.x;
-		pos.y = posVector.y;
-		pos.z = posVector.z;
+		store.posX[slot] = posVector.x;
+		store.posY[slot] = posVector.y;
+		store.posZ[slot] = posVector.z;
 		
-		trans3d.setTranslation(pos);
-		trans.setTransform(trans3d);
+		UpdateTransform();
 	}
 	
 	/**
@@ -315,10 +396,9 @@ public class Object3D
 	 */
 	public void SetX(float x)
 	{
-		pos.x = x;
+		store.posX[slot] = x;
 		
-		trans3d.setTranslation(pos);
-		trans.setTransform(trans3d);
+		UpdateTransform();
 	}
 	
 	/**
@@ -327,10 +407,9 @@ public class Object3D
 	 */
 	public void SetY(float y)
 	{
-		pos.y = y;
+		store.posY[slot] = y;
 		
-		trans3d.setTranslation(pos);
-		trans.setTransform(trans3d);
+		UpdateTransform();
 	}
 	
 	/**
@@ -339,39 +418,44 @@ public class Object3D
 	 */
 	public void SetZ(float z)
 	{
-		pos.z = z;
+		store.posZ[slot] = z;
 		
-		trans3d.setTranslation(pos);
-		trans.setTransform(trans3d);
+		UpdateTransform();
 	}
 	
 	/**
-	 * Gets the object's position.
+	 * Gets the object's position. The returned vector is refreshed on each call, changing it does not move the object.
 	 * @return Position
 	 */
 	public Vector3f GetPosition()
-	{ return pos; }
+	{
+		if (pos == null)
+			pos = new Vector3f();
+		
+		pos.set(store.posX[slot], store.posY[slot], store.posZ[slot]);
+		return pos;
+	}
 	
 	/**
 	 * Gets the object's X position.
 	 * @return X Position
 	 */
 	public float GetX()
-	{ return pos.x; }
+	{ return store.posX[slot]; }
 	
 	/**
 	 * Gets the object's Y position.
 	 * @return Y Position
 	 */
 	public float GetY()
-	{ return pos.y; }
+	{ return store.posY[slot]; }
 	
 	/**
 	 * Gets the object's Z position.
 	 * @return Z Position
 	 */
 	public float GetZ()
-	{ return pos.z; }
+	{ return store.posZ[slot]; }
 	
 	
 	
@@ -386,10 +470,9 @@ public class Object3D
 	 */
 	public void AddScale(float amt)
 	{
-		scale += amt;
+		store.scale[slot] += amt;
 		
-		trans3d.setScale(scale);
-		trans.setTransform(trans3d);
+		UpdateTransform();
 	}
 	
 	/**
@@ -398,10 +481,9 @@ public class Object3D
 	 */
 	public void SetScale(float scale)
 	{
-		this.scale = scale;
+		store.scale[slot] = scale;
 		
-		trans3d.setScale(this.scale);
-		trans.setTransform(trans3d);
+		UpdateTransform();
 	}
 	
 	/**
@@ -409,11 +491,322 @@ public class Object3D
 	 * @return Scale
 	 */
 	public float GetScale()
-	{ return scale; }
+	{ return store.scale[slot]; }
+	
+	
+	
+	//*********************************************************************************
+	//Bounds
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Sets the radius of a sphere around the object's origin that holds the whole node, before scaling.
+	 * Scenes use it to cull the object when it is out of view and to pick it.
+	 * @param radius Radius
+	 */
+	public void SetBoundingRadius(float radius)
+	{
+		boundingRadius = radius;
+		
+		if (scene != null)
+			scene.ObjectMoved(this);
+	}
+	
+	/**
+	 * Gets the radius of a sphere around the object's origin that holds the whole node, before scaling.
+	 * Unless set it is worked out from the node's bounds, or the most detailed level's, when the object is added to a scene.
+	 * If the node was already live or compiled its bounds cannot be read and the radius is infinite, so the object is never
+	 * culled and is always a pick candidate.
+	 * @return Radius
+	 */
+	public float GetBoundingRadius()
+	{
+		if (Float.isNaN(boundingRadius))
+			boundingRadius = ComputeBoundingRadius();
+		
+		return boundingRadius;
+	}
+	
+	private float ComputeBoundingRadius()
+	{
+		try
+		{
+			Bounds bounds = lodNodes != null ? lodNodes[0].getBounds() : node.getBounds();
+			
+			if (bounds != null)
+			{
+				BoundingSphere sphere = new BoundingSphere(bounds);
+				Point3d center = new Point3d();
+				sphere.getCenter(center);
+				
+				if (sphere.getRadius() >= 0.0d)
+					return (float)(sphere.getRadius() + Math.sqrt(center.x*center.x + center.y*center.y + center.z*center.z));
+			}
+		}
+		catch (CapabilityNotSetException e)
+		{
+		}
+		
+		return Float.POSITIVE_INFINITY;
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Static
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Marks the object as static scenery that never moves. When its scene is shown its geometry is moved into
+	 * world space and merged with the other static objects of the same Appearance, so they are drawn together.
+	 * Objects added while the scene is shown are merged the next time it is shown. Moving a merged object
+	 * has no visible effect, remove it from the scene and add it again instead. Static objects that cannot be
+	 * merged are compiled if the scene compiles on show, see Scene3D.SetCompileOnShow. Making an object static
+	 * removes it from the Kinematics moving it.
+	 * @param isStatic If the object is static
+	 */
+	public void SetStatic(boolean isStatic)
+	{
+		this.isStatic = isStatic;
+		
+		if (isStatic && kinematics != null)
+			kinematics.Remove(this);
+	}
+	
+	/**
+	 * Gets if the object is marked static.
+	 * @return If the object is static
+	 */
+	public boolean IsStatic()
+	{ return isStatic; }
+	
+	/**
+	 * Gets if the object has been compiled into its scene. A compiled object's transform cannot change and it
+	 * cannot be added to a scene again.
+	 * @return If the object is compiled
+	 * @see Scene3D#SetCompileOnShow(boolean)
+	 */
+	public boolean IsCompiled()
+	{ return compiled; }
+	
+	// gives the object a new TransformGroup with its transform, for when the old one was compiled and cannot take
+	// the node back
+	void NewTransformGroup()
+	{
+		trans = new TransformGroup();
+		trans.setCapability(TransformGroup.ALLOW_TRANSFORM_WRITE);
+		CommitTransform();
+	}
+	
+	// drops the write capability so Java 3D can flatten the transform, the transform must be committed
+	void Compile()
+	{
+		trans.clearCapability(TransformGroup.ALLOW_TRANSFORM_WRITE);
+		compiled = true;
+	}
+	
+	/**
+	 * Gets if the object's geometry has been merged into its scene's batches.
+	 * @return If the object is batched
+	 */
+	public boolean IsBatched()
+	{ return batches != null; }
+	
+	
+	
+	//*********************************************************************************
+	//Level of Detail
+	//
+	//*********************************************************************************
+	
+	private Node CreateLevels(Node[] levels, float[] distances)
+	{
+		if (levels.length == 0 || distances.length != levels.length - 1)
+			throw new IllegalArgumentException("There must be one distance fewer than levels");
+		
+		lodNodes = levels.clone();
+		lodDistances = distances.clone();
+		lodOut = new double[distances.length];
+		lodIn = new double[distances.length];
+		SetLODThresholds();
+		
+		lodSwitch = new Switch(0);
+		lodSwitch.setCapability(Switch.ALLOW_SWITCH_WRITE);
+		
+		for (int i = 0; i < levels.length; i++)
+			lodSwitch.addChild(levels[i]);
+		
+		return lodSwitch;
+	}
+	
+	// squared distances to move out to the next level and back in, apart by the hysteresis so an object
+	// sitting on a threshold does not flicker between levels
+	private void SetLODThresholds()
+	{
+		for (int i = 0; i < lodDistances.length; i++)
+		{
+			double out = lodDistances[i]*(1.0d + lodHysteresis);
+			double in = lodDistances[i]*(1.0d - lodHysteresis);
+			lodOut[i] = out*out;
+			lodIn[i] = in*in;
+		}
+	}
+	
+	/**
+	 * Sets how far past a level's distance the object has to move before the level changes, as a fraction
+	 * of the distance. The default is 0.1, so a level at 100 is used from 110 going out and until 90 coming in.
+	 * @param fraction Hysteresis
+	 */
+	public void SetLODHysteresis(float fraction)
+	{
+		lodHysteresis = fraction;
+		
+		if (lodNodes != null)
+			SetLODThresholds();
+	}
+	
+	/**
+	 * Gets the hysteresis of the level changes.
+	 * @return Hysteresis as a fraction of the distance
+	 */
+	public float GetLODHysteresis()
+	{ return lodHysteresis; }
+	
+	/**
+	 * Gets the number of levels of detail.
+	 * @return Number of levels, 1 if the object has one node
+	 */
+	public int GetLODCount()
+	{ return lodNodes == null ? 1 : lodNodes.length; }
+	
+	/**
+	 * Gets the level of detail being shown, 0 is the most detailed.
+	 * @return Level
+	 */
+	public int GetLODLevel()
+	{ return lodLevel; }
+	
+	/**
+	 * Shows a level of detail. Scenes choose the level each frame, so this only lasts if the object is not in a shown scene.
+	 * @param level Level, 0 is the most detailed
+	 */
+	public void SetLODLevel(int level)
+	{
+		if (lodNodes == null || level == lodLevel)
+			return;
+		
+		lodLevel = Math.max(0, Math.min(level, lodNodes.length - 1));
+		lodSwitch.setWhichChild(lodLevel);
+	}
+	
+	/**
+	 * Gets if the object has more than one level of detail.
+	 * @return If the object has levels of detail
+	 */
+	public boolean HasLOD()
+	{ return lodNodes != null; }
+	
+	/**
+	 * Picks the level for a squared distance from the view, moving at most as far as the thresholds allow.
+	 * @param distSq Squared distance from the view
+	 */
+	void UpdateLOD(double distSq)
+	{
+		int level = lodLevel;
+		
+		while (level < lodOut.length && distSq > lodOut[level])
+			level++;
+		
+		while (level > 0 && distSq < lodIn[level - 1])
+			level--;
+		
+		if (level != lodLevel)
+		{
+			lodLevel = level;
+			lodSwitch.setWhichChild(level);
+		}
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Transform
+	//
+	//*********************************************************************************
+	
+	// commits the transform now, or queues it on the scene if the scene defers transform commits
+	void UpdateTransform()
+	{
+		if (scene != null)
+			scene.ObjectMoved(this);
+		
+		if (scene != null && scene.GetDeferTransforms())
+		{
+			if (!dirty)
+			{
+				dirty = true;
+				scene.MarkDirty(this);
+			}
+			
+			return;
+		}
+		
+		CommitTransform();
+	}
+	
+	/**
+	 * Writes translation * rotation * scale into trans3d and hands it to the TransformGroup.
+	 * Called by the scene when flushing deferred transforms.
+	 */
+	void CommitTransform()
+	{
+		dirty = false;
+		
+		if (compiled)
+			return;
+		
+		store.Compose(slot, mat);
+		trans3d.set(mat);
+		trans.setTransform(trans3d);
+		EngineMetrics.transformCommits.incrementAndGet();
+	}
+	
+	/**
+	 * Moves the object's position, rotation and scale into a slot of another store.
+	 * @param to Destination store
+	 */
+	void MoveToStore(TransformStore to)
+	{
+		if (to == store)
+			return;
+		
+		int newSlot = to.Allocate(this);
+		to.Copy(store, slot, newSlot);
+		store.Release(slot);
+		
+		store = to;
+		slot = newSlot;
+	}
+	
+	/**
+	 * Moves the object's position, rotation and scale out of its scene's store into a loose slot.
+	 */
+	void MoveToLooseStore()
+	{
+		TransformStore from = store;
+		int fromSlot = slot;
+		
+		TransformStore.AllocateLoose(this);
+		store.Copy(from, fromSlot, slot);
+		from.Release(fromSlot);
+	}
 	
 	
 	protected void finalize() throws Throwable
 	{
-		trans.removeAllChildren();
+		if (!trans.isCompiled())
+			trans.removeAllChildren();
 	}
 }
@@ -0,0 +1,77 @@
+package graphicsengine3d;
+
+/**
+ * @author Mike
+ * The nearest object found by a pick, the scene it is in and how far along the ray it was hit.
+ * A PickHit can be reused for many picks.
+ * @see Universe3D#Pick(int, int, PickHit)
+ */
+public class PickHit
+{
+	private Object3D object;
+	private Scene3D scene;
+	private double distance = Double.POSITIVE_INFINITY;
+	private double x, y, z;
+	
+	/**
+	 * Clears the hit so the next pick can find anything.
+	 */
+	public void Reset()
+	{
+		object = null;
+		scene = null;
+		distance = Double.POSITIVE_INFINITY;
+	}
+	
+	void Set(Object3D object3D, Scene3D scene3D, double dist, double hitX, double hitY, double hitZ)
+	{
+		object = object3D;
+		scene = scene3D;
+		distance = dist;
+		x = hitX;
+		y = hitY;
+		z = hitZ;
+	}
+	
+	/**
+	 * Gets the object hit.
+	 * @return Object3D, or null if nothing was hit
+	 */
+	public Object3D GetObject()
+	{ return object; }
+	
+	/**
+	 * Gets the scene of the object hit.
+	 * @return Scene3D, or null if nothing was hit
+	 */
+	public Scene3D GetScene()
+	{ return scene; }
+	
+	/**
+	 * Gets the distance from the ray's origin to where the object's bounding sphere was hit.
+	 * @return Distance, infinite if nothing was hit
+	 */
+	public double GetDistance()
+	{ return distance; }
+	
+	/**
+	 * Gets the X position of the hit.
+	 * @return X position
+	 */
+	public double GetX()
+	{ return x; }
+	
+	/**
+	 * Gets the Y position of the hit.
+	 * @return Y position
+	 */
+	public double GetY()
+	{ return y; }
+	
+	/**
+	 * Gets the Z position of the hit.
+	 * @return Z position
+	 */
+	public double GetZ()
+	{ return z; }
+}
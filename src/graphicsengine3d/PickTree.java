@@ -0,0 +1,515 @@
+package graphicsengine3d;
+
+import java.util.List;
+
+/**
+ * @author Mike
+ * Bounding volume hierarchy over the bounding spheres of a scene's objects, used for picking.
+ * The tree is built the first time it is picked and again after objects are added or removed.
+ * Objects that move only mark themselves, and the boxes above them are grown to hold them on the next pick.
+ * Objects whose bounding radius is infinite are kept out of the tree and checked on every pick, they are hit
+ * where the ray passes nearest their origin.
+ * @see Scene3D#PickRay(double, double, double, double, double, double, PickHit)
+ */
+class PickTree
+{
+	private static final int LEAF_SIZE = 4;
+	
+	// objects in tree order with their spheres, 4 floats each: x, y, z, radius
+	private Object3D[] items = new Object3D[0];
+	private float[] spheres = new float[0];
+	private int[] itemLeaf = new int[0];
+	private int itemCount = 0;
+	
+	// objects with an infinite bounding radius, their spheres hold every ray
+	private Object3D[] unbounded = new Object3D[0];
+	private int unboundedCount = 0;
+	
+	// nodes, 6 floats of bounds each. The children of a node are next to each other, child is -1 for leaves
+	private float[] bounds = new float[0];
+	private int[] child = new int[0];
+	private int[] parent = new int[0];
+	private int[] start = new int[0];
+	private int[] count = new int[0];
+	private int nodeCount = 0;
+	
+	private boolean valid = false;
+	
+	// summed surface area of the leaves now and after the last build, refitting grows it as objects spread out
+	private double leafArea = 0;
+	private double builtArea = 0;
+	
+	// objects moved since the last pick
+	private Object3D[] moved = new Object3D[16];
+	private int movedCount = 0;
+	
+	private int[] stack = new int[64];
+	
+	/**
+	 * Makes the tree be built again on the next pick.
+	 */
+	synchronized void Invalidate()
+	{
+		valid = false;
+	}
+	
+	/**
+	 * Records that an object's transform changed so its leaf is refit on the next pick.
+	 * @param object3D Object
+	 */
+	synchronized void MarkMoved(Object3D object3D)
+	{
+		if (!valid || object3D.pickMoved)
+			return;
+		
+		if (object3D.pickIndex < 0)
+		{
+			// not in the tree, it may have got a bounding radius since the tree was built
+			if (!Float.isInfinite(object3D.GetBoundingRadius()))
+				valid = false;
+			
+			return;
+		}
+		
+		if (Float.isInfinite(object3D.GetBoundingRadius()))
+		{
+			valid = false;		// lost its bounding radius, it has to leave the tree
+			return;
+		}
+		
+		if (movedCount == moved.length)
+		{
+			Object3D[] newMoved = new Object3D[moved.length*2];
+			System.arraycopy(moved, 0, newMoved, 0, movedCount);
+			moved = newMoved;
+		}
+		
+		object3D.pickMoved = true;
+		moved[movedCount++] = object3D;
+	}
+	
+	/**
+	 * Finds the nearest object whose bounding sphere the ray hits, if it is nearer than the hit's current distance.
+	 * @param objects The scene's objects, used if the tree has to be built
+	 * @param scene Scene stored in the hit
+	 * @param ox X position of the ray's origin
+	 * @param oy Y position of the ray's origin
+	 * @param oz Z position of the ray's origin
+	 * @param dx X of the ray's direction, normalised
+	 * @param dy Y of the ray's direction, normalised
+	 * @param dz Z of the ray's direction, normalised
+	 * @param hit Hit to fill
+	 * @return If a nearer object was found
+	 */
+	synchronized boolean Pick(List<Object3D> objects, Scene3D scene, double ox, double oy, double oz, double dx, double dy, double dz, PickHit hit)
+	{
+		if (valid && movedCount > 0)
+			Refit();
+		
+		if (!valid)
+			Build(objects, scene);
+		
+		double ix = 1.0d/dx, iy = 1.0d/dy, iz = 1.0d/dz;
+		double best = hit.GetDistance();
+		int bestItem = -1;
+		int top = 0;
+		
+		if (itemCount > 0 && Entry(0, ox, oy, oz, ix, iy, iz) < best)
+			stack[top++] = 0;
+		
+		while (top > 0)
+		{
+			int node = stack[--top];
+			
+			if (Entry(node, ox, oy, oz, ix, iy, iz) >= best)
+				continue;		// a nearer hit was found since it was pushed
+			
+			if (child[node] < 0)
+			{
+				for (int i = start[node], end = start[node] + count[node]; i < end; i++)
+				{
+					double lx = spheres[i*4] - ox, ly = spheres[i*4 + 1] - oy, lz = spheres[i*4 + 2] - oz;
+					double r = spheres[i*4 + 3];
+					double along = lx*dx + ly*dy + lz*dz;
+					double distSq = lx*lx + ly*ly + lz*lz - along*along;
+					
+					if (distSq > r*r)
+						continue;
+					
+					double half = Math.sqrt(r*r - distSq);
+					
+					if (along + half < 0.0d)
+						continue;		// behind the origin
+					
+					double t = Math.max(along - half, 0.0d);
+					
+					if (t < best)
+					{
+						best = t;
+						bestItem = i;
+					}
+				}
+			}
+			else
+			{
+				// push the farther child first so the nearer one is looked at first
+				int near = child[node], far = near + 1;
+				double tNear = Entry(near, ox, oy, oz, ix, iy, iz);
+				double tFar = Entry(far, ox, oy, oz, ix, iy, iz);
+				
+				if (tFar < tNear)
+				{
+					int n = near; near = far; far = n;
+					double t = tNear; tNear = tFar; tFar = t;
+				}
+				
+				if (top + 2 > stack.length)
+				{
+					int[] newStack = new int[stack.length*2];
+					System.arraycopy(stack, 0, newStack, 0, top);
+					stack = newStack;
+				}
+				
+				if (tFar < best)
+					stack[top++] = far;
+				
+				if (tNear < best)
+					stack[top++] = near;
+			}
+		}
+		
+		Object3D bestObject = bestItem >= 0 ? items[bestItem] : null;
+		
+		for (int i = 0; i < unboundedCount; i++)
+		{
+			Object3D object3D = unbounded[i];
+			TransformStore st = object3D.store;
+			int slot = object3D.slot;
+			double along = (st.posX[slot] - ox)*dx + (st.posY[slot] - oy)*dy + (st.posZ[slot] - oz)*dz;
+			
+			if (along >= 0.0d && along < best)
+			{
+				best = along;
+				bestObject = object3D;
+			}
+		}
+		
+		if (bestObject == null)
+			return false;
+		
+		hit.Set(bestObject, scene, best, ox + dx*best, oy + dy*best, oz + dz*best);
+		return true;
+	}
+	
+	// distance along the ray to where it enters a node's box, infinite if it misses
+	private double Entry(int node, double ox, double oy, double oz, double ix, double iy, double iz)
+	{
+		int b = node*6;
+		double t1 = (bounds[b] - ox)*ix, t2 = (bounds[b + 3] - ox)*ix;
+		double tMin = Math.min(t1, t2), tMax = Math.max(t1, t2);
+		
+		t1 = (bounds[b + 1] - oy)*iy;
+		t2 = (bounds[b + 4] - oy)*iy;
+		tMin = Math.max(tMin, Math.min(t1, t2));
+		tMax = Math.min(tMax, Math.max(t1, t2));
+		
+		t1 = (bounds[b + 2] - oz)*iz;
+		t2 = (bounds[b + 5] - oz)*iz;
+		tMin = Math.max(tMin, Math.min(t1, t2));
+		tMax = Math.min(tMax, Math.max(t1, t2));
+		
+		if (tMax < Math.max(tMin, 0.0d))
+			return Double.POSITIVE_INFINITY;
+		
+		return Math.max(tMin, 0.0d);
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Building
+	//
+	//*********************************************************************************
+	
+	// objects that left the scene were reset by the scene, they may be in another tree by now
+	private void Build(List<Object3D> objects, Scene3D scene)
+	{
+		for (int i = 0; i < itemCount; i++)
+		{
+			if (items[i].scene == scene)
+				items[i].pickIndex = -1;
+			
+			items[i] = null;
+		}
+		
+		for (int i = 0; i < movedCount; i++)
+		{
+			if (moved[i].scene == scene)
+				moved[i].pickMoved = false;
+			
+			moved[i] = null;
+		}
+		
+		for (int i = 0; i < unboundedCount; i++)
+			unbounded[i] = null;
+		
+		movedCount = 0;
+		itemCount = 0;
+		unboundedCount = 0;
+		
+		if (items.length < objects.size())
+		{
+			items = new Object3D[objects.size()];
+			spheres = new float[objects.size()*4];
+			itemLeaf = new int[objects.size()];
+		}
+		
+		for (int i = 0; i < objects.size(); i++)
+		{
+			Object3D object3D = objects.get(i);
+			
+			if (Float.isInfinite(object3D.GetBoundingRadius()))
+			{
+				if (unboundedCount == unbounded.length)
+				{
+					Object3D[] newUnbounded = new Object3D[Math.max(4, unbounded.length*2)];
+					System.arraycopy(unbounded, 0, newUnbounded, 0, unboundedCount);
+					unbounded = newUnbounded;
+				}
+				
+				unbounded[unboundedCount++] = object3D;
+				continue;
+			}
+			
+			items[itemCount] = object3D;
+			SetSphere(itemCount);
+			itemCount++;
+		}
+		
+		// leaves hold at least two items so there are fewer nodes than items
+		int maxNodes = Math.max(1, 2*itemCount);
+		
+		if (child.length < maxNodes)
+		{
+			bounds = new float[maxNodes*6];
+			child = new int[maxNodes];
+			parent = new int[maxNodes];
+			start = new int[maxNodes];
+			count = new int[maxNodes];
+		}
+		
+		nodeCount = 1;
+		parent[0] = -1;
+		leafArea = 0;
+		BuildNode(0, 0, itemCount);
+		builtArea = leafArea;
+		
+		for (int i = 0; i < itemCount; i++)
+			items[i].pickIndex = i;
+		
+		valid = true;
+	}
+	
+	private void BuildNode(int node, int from, int to)
+	{
+		if (to - from <= LEAF_SIZE)
+		{
+			child[node] = -1;
+			start[node] = from;
+			count[node] = to - from;
+			
+			for (int i = from; i < to; i++)
+				itemLeaf[i] = node;
+			
+			leafArea += FitLeaf(node);
+			return;
+		}
+		
+		// split at the median along the axis the centers are most spread on
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		
+		for (int i = from; i < to; i++)
+		{
+			minX = Math.min(minX, spheres[i*4]);     maxX = Math.max(maxX, spheres[i*4]);
+			minY = Math.min(minY, spheres[i*4 + 1]); maxY = Math.max(maxY, spheres[i*4 + 1]);
+			minZ = Math.min(minZ, spheres[i*4 + 2]); maxZ = Math.max(maxZ, spheres[i*4 + 2]);
+		}
+		
+		int axis = 0;
+		
+		if (maxY - minY > maxX - minX)
+			axis = 1;
+		
+		if (maxZ - minZ > Math.max(maxX - minX, maxY - minY))
+			axis = 2;
+		
+		int mid = (from + to) >>> 1;
+		Select(from, to - 1, mid, axis);
+		
+		int c = nodeCount;
+		nodeCount += 2;
+		child[node] = c;
+		parent[c] = node;
+		parent[c + 1] = node;
+		
+		BuildNode(c, from, mid);
+		BuildNode(c + 1, mid, to);
+		FitInner(node);
+	}
+	
+	// partially sorts the items between lo and hi so the one at k is where it would be if sorted along an axis
+	private void Select(int lo, int hi, int k, int axis)
+	{
+		while (hi > lo)
+		{
+			float pivot = spheres[((lo + hi) >>> 1)*4 + axis];
+			int i = lo, j = hi;
+			
+			while (i <= j)
+			{
+				while (spheres[i*4 + axis] < pivot)
+					i++;
+				
+				while (spheres[j*4 + axis] > pivot)
+					j--;
+				
+				if (i <= j)
+					Swap(i++, j--);
+			}
+			
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				return;
+		}
+	}
+	
+	private void Swap(int a, int b)
+	{
+		Object3D o = items[a];
+		items[a] = items[b];
+		items[b] = o;
+		
+		for (int n = 0; n < 4; n++)
+		{
+			float f = spheres[a*4 + n];
+			spheres[a*4 + n] = spheres[b*4 + n];
+			spheres[b*4 + n] = f;
+		}
+	}
+	
+	private void SetSphere(int i)
+	{
+		Object3D object3D = items[i];
+		TransformStore st = object3D.store;
+		int slot = object3D.slot;
+		
+		spheres[i*4] = st.posX[slot];
+		spheres[i*4 + 1] = st.posY[slot];
+		spheres[i*4 + 2] = st.posZ[slot];
+		spheres[i*4 + 3] = object3D.GetBoundingRadius()*Math.abs(st.scale[slot]);
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Refitting
+	//
+	//*********************************************************************************
+	
+	// grows the boxes above each moved sphere until one already holds it. Boxes never shrink here,
+	// so an object moving about inside its leaf's box costs nothing, and the tree is built again
+	// once the leaves have grown to twice their area
+	private void Refit()
+	{
+		for (int i = 0; i < movedCount; i++)
+		{
+			Object3D object3D = moved[i];
+			object3D.pickMoved = false;
+			moved[i] = null;
+			
+			if (object3D.pickIndex < 0)
+				continue;
+			
+			int item = object3D.pickIndex;
+			SetSphere(item);
+			
+			float r = spheres[item*4 + 3];
+			float minX = spheres[item*4] - r, minY = spheres[item*4 + 1] - r, minZ = spheres[item*4 + 2] - r;
+			float maxX = spheres[item*4] + r, maxY = spheres[item*4 + 1] + r, maxZ = spheres[item*4 + 2] + r;
+			
+			for (int node = itemLeaf[item]; node >= 0; node = parent[node])
+			{
+				int b = node*6;
+				
+				if (bounds[b] <= minX && bounds[b + 1] <= minY && bounds[b + 2] <= minZ
+					&& bounds[b + 3] >= maxX && bounds[b + 4] >= maxY && bounds[b + 5] >= maxZ)
+					break;
+				
+				double oldArea = child[node] < 0 ? Area(node) : 0.0d;
+				
+				bounds[b] = Math.min(bounds[b], minX);
+				bounds[b + 1] = Math.min(bounds[b + 1], minY);
+				bounds[b + 2] = Math.min(bounds[b + 2], minZ);
+				bounds[b + 3] = Math.max(bounds[b + 3], maxX);
+				bounds[b + 4] = Math.max(bounds[b + 4], maxY);
+				bounds[b + 5] = Math.max(bounds[b + 5], maxZ);
+				
+				if (child[node] < 0)
+					leafArea += Area(node) - oldArea;
+			}
+		}
+		
+		movedCount = 0;
+		
+		if (leafArea > builtArea*2.0d)
+			valid = false;		// the leaves have grown too loose, picking is faster after building again
+	}
+	
+	// fits a leaf around its spheres, returns its surface area
+	private double FitLeaf(int node)
+	{
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		
+		for (int i = start[node], end = start[node] + count[node]; i < end; i++)
+		{
+			float r = spheres[i*4 + 3];
+			minX = Math.min(minX, spheres[i*4] - r);     maxX = Math.max(maxX, spheres[i*4] + r);
+			minY = Math.min(minY, spheres[i*4 + 1] - r); maxY = Math.max(maxY, spheres[i*4 + 1] + r);
+			minZ = Math.min(minZ, spheres[i*4 + 2] - r); maxZ = Math.max(maxZ, spheres[i*4 + 2] + r);
+		}
+		
+		int b = node*6;
+		bounds[b] = minX; bounds[b + 1] = minY; bounds[b + 2] = minZ;
+		bounds[b + 3] = maxX; bounds[b + 4] = maxY; bounds[b + 5] = maxZ;
+		
+		return Area(node);
+	}
+	
+	private double Area(int node)
+	{
+		int b = node*6;
+		double x = bounds[b + 3] - bounds[b], y = bounds[b + 4] - bounds[b + 1], z = bounds[b + 5] - bounds[b + 2];
+		
+		if (!(x >= 0.0d && y >= 0.0d && z >= 0.0d))
+			return 0.0d;		// empty leaf
+		
+		return x*y + y*z + z*x;
+	}
+	
+	// fits a node around its children
+	private void FitInner(int node)
+	{
+		int b = node*6, l = child[node]*6, r = l + 6;
+		
+		for (int n = 0; n < 3; n++)
+		{
+			bounds[b + n] = Math.min(bounds[l + n], bounds[r + n]);
+			bounds[b + n + 3] = Math.max(bounds[l + n + 3], bounds[r + n + 3]);
+		}
+	}
+}
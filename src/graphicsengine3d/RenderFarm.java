@@ -0,0 +1,353 @@
+package graphicsengine3d;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * @author Mike
+ * Renders a scene from a list of camera poses to numbered image files, for replays and stills. No display is
+ * needed, frames are drawn with SoftwareRenderer. Each render thread draws whole frames on its own, so
+ * throughput grows with the number of cores. Finished frames are handed to separate encoding threads through
+ * a bounded queue, so drawing only waits on compression when the queue is full.
+ * <p>
+ * The scene must not change while a batch is rendering.
+ * @see SoftwareRenderer
+ */
+public class RenderFarm
+{
+	private int width, height;
+	private int renderThreads, encodeThreads;
+	private int queueSize = 8;
+	private String format = "png";
+	private String fileName = "frame%05d.png";
+	private int background = 0x000000;
+	private double fieldOfView = Math.PI/4.0d;
+	private double nearClip = 0.1d, farClip = 1000000000.0d;
+	
+	// state of the running batch
+	private List<double[]> views;
+	private File directory;
+	private AtomicInteger nextFrame = new AtomicInteger();
+	private AtomicInteger written = new AtomicInteger();
+	private BlockingQueue<Frame> queue;
+	private volatile Throwable failure;
+	
+	/**
+	 * Creates a farm using a render thread per processor and an encoding thread for every two.
+	 * @param width		Frame width in pixels
+	 * @param height	Frame height in pixels
+	 */
+	public RenderFarm(int width, int height)
+	{ this(width, height, Runtime.getRuntime().availableProcessors(), Math.max(Runtime.getRuntime().availableProcessors()/2, 1)); }
+	
+	/**
+	 * @param width			Frame width in pixels
+	 * @param height		Frame height in pixels
+	 * @param renderThreads	Number of threads drawing frames
+	 * @param encodeThreads	Number of threads compressing and writing frames
+	 */
+	public RenderFarm(int width, int height, int renderThreads, int encodeThreads)
+	{
+		this.width = width;
+		this.height = height;
+		this.renderThreads = Math.max(renderThreads, 1);
+		this.encodeThreads = Math.max(encodeThreads, 1);
+	}
+	
+	/**
+	 * Builds a view matrix for a camera at a position facing another position. Z is up.
+	 * @param fromX X position of the camera
+	 * @param fromY Y position of the camera
+	 * @param fromZ Z position of the camera
+	 * @param toX X position to look at
+	 * @param toY Y position to look at
+	 * @param toZ Z position to look at
+	 * @return Row major 4x4 view matrix
+	 * @see Universe3D#ViewLookAt(double, double, double, double, double, double)
+	 */
+	public static double[] LookAt(double fromX, double fromY, double fromZ, double toX, double toY, double toZ)
+	{
+		double[] mat = new double[16];
+		mat[0] = 1.0d; mat[5] = 1.0d; mat[10] = 1.0d; mat[15] = 1.0d;
+		
+		Universe3D.LookAt(mat, fromX, fromY, fromZ, toX, toY, toZ);
+		return mat;
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Settings
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Sets how many finished frames may wait to be written. Larger queues absorb slow writes at the cost of
+	 * memory, each frame holds width*height*4 bytes. The default is 8.
+	 * @param frames Queue size in frames
+	 */
+	public void SetQueueSize(int frames)
+	{
+		queueSize = Math.max(frames, 1);
+	}
+	
+	/**
+	 * Gets how many finished frames may wait to be written.
+	 * @return Queue size in frames
+	 */
+	public int GetQueueSize()
+	{ return queueSize; }
+	
+	/**
+	 * Sets the image format and the file names, the name is formatted with the frame index.
+	 * The default is "png" and "frame%05d.png".
+	 * @param format	ImageIO format name, like "png" or "jpg"
+	 * @param fileName	File name pattern
+	 */
+	public void SetOutput(String format, String fileName)
+	{
+		this.format = format;
+		this.fileName = fileName;
+	}
+	
+	/**
+	 * Sets the background color of the frames.
+	 * @param rgb Color as 0xRRGGBB
+	 */
+	public void SetBackground(int rgb)
+	{
+		background = rgb;
+	}
+	
+	/**
+	 * Sets the horizontal field of view.
+	 * @param fov Field of view in radians
+	 */
+	public void SetFieldOfView(double fov)
+	{
+		fieldOfView = fov;
+	}
+	
+	/**
+	 * Sets the distances in front of the camera between which things are drawn.
+	 * @param near	Near distance, greater than 0
+	 * @param far	Far distance
+	 */
+	public void SetClipDistances(double near, double far)
+	{
+		nearClip = near;
+		farClip = far;
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Rendering
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Renders a frame for each view into a directory, frame i is named with index i. Returns when every frame
+	 * is written.
+	 * @param scene		Scene, not shown or compiled, see SoftwareRenderer
+	 * @param views		View matrices as Universe3D keeps them, see LookAt
+	 * @param directory	Output directory, created if needed
+	 * @return Number of frames written
+	 * @throws IOException If a frame could not be written, the frames after it are not rendered
+	 */
+	public synchronized int Render(Scene3D scene, List<double[]> views, File directory) throws IOException
+	{
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create " + directory);
+		
+		this.views = views;
+		this.directory = directory;
+		nextFrame.set(0);
+		written.set(0);
+		queue = new ArrayBlockingQueue<Frame>(queueSize);
+		failure = null;
+		
+		// prepare once here rather than in every renderer at the same time
+		scene.Prepare();
+		
+		ArrayList<Thread> renderers = new ArrayList<Thread>();
+		ArrayList<Thread> encoders = new ArrayList<Thread>();
+		
+		for (int i = 0; i < renderThreads; i++)
+			renderers.add(Start(new Renderer(scene), "RenderFarm renderer"));
+		
+		for (int i = 0; i < encodeThreads; i++)
+			encoders.add(Start(new Encoder(), "RenderFarm encoder"));
+		
+		try
+		{
+			Join(renderers);
+			
+			// one end marker per encoder, after every frame
+			for (int i = 0; i < encodeThreads; i++)
+				queue.put(Frame.END);
+			
+			Join(encoders);
+		}
+		catch (InterruptedException e)
+		{
+			failure = e;
+			
+			for (Thread thread : renderers)
+				thread.interrupt();
+			
+			for (Thread thread : encoders)
+				thread.interrupt();
+			
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted");
+		}
+		
+		if (failure instanceof IOException)
+			throw (IOException)failure;
+		else if (failure instanceof RuntimeException)
+			throw (RuntimeException)failure;
+		else if (failure instanceof Error)
+			throw (Error)failure;
+		else if (failure != null)
+			throw new IOException("Interrupted");
+		
+		return written.get();
+	}
+	
+	private static Thread Start(Runnable runnable, String name)
+	{
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+	
+	private static void Join(List<Thread> threads) throws InterruptedException
+	{
+		for (Thread thread : threads)
+			thread.join();
+	}
+	
+	private void Fail(Throwable throwable)
+	{
+		synchronized (nextFrame)
+		{
+			if (failure == null)
+				failure = throwable;
+		}
+		
+		// stop handing out frames
+		nextFrame.set(views.size());
+	}
+	
+	
+	
+	// a finished frame waiting to be written
+	private static class Frame
+	{
+		static final Frame END = new Frame(-1, null);
+		
+		final int index;
+		final BufferedImage image;
+		
+		Frame(int index, BufferedImage image)
+		{
+			this.index = index;
+			this.image = image;
+		}
+	}
+	
+	
+	
+	// draws whole frames with its own single threaded renderer
+	private class Renderer implements Runnable
+	{
+		private SoftwareRenderer renderer;
+		
+		Renderer(Scene3D scene)
+		{
+			renderer = new SoftwareRenderer(width, height, 1);
+			renderer.SetBackground(background);
+			renderer.SetFieldOfView(fieldOfView);
+			renderer.SetClipDistances(nearClip, farClip);
+			renderer.AddScene(scene);
+		}
+		
+		public void run()
+		{
+			try
+			{
+				int index;
+				
+				while (failure == null && (index = nextFrame.getAndIncrement()) < views.size())
+				{
+					renderer.SetViewMatrix(views.get(index));
+					renderer.Render();
+					
+					// the renderer draws into the same pixels each frame, so the queued frame gets a copy
+					BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+					int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+					System.arraycopy(renderer.GetPixels(), 0, pixels, 0, pixels.length);
+					
+					queue.put(new Frame(index, image));
+				}
+			}
+			catch (Throwable e)
+			{
+				Fail(e);
+			}
+		}
+	}
+	
+	
+	
+	// compresses and writes frames until it takes an end marker
+	private class Encoder implements Runnable
+	{
+		public void run()
+		{
+			try
+			{
+				Frame frame;
+				
+				while ((frame = queue.take()) != Frame.END)
+				{
+					// after a failure keep taking frames so the renderers are not left blocked on a full queue
+					if (failure == null)
+						Write(frame);
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Fail(e);
+			}
+		}
+		
+		private void Write(Frame frame)
+		{
+			try
+			{
+				File file = new File(directory, String.format(fileName, frame.index));
+				
+				if (!ImageIO.write(frame.image, format, file))
+					throw new IOException("No writer for format " + format);
+				
+				written.incrementAndGet();
+			}
+			catch (Throwable e)
+			{
+				Fail(e);
+			}
+		}
+	}
+}
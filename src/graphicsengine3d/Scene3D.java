@@ -1,12 +1,23 @@
 package graphicsengine3d;
 
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import javax.media.j3d.Behavior;
+import javax.media.j3d.BoundingSphere;
 import javax.media.j3d.BranchGroup;
+import javax.media.j3d.Group;
+import javax.media.j3d.Switch;
+import javax.media.j3d.WakeupOnElapsedFrames;
+import javax.vecmath.Point3d;
 
 /**
  * @author Mike
  * Manages a J3D BranchGroup as well as Object3D's.
+ * Objects can be added and removed from any thread while the scene is shown by queueing the change,
+ * see QueueAddObject. Queueing never blocks. AddObject, DeleteObject and applying the queued changes
+ * lock the scene's object list, so while the scene is shown only its frame behavior normally takes the lock.
  * @see Object3D
  */
 public class Scene3D
@@ -15,90 +26,409 @@ public class Scene3D
 	
 	private boolean shown = false;
 	private BranchGroup branch = new BranchGroup();
-	private Vector<BranchGroup> objBranches = new Vector<BranchGroup>();
-	private Vector<Object3D> objects = new Vector<Object3D>();
+	private Group objGroup = new Group();
+	
+	// merged geometry of the static objects, see Object3D.SetStatic
+	private Group staticGroup = new Group();
+	private StaticBatcher batcher = new StaticBatcher(staticGroup);
+	
+	// compile the branch when shown, see SetCompileOnShow
+	private boolean compileOnShow = false;
+	private ArrayList<BranchGroup> objBranches = new ArrayList<BranchGroup>();
+	private ArrayList<Object3D> objects = new ArrayList<Object3D>();
+	
+	// objects waiting for their transform to be committed, see SetDeferTransforms
+	private boolean deferTransforms = false;
+	private ArrayList<Object3D> dirtyObjects = new ArrayList<Object3D>();
+	private ArrayList<Object3D> flushObjects = new ArrayList<Object3D>();
+	private final Object dirtyLock = new Object();		// guards which list is which, the lists are swapped
+	private final Object flushLock = new Object();		// one flush at a time
+	private FrameBehavior frameBehavior = new FrameBehavior();
+	
+	// shared column store for the objects' transforms, null if each object keeps its own
+	private TransformStore store;
+	
+	// index of the objects' positions, null if the scene does not keep one
+	private SpatialGrid grid;
+	
+	// bounding volume hierarchy for picking, made the first time the scene is picked
+	private PickTree pickTree;
+	
+	// contacts between the objects' shapes, null if the scene does not find them
+	private CollisionWorld collisions;
+	
+	// view frustum culling, see SetCulling
+	private boolean culling = false;
+	private float cullDistance = Float.POSITIVE_INFINITY;
+	private int culledCount = 0;
+	private int drawnCount = 0;
+	private double[] viewMat = new double[16];
+	
+	// objects with levels of detail, switched once per frame from the view's position
+	private ArrayList<Object3D> lodObjects = new ArrayList<Object3D>();
+	private float lodScale = 1.0f;
+	
+	// adds and deletes queued from any thread, applied a batch at a time once per frame
+	private ConcurrentLinkedQueue<Mutation> mutations = new ConcurrentLinkedQueue<Mutation>();
+	private int mutationBatchSize = 256;
 	
 	/**
 	 * Creates a new scene in the default universe.
 	 * @see Universe3D
 	 */
 	public Scene3D()
-	{
-		univ = GraphicsEngine3D.universes.get(0);
-		branch.setCapability(BranchGroup.ALLOW_DETACH);
-		branch.setCapability(BranchGroup.ALLOW_CHILDREN_WRITE);
-		branch.setCapability(BranchGroup.ALLOW_CHILDREN_EXTEND);
-	}
+	{ Init(GraphicsEngine3D.universes.get(0)); }
+	
 	/**
 	 * Creates a new scene in a specified universe.
-	 * @param universe Universe in which to create the scene
+	 * @param universe Universe in which to create the scene, null for a scene only drawn by a SoftwareRenderer
 	 * @see Universe3D
 	 */
 	public Scene3D(Universe3D universe)
+	{ Init(universe); }
+	
+	
+	private void Init(Universe3D universe)
 	{
 		univ = universe;
 		branch.setCapability(BranchGroup.ALLOW_DETACH);
 		branch.setCapability(BranchGroup.ALLOW_CHILDREN_WRITE);
 		branch.setCapability(BranchGroup.ALLOW_CHILDREN_EXTEND);
+		
+		// object branches go in their own group so clearing them leaves the behavior alone
+		objGroup.setCapability(Group.ALLOW_CHILDREN_WRITE);
+		objGroup.setCapability(Group.ALLOW_CHILDREN_EXTEND);
+		branch.addChild(objGroup);
+		
+		staticGroup.setCapability(Group.ALLOW_CHILDREN_WRITE);
+		staticGroup.setCapability(Group.ALLOW_CHILDREN_EXTEND);
+		branch.addChild(staticGroup);
+		
+		frameBehavior.setSchedulingBounds(new BoundingSphere(new Point3d(), 1000000000));
+		frameBehavior.setSchedulingInterval(Behavior.getNumSchedulingIntervals() - 1);	// after the FrameScheduler's updates
+		branch.addChild(frameBehavior);
 	}
 	
 	/**
-	 * Adds an object to the scene. Objects cannot be added while the scene is being shown.
+	 * Adds an object to the scene. To add objects while the scene is being shown use QueueAddObject.
 	 * @param object3D Object to add
-	 * @return If the object was successfully added to the scene
+	 * @return If the object was successfully added to the scene, false if it already is in a scene or was compiled into one
 	 * @see Object3D
+	 * @see #QueueAddObject(Object3D)
 	 */
-	public void AddObject(Object3D object3D)
+	public boolean AddObject(Object3D object3D)
+	{
+		synchronized (objects)
+		{
+			if (object3D.scene != null || object3D.IsCompiled())
+				return false;
+			
+			AttachObject(object3D, CreateObjectBranch(object3D));
+			return true;
+		}
+	}
+	
+	// builds the object's branch, this does not touch the scene so it can be done on any thread
+	private BranchGroup CreateObjectBranch(Object3D object3D)
 	{
+		if (object3D.IsCompiled())
+			throw new IllegalStateException("Object3D was compiled into a scene and cannot be added again");
+		
+		if (object3D.compiledBranch != null)
+		{
+			// the node is still in the compiled branch it was removed with, which can only be added whole
+			BranchGroup oldBranch = object3D.compiledBranch;
+			object3D.compiledBranch = null;
+			object3D.culled = false;
+			object3D.GetBoundingRadius();
+			return oldBranch;
+		}
+		
+		if (object3D.trans.isCompiled())
+			object3D.NewTransformGroup();		// a compiled group cannot take the node back
+		
 		BranchGroup newBranch = new BranchGroup();	// create new branch for the object
 		newBranch.setCapability(BranchGroup.ALLOW_DETACH);
 		
-		newBranch.addChild(object3D.trans);			// add the object's transformation group to the new branch
+		Switch cullSwitch = new Switch(Switch.CHILD_ALL);	// switched off when the object is culled
+		cullSwitch.setCapability(Switch.ALLOW_SWITCH_WRITE);
+		
+		newBranch.addChild(cullSwitch);				// add the cull switch to the new branch
+		cullSwitch.addChild(object3D.trans);		// add the object's transformation group to the cull switch
 		object3D.trans.addChild(object3D.node);		// add the object's node to the transformation group
-		branch.addChild(newBranch);					// add the new branch to the main branch
+		object3D.cullSwitch = cullSwitch;
+		object3D.culled = false;
+		object3D.GetBoundingRadius();				// the node's bounds cannot be read once it is live
 		
-		objBranches.add(newBranch);
-		objects.add(object3D);
+		return newBranch;
+	}
+	
+	private void AttachObject(Object3D object3D, BranchGroup newBranch)
+	{
+		synchronized (objects)
+		{
+			objGroup.addChild(newBranch);				// add the new branch to the scene
+			
+			object3D.sceneIndex = objects.size();
+			objBranches.add(newBranch);
+			objects.add(object3D);
+			object3D.scene = this;
+			
+			if (store != null)
+				object3D.MoveToStore(store);
+			
+			if (grid != null)
+				grid.Insert(object3D);
+			
+			if (pickTree != null)
+				pickTree.Invalidate();
+			
+			if (object3D.HasLOD())
+			{
+				object3D.lodSceneIndex = lodObjects.size();
+				lodObjects.add(object3D);
+			}
+			
+			EngineMetrics.objectsAdded.incrementAndGet();
+		}
 	}
 	
 	/**
-	 * Removes an object from the scene. Objects cannot be removed while seen is being shown.
+	 * Removes an object from the scene. To remove objects while the scene is being shown use QueueDeleteObject.
 	 * @param object3D Object to delete
 	 * @return	If the object was found and removed
 	 * @see Object3D
 	 */
 	public boolean DeleteObject(Object3D object3D)
 	{
-		int index = objects.indexOf(object3D);
-		
-		if (index == -1)
-			return false;
-		
-		branch.removeChild(objBranches.get(index));	// remove the object's branch from the main branch
-		objBranches.get(index).removeAllChildren();	// remove transform group from the object's branch
-		object3D.trans.removeAllChildren();			// remove object from transform group
-		
-		objects.remove(index);
-		objBranches.remove(index);
-		return true;
+		synchronized (objects)
+		{
+			if (object3D.scene != this)
+				return false;
+			
+			int index = object3D.sceneIndex;
+			BranchGroup objBranch = objBranches.get(index);
+			
+			objGroup.removeChild(objBranch);			// remove the object's branch from the scene
+			TakeApart(object3D, objBranch);
+			DetachObject(object3D);
+			
+			// move the last object into the freed index so nothing has to shift
+			int last = objects.size() - 1;
+			
+			if (index != last)
+			{
+				objects.set(index, objects.get(last));
+				objBranches.set(index, objBranches.get(last));
+				objects.get(index).sceneIndex = index;
+			}
+			
+			objects.remove(last);
+			objBranches.remove(last);
+			return true;
+		}
 	}
 	
 	/**
-	 * Removes all objects in the scene. Cannot remove objects while see in being shown.
+	 * Removes all objects in the scene. To remove objects while the scene is being shown use QueueClearObjects.
 	 * @return If all objects where removed
 	 */
 	public boolean ClearObjects()
 	{
-		if (shown)				// cannot be deleted while being shown ????
-			return false;
+		RemoveAllObjects();
+		return true;
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Queued Changes
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Queues an object to be added to the scene. Can be called from any thread, also while the scene
+	 * is shown. The object's branch is built on the calling thread, the scene adds it on a later frame.
+	 * @param object3D Object to add
+	 * @see #SetMutationBatchSize(int)
+	 */
+	public void QueueAddObject(Object3D object3D)
+	{
+		mutations.add(new Mutation(Mutation.ADD, object3D, CreateObjectBranch(object3D)));
+	}
+	
+	/**
+	 * Queues an object to be removed from the scene. Can be called from any thread, also while the scene is shown.
+	 * @param object3D Object to delete
+	 */
+	public void QueueDeleteObject(Object3D object3D)
+	{
+		mutations.add(new Mutation(Mutation.DELETE, object3D, null));
+	}
+	
+	/**
+	 * Queues the removal of all objects. Objects queued before this are removed too, objects queued after it are kept.
+	 * Can be called from any thread, also while the scene is shown.
+	 */
+	public void QueueClearObjects()
+	{
+		mutations.add(new Mutation(Mutation.CLEAR, null, null));
+	}
+	
+	/**
+	 * Sets how many queued changes are applied per frame while the scene is shown.
+	 * @param batchSize Maximum changes per frame
+	 */
+	public void SetMutationBatchSize(int batchSize)
+	{
+		mutationBatchSize = Math.max(batchSize, 1);
+	}
+	
+	/**
+	 * Gets how many queued changes are applied per frame.
+	 * @return Maximum changes per frame
+	 */
+	public int GetMutationBatchSize()
+	{ return mutationBatchSize; }
+	
+	/**
+	 * Applies queued changes in the order they were queued. This is done automatically each frame
+	 * while the scene is shown, and for every queued change when the scene is shown.
+	 * @param max Maximum number of changes to apply
+	 * @return Number of changes applied
+	 */
+	public int ApplyMutations(int max)
+	{
+		int applied = 0;
+		Mutation mutation;
 		
-		for (int i = 0; i < objects.size(); i++)
-			objects.get(i).trans.removeAllChildren();
+		synchronized (objects)
+		{
+			while (applied < max && (mutation = mutations.poll()) != null)
+			{
+				if (mutation.type == Mutation.ADD)
+					AttachObject(mutation.object, mutation.objBranch);
+				else if (mutation.type == Mutation.DELETE)
+					DeleteObject(mutation.object);
+				else
+					RemoveAllObjects();
+				
+				applied++;
+			}
+		}
 		
-		objects.clear();
-		branch.removeAllChildren();
+		return applied;
+	}
+	
+	/**
+	 * Gets the number of objects in the scene.
+	 * @return Number of objects
+	 */
+	public int GetObjectCount()
+	{ return objects.size(); }
+	
+	/**
+	 * Gets an object in the scene. Indexes are not stable, removing an object moves the last object into its index.
+	 * @param index Index, 0 to GetObjectCount() - 1
+	 * @return Object3D
+	 */
+	public Object3D GetObject(int index)
+	{ return objects.get(index); }
+	
+	/**
+	 * Gets if an object is in the scene.
+	 * @param object3D Object
+	 * @return If the object is in the scene
+	 */
+	public boolean ContainsObject(Object3D object3D)
+	{ return object3D.scene == this; }
+	
+	private void RemoveAllObjects()
+	{
+		synchronized (objects)
+		{
+			batcher.Clear();		// dropping the batches at once beats taking the objects out one by one
+			objGroup.removeAllChildren();
+			
+			for (int i = 0; i < objects.size(); i++)
+			{
+				TakeApart(objects.get(i), objBranches.get(i));
+				DetachObject(objects.get(i));
+			}
+			
+			objects.clear();
+			objBranches.clear();
+		}
+	}
+	
+	// frees the object's node from its branch so it can be added again. Compiled groups can only lose BranchGroups,
+	// so a compiled branch holding the node is kept whole for the next scene
+	private void TakeApart(Object3D object3D, BranchGroup objBranch)
+	{
+		if (!objBranch.isCompiled())
+		{
+			objBranch.removeAllChildren();				// remove cull switch from the object's branch
+			object3D.cullSwitch.removeAllChildren();	// remove transform group from the cull switch
+			object3D.trans.removeAllChildren();			// remove object from transform group
+			object3D.cullSwitch = null;
+		}
+		else if (!object3D.IsCompiled() && object3D.node.isCompiled())
+		{
+			if (object3D.culled)
+				object3D.cullSwitch.setWhichChild(Switch.CHILD_ALL);
+			
+			object3D.compiledBranch = objBranch;
+		}
+		else
+			object3D.cullSwitch = null;					// frozen, or batched so the node was never compiled
+	}
+	
+	// an object leaving the scene gets its pending transform committed so it is current if re-added
+	private void DetachObject(Object3D object3D)
+	{
+		if (grid != null)
+			grid.Remove(object3D);
 		
-		return true;
+		if (pickTree != null)
+			pickTree.Invalidate();
+		
+		if (collisions != null)
+			collisions.Remove(object3D);
+		
+		if (object3D.kinematics != null)
+			object3D.kinematics.Remove(object3D);
+		
+		object3D.pickIndex = -1;
+		object3D.pickMoved = false;
+		
+		if (object3D.batches != null)
+			batcher.Remove(object3D);
+		
+		if (object3D.lodSceneIndex >= 0)
+		{
+			// swap the last LOD object into its place
+			Object3D last = lodObjects.remove(lodObjects.size() - 1);
+			
+			if (last != object3D)
+			{
+				lodObjects.set(object3D.lodSceneIndex, last);
+				last.lodSceneIndex = object3D.lodSceneIndex;
+			}
+			
+			object3D.lodSceneIndex = -1;
+		}
+		
+		object3D.scene = null;
+		object3D.sceneIndex = -1;
+		object3D.culled = false;
+		
+		if (object3D.dirty)
+			object3D.CommitTransform();
+		
+		if (store != null)
+			object3D.MoveToLooseStore();
+		
+		EngineMetrics.objectsRemoved.incrementAndGet();
 	}
 	
 	/**
@@ -108,8 +438,126 @@ public class Scene3D
 	{
 		if (!shown)
 		{
+			Prepare();
 			shown = true;
 			univ.AddBranchGraph(branch);		//add the branch to the universe
+			univ.SceneShown(this);
+		}
+	}
+	
+	/**
+	 * Does the work of Show that does not need the universe: applies queued changes, commits transforms,
+	 * merges static objects and compiles if the scene compiles on show. Call it on a loading thread so
+	 * Show only has to add the branch. Does nothing while the scene is shown.
+	 */
+	public void Prepare()
+	{
+		synchronized (objects)
+		{
+			if (shown)
+				return;
+			
+			ApplyMutations(Integer.MAX_VALUE);
+			FlushTransforms();
+			BatchStaticObjects();
+			
+			if (compileOnShow)
+				Compile();
+		}
+	}
+	
+	// merges the static objects that are not batched yet, the scene is not live so the batches can change freely
+	private void BatchStaticObjects()
+	{
+		synchronized (objects)
+		{
+			for (int i = 0; i < objects.size(); i++)
+			{
+				Object3D object3D = objects.get(i);
+				
+				// objects compiled by an earlier show cannot give up their node
+				if (object3D.IsStatic() && object3D.batches == null && !object3D.HasLOD() && !objBranches.get(i).isCompiled())
+					batcher.Add(object3D);
+			}
+		}
+	}
+	
+	// the merged static geometry, drawn directly by SoftwareRenderer
+	StaticBatcher GetBatcher()
+	{ return batcher; }
+	
+	/**
+	 * Gets the number of batches the scene's static objects are merged into, about one per Appearance.
+	 * @return Number of batches
+	 * @see Object3D#SetStatic(boolean)
+	 */
+	public int GetBatchCount()
+	{
+		synchronized (objects)
+		{
+			return batcher.GetBatchCount();
+		}
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Compiling
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Sets whether the scene is compiled when shown, letting Java 3D optimize the branch. Static objects that are
+	 * not merged into batches lose their cull switch and the capability to change their transform, so their
+	 * transforms can be flattened into the geometry. They can still be removed but never added to a scene again.
+	 * Other objects keep working as usual and can be removed and added again, objects made static after the scene
+	 * was compiled are left as they are.
+	 * @param compile If the scene should be compiled when shown
+	 * @see Object3D#SetStatic(boolean)
+	 */
+	public void SetCompileOnShow(boolean compile)
+	{
+		compileOnShow = compile;
+	}
+	
+	/**
+	 * Gets if the scene is compiled when shown.
+	 * @return If the scene is compiled when shown
+	 */
+	public boolean GetCompileOnShow()
+	{ return compileOnShow; }
+	
+	// freezes the static objects and compiles the branch. Once the branch is compiled its structure is fixed,
+	// so objects added later are compiled on their own branch instead
+	private void Compile()
+	{
+		synchronized (objects)
+		{
+			boolean branchCompiled = branch.isCompiled();
+			
+			for (int i = 0; i < objects.size(); i++)
+			{
+				Object3D object3D = objects.get(i);
+				BranchGroup objBranch = objBranches.get(i);
+				
+				// only branches made since the last compile can still be rearranged
+				if (object3D.IsStatic() && object3D.batches == null && !object3D.HasLOD() && !objBranch.isCompiled())
+				{
+					// take the cull switch out, the transform group goes straight under the branch
+					object3D.cullSwitch.removeAllChildren();
+					objBranch.removeAllChildren();
+					objBranch.addChild(object3D.trans);
+					object3D.cullSwitch = null;
+					object3D.culled = false;
+					object3D.Compile();
+					
+					if (branchCompiled)
+						objBranch.compile();
+				}
+			}
+			
+			if (!branchCompiled)
+				branch.compile();
 		}
 	}
 	
@@ -122,6 +570,7 @@ public class Scene3D
 		{
 			shown = false;
 			branch.detach();
+			univ.SceneHidden(this);
 		}
 	}
 	
@@ -131,13 +580,397 @@ public class Scene3D
 	public void Delete()
 	{
 		if (shown)
+		{
 			branch.detach();
+			univ.SceneHidden(this);
+		}
 		
-		branch.removeAllChildren();
-		objects.clear();
+		RemoveAllObjects();
 		shown = false;
 	}
 	
+	/**
+	 * Sets whether transform changes to the scene's objects are committed immediately or deferred.
+	 * When deferred an object only marks itself dirty and the scene commits each dirty object
+	 * once per rendered frame, so several setter calls in one tick cost a single scene graph write.
+	 * @param defer If transform commits should be deferred
+	 * @see #FlushTransforms()
+	 */
+	public void SetDeferTransforms(boolean defer)
+	{
+		deferTransforms = defer;
+		
+		if (!defer)
+			FlushTransforms();
+	}
+	
+	/**
+	 * Gets if transform commits are deferred.
+	 * @return If transform commits are deferred
+	 */
+	public boolean GetDeferTransforms()
+	{ return deferTransforms; }
+	
+	/**
+	 * Commits the transforms of all dirty objects. This is done automatically once per frame
+	 * while the scene is shown.
+	 */
+	public void FlushTransforms()
+	{
+		synchronized (flushLock)
+		{
+			// swap the lists so objects can keep marking themselves dirty while we commit
+			ArrayList<Object3D> flushing;
+			
+			synchronized (dirtyLock)
+			{
+				flushing = dirtyObjects;
+				dirtyObjects = flushObjects;
+				flushObjects = flushing;
+			}
+			
+			for (int i = 0; i < flushing.size(); i++)
+				flushing.get(i).CommitTransform();
+			
+			flushing.clear();
+		}
+	}
+	
+	/**
+	 * Makes the scene keep its objects' positions, rotations and scales together in one
+	 * TransformStore so bulk operations run as tight loops over primitive arrays. Objects
+	 * already in the scene are moved into the store. Objects are moved out of it when removed.
+	 * @param capacity Initial capacity of the store
+	 * @see TransformStore
+	 */
+	public void UseTransformStore(int capacity)
+	{
+		synchronized (objects)
+		{
+			if (store != null)
+				return;
+			
+			store = new TransformStore(Math.max(capacity, objects.size()));
+			
+			for (int i = 0; i < objects.size(); i++)
+				objects.get(i).MoveToStore(store);
+		}
+	}
+	
+	/**
+	 * Gets the scene's shared TransformStore.
+	 * @return TransformStore, or null if the scene does not use one
+	 * @see #UseTransformStore(int)
+	 */
+	public TransformStore GetTransformStore()
+	{ return store; }
+	
+	void MarkDirty(Object3D object3D)
+	{
+		synchronized (dirtyLock)
+		{
+			dirtyObjects.add(object3D);
+		}
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Spatial Index
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Makes the scene keep a SpatialGrid of its objects' positions. Objects already in the scene are added to it
+	 * and objects are moved between its cells as their position changes.
+	 * @param cellSize Width of a grid cell
+	 * @see SpatialGrid
+	 */
+	public void UseSpatialIndex(float cellSize)
+	{
+		synchronized (objects)
+		{
+			if (grid != null)
+				return;
+			
+			SpatialGrid newGrid = new SpatialGrid(cellSize);
+			
+			for (int i = 0; i < objects.size(); i++)
+				newGrid.Insert(objects.get(i));
+			
+			grid = newGrid;
+		}
+	}
+	
+	/**
+	 * Gets the scene's spatial index, use it to find objects in a box, within a radius or nearest to a point.
+	 * @return SpatialGrid, or null if the scene does not keep one
+	 * @see #UseSpatialIndex(float)
+	 */
+	public SpatialGrid GetSpatialIndex()
+	{ return grid; }
+	
+	/**
+	 * Makes the scene find contacts between its objects. Objects are given shapes on the returned world, and
+	 * lose them when they leave the scene. The world must be registered with a FrameScheduler to be updated.
+	 * @return CollisionWorld of the scene
+	 * @see CollisionWorld
+	 */
+	public CollisionWorld UseCollisions()
+	{
+		synchronized (objects)
+		{
+			if (collisions == null)
+				collisions = new CollisionWorld();
+			
+			return collisions;
+		}
+	}
+	
+	/**
+	 * Gets the scene's collision world.
+	 * @return CollisionWorld, or null if the scene does not find contacts
+	 * @see #UseCollisions()
+	 */
+	public CollisionWorld GetCollisions()
+	{ return collisions; }
+	
+	// keeps the spatial index and the pick tree up to date with an object's transform
+	void ObjectMoved(Object3D object3D)
+	{
+		if (grid != null && object3D.gridCell != null)
+			grid.Update(object3D);
+		
+		if (pickTree != null)
+			pickTree.MarkMoved(object3D);
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Picking
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Finds the nearest object whose bounding sphere a ray hits. Only objects nearer than the hit's current
+	 * distance are found, so several scenes can be picked with the same hit. The scene's objects are kept in a
+	 * bounding volume hierarchy that is built on the first pick and refit as objects move.
+	 * @param ox X position of the ray's origin
+	 * @param oy Y position of the ray's origin
+	 * @param oz Z position of the ray's origin
+	 * @param dx X of the ray's direction
+	 * @param dy Y of the ray's direction
+	 * @param dz Z of the ray's direction
+	 * @param hit Hit to fill, call Reset on it first
+	 * @return If a nearer object was found
+	 * @see Universe3D#Pick(int, int, PickHit)
+	 */
+	public boolean PickRay(double ox, double oy, double oz, double dx, double dy, double dz, PickHit hit)
+	{
+		double len = Math.sqrt(dx*dx + dy*dy + dz*dz);
+		
+		if (len == 0.0d)
+			return false;
+		
+		synchronized (objects)
+		{
+			if (pickTree == null)
+				pickTree = new PickTree();
+			
+			return pickTree.Pick(objects, this, ox, oy, oz, dx/len, dy/len, dz/len, hit);
+		}
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Level of Detail
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Sets a factor the level of detail distances are multiplied by for this scene's objects.
+	 * Above 1 keeps detailed levels out further, below 1 switches to coarse levels sooner. The default is 1.
+	 * @param scale Distance factor
+	 */
+	public void SetLODScale(float scale)
+	{
+		lodScale = scale;
+	}
+	
+	/**
+	 * Gets the factor the level of detail distances are multiplied by.
+	 * @return Distance factor
+	 */
+	public float GetLODScale()
+	{ return lodScale; }
+	
+	/**
+	 * Chooses the level of detail of every object that has levels from its distance to the view.
+	 * This is done automatically once per frame while the scene is shown.
+	 * @see Object3D#Object3D(javax.media.j3d.Node[], float[])
+	 */
+	public void UpdateLOD()
+	{
+		univ.GetViewMatrix(viewMat);
+		
+		double ex = viewMat[3], ey = viewMat[7], ez = viewMat[11];
+		double inverseScaleSq = 1.0d/((double)lodScale*lodScale);
+		
+		synchronized (objects)
+		{
+			for (int i = 0; i < lodObjects.size(); i++)
+			{
+				Object3D object3D = lodObjects.get(i);
+				TransformStore st = object3D.store;
+				int slot = object3D.slot;
+				
+				double dx = st.posX[slot] - ex, dy = st.posY[slot] - ey, dz = st.posZ[slot] - ez;
+				object3D.UpdateLOD((dx*dx + dy*dy + dz*dz)*inverseScaleSq);
+			}
+		}
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Culling
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Sets whether objects out of view are switched off. When on, every frame each object's bounding sphere
+	 * is tested against the view and objects outside it are not drawn.
+	 * @param cull If objects out of view should be culled
+	 * @see Object3D#SetBoundingRadius(float)
+	 */
+	public void SetCulling(boolean cull)
+	{
+		culling = cull;
+		
+		if (!cull)
+		{
+			synchronized (objects)
+			{
+				for (int i = 0; i < objects.size(); i++)
+					SetCulled(objects.get(i), false);
+			}
+			
+			culledCount = 0;
+			drawnCount = objects.size();
+		}
+	}
+	
+	/**
+	 * Gets if objects out of view are culled.
+	 * @return If culling is on
+	 */
+	public boolean GetCulling()
+	{ return culling; }
+	
+	/**
+	 * Sets how far from the view objects are still drawn when culling. The default is infinite.
+	 * @param distance Distance
+	 */
+	public void SetCullDistance(float distance)
+	{
+		cullDistance = distance;
+	}
+	
+	/**
+	 * Gets how far from the view objects are still drawn when culling.
+	 * @return Distance
+	 */
+	public float GetCullDistance()
+	{ return cullDistance; }
+	
+	/**
+	 * Gets how many objects were culled in the last culling pass.
+	 * @return Number of culled objects
+	 */
+	public int GetCulledCount()
+	{ return culledCount; }
+	
+	/**
+	 * Gets how many objects were drawn in the last culling pass.
+	 * @return Number of drawn objects
+	 */
+	public int GetDrawnCount()
+	{ return drawnCount; }
+	
+	/**
+	 * Tests every object against the view and switches off the ones out of it. This is done automatically
+	 * once per frame while the scene is shown and culling is on.
+	 */
+	public void Cull()
+	{
+		univ.GetViewMatrix(viewMat);
+		
+		// the view's position and its side, up and backward axes
+		double ex = viewMat[3], ey = viewMat[7], ez = viewMat[11];
+		double sx = viewMat[0], sy = viewMat[4], sz = viewMat[8];
+		double ux = viewMat[1], uy = viewMat[5], uz = viewMat[9];
+		double bx = viewMat[2], by = viewMat[6], bz = viewMat[10];
+		
+		// half angles of the view, the vertical one follows from the canvas' shape
+		double halfX = univ.GetFieldOfView()/2.0d;
+		double aspect = 1.0d;
+		
+		if (univ.GetCanvas3D() != null && univ.GetCanvas3D().getWidth() > 0)
+			aspect = (double)univ.GetCanvas3D().getHeight()/univ.GetCanvas3D().getWidth();
+		
+		double halfY = Math.atan(Math.tan(halfX)*aspect);
+		double cosX = Math.cos(halfX), sinX = Math.sin(halfX);
+		double cosY = Math.cos(halfY), sinY = Math.sin(halfY);
+		
+		int culled = 0;
+		
+		synchronized (objects)
+		{
+			for (int i = 0; i < objects.size(); i++)
+			{
+				Object3D object3D = objects.get(i);
+				
+				if (object3D.cullSwitch == null)		// compiled, Java 3D culls it
+					continue;
+				
+				TransformStore st = object3D.store;
+				int slot = object3D.slot;
+				
+				double px = st.posX[slot] - ex, py = st.posY[slot] - ey, pz = st.posZ[slot] - ez;
+				double r = object3D.GetBoundingRadius()*Math.abs(st.scale[slot]);
+				
+				// position relative to the view, depth is how far in front of it
+				double x = px*sx + py*sy + pz*sz;
+				double y = px*ux + py*uy + pz*uz;
+				double depth = -(px*bx + py*by + pz*bz);
+				
+				boolean visible = depth > -r && depth - r < cullDistance
+					&& x*cosX - depth*sinX <= r && -x*cosX - depth*sinX <= r
+					&& y*cosY - depth*sinY <= r && -y*cosY - depth*sinY <= r;
+				
+				SetCulled(object3D, !visible);
+				
+				if (!visible)
+					culled++;
+			}
+			
+			culledCount = culled;
+			drawnCount = objects.size() - culled;
+		}
+	}
+	
+	// only touches the scene graph when the object's state changes
+	private void SetCulled(Object3D object3D, boolean culled)
+	{
+		if (object3D.culled != culled && object3D.cullSwitch != null)
+		{
+			object3D.culled = culled;
+			object3D.cullSwitch.setWhichChild(culled ? Switch.CHILD_NONE : Switch.CHILD_ALL);
+		}
+	}
+	
 	/**
 	 * Gets if the the scene is being shown.
 	 * @return If the scene is being shown
@@ -158,4 +991,53 @@ public class Scene3D
 	 */
 	public BranchGroup getBranchGroup()
 	{ return branch; }
+	
+	
+	
+	//Frame Behavior. Does the scene's once per frame work while it is shown
+	private class FrameBehavior extends Behavior
+	{
+		private WakeupOnElapsedFrames wakeup = new WakeupOnElapsedFrames(0);
+		
+		public void initialize()
+		{
+			this.wakeupOn(wakeup);
+		}
+		
+		public void processStimulus(Enumeration criteria)
+		{
+			if (!mutations.isEmpty())
+				ApplyMutations(mutationBatchSize);
+			
+			if (deferTransforms)
+				FlushTransforms();
+			
+			if (culling)
+				Cull();
+			
+			if (!lodObjects.isEmpty())
+				UpdateLOD();
+			
+			this.wakeupOn(wakeup);
+		}
+	}
+	
+	// a queued add, delete or clear
+	private static class Mutation
+	{
+		static final int ADD = 0;
+		static final int DELETE = 1;
+		static final int CLEAR = 2;
+		
+		final int type;
+		final Object3D object;
+		final BranchGroup objBranch;
+		
+		Mutation(int type, Object3D object, BranchGroup objBranch)
+		{
+			this.type = type;
+			this.object = object;
+			this.objBranch = objBranch;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,382 @@
+package graphicsengine3d;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import javax.media.j3d.Appearance;
+import javax.media.j3d.Link;
+import javax.media.j3d.Node;
+
+/**
+ * @author Mike
+ * Saves scenes to a binary file and loads them back. Objects are saved as a reference to what the GeometryCache
+ * made them from, a named mesh or a primitive with a named appearance, together with their position, rotation,
+ * scale and whether they are static. Loading reads the transforms in bulk from a memory mapped file and only
+ * clones each distinct mesh's geometry references, nothing is generated again.
+ * <p>
+ * The file is little endian: a header of magic, version, reference count and object count, the references, then
+ * the objects as columns: reference index, flags, position X, Y and Z, rotation X, Y and Z, scale and the
+ * 3x3 rotation matrix.
+ * @see GeometryCache
+ */
+public class SceneFile
+{
+	private static final int MAGIC = 0x47334453;	// "G3DS"
+	private static final int VERSION = 1;
+	
+	private static final byte NAMED = 0, LINK = 1, PRIMITIVE = 2;
+	private static final byte STATIC = 1;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	
+	
+	//*********************************************************************************
+	//Saving
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Saves the objects of a scene. Objects not made by the cache, with levels of detail or with a primitive
+	 * appearance that is not registered are left out.
+	 * @param scene	Scene to save
+	 * @param cache	Cache the objects' nodes came from
+	 * @param file	File to write
+	 * @return Number of objects saved
+	 * @throws IOException If the file cannot be written
+	 * @see GeometryCache#RegisterAppearance(String, Appearance)
+	 */
+	public static int Save(Scene3D scene, GeometryCache cache, File file) throws IOException
+	{
+		int refCount = 0;
+		HashMap<Object, Integer> refIndexes = new HashMap<Object, Integer>();
+		ArrayList<Object3D> saved = new ArrayList<Object3D>();
+		ArrayList<Integer> savedRefs = new ArrayList<Integer>();
+		ByteBuffer refData = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+		
+		for (int i = 0; i < scene.GetObjectCount(); i++)
+		{
+			Object3D object3D = scene.GetObject(i);
+			Object origin = object3D.HasLOD() ? null : cache.GetOrigin(object3D.node);
+			
+			if (origin == null)
+				continue;
+			
+			// a name can be used for copies and for links, they are different references
+			Object refKey = object3D.node instanceof Link ? Arrays.asList(LINK, origin) : origin;
+			Integer index = refIndexes.get(refKey);
+			
+			if (index == null)
+			{
+				int start = refData.position();
+				refData = PutReference(refData, origin, object3D.node, cache);
+				
+				if (refData.position() == start)
+					continue;		// appearance not registered
+				
+				index = refCount++;
+				refIndexes.put(refKey, index);
+			}
+			
+			saved.add(object3D);
+			savedRefs.add(index);
+		}
+		
+		int n = saved.size();
+		ByteBuffer buffer = ByteBuffer.allocate(16 + refData.position() + n*(4 + 1 + 7*4 + 9*8)).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(refCount);
+		buffer.putInt(n);
+		refData.flip();
+		buffer.put(refData);
+		
+		// gather each column so it can be written in one go
+		int[] refColumn = new int[n];
+		byte[] flags = new byte[n];
+		float[][] floats = new float[7][n];
+		double[] rotMat = new double[n*9];
+		
+		for (int i = 0; i < n; i++)
+		{
+			Object3D object3D = saved.get(i);
+			TransformStore st = object3D.store;
+			int slot = object3D.slot;
+			
+			refColumn[i] = savedRefs.get(i);
+			flags[i] = object3D.IsStatic() ? STATIC : 0;
+			floats[0][i] = st.posX[slot];
+			floats[1][i] = st.posY[slot];
+			floats[2][i] = st.posZ[slot];
+			floats[3][i] = st.rotX[slot];
+			floats[4][i] = st.rotY[slot];
+			floats[5][i] = st.rotZ[slot];
+			floats[6][i] = st.scale[slot];
+			System.arraycopy(st.rotMat, slot*9, rotMat, i*9, 9);
+		}
+		
+		buffer.asIntBuffer().put(refColumn);
+		buffer.position(buffer.position() + n*4);
+		buffer.put(flags);
+		
+		for (int c = 0; c < 7; c++)
+		{
+			buffer.asFloatBuffer().put(floats[c]);
+			buffer.position(buffer.position() + n*4);
+		}
+		
+		buffer.asDoubleBuffer().put(rotMat);
+		buffer.position(buffer.position() + n*72);
+		buffer.flip();
+		
+		FileOutputStream out = new FileOutputStream(file);
+		
+		try
+		{
+			FileChannel channel = out.getChannel();
+			
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+		finally
+		{
+			out.close();
+		}
+		
+		return n;
+	}
+	
+	// writes a reference, growing the buffer as needed. Writes nothing if the reference cannot be saved
+	private static ByteBuffer PutReference(ByteBuffer buffer, Object origin, Node node, GeometryCache cache)
+	{
+		if (origin instanceof String)
+		{
+			byte[] name = ((String)origin).getBytes(UTF8);
+			buffer = Reserve(buffer, 5 + name.length);
+			buffer.put(node instanceof Link ? LINK : NAMED);
+			buffer.putInt(name.length);
+			buffer.put(name);
+			return buffer;
+		}
+		
+		GeometryCache.MeshKey key = (GeometryCache.MeshKey)origin;
+		byte[] appearance = new byte[0];
+		
+		if (key.appearance != null)
+		{
+			String name = cache.GetAppearanceName(key.appearance);
+			
+			if (name == null)
+				return buffer;
+			
+			appearance = name.getBytes(UTF8);
+		}
+		
+		byte[] type = key.type.getBytes(UTF8);
+		buffer = Reserve(buffer, 1 + 4 + type.length + 4 + 4 + appearance.length + 4 + key.params.length*4);
+		buffer.put(PRIMITIVE);
+		buffer.putInt(type.length);
+		buffer.put(type);
+		buffer.putInt(key.flags);
+		buffer.putInt(appearance.length);
+		buffer.put(appearance);
+		buffer.putInt(key.params.length);
+		
+		for (int i = 0; i < key.params.length; i++)
+			buffer.putFloat(key.params[i]);
+		
+		return buffer;
+	}
+	
+	private static ByteBuffer Reserve(ByteBuffer buffer, int bytes)
+	{
+		if (buffer.remaining() >= bytes)
+			return buffer;
+		
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity()*2, buffer.position() + bytes)).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.flip();
+		bigger.put(buffer);
+		return bigger;
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Loading
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Loads a saved scene's objects and adds them to a scene. The meshes and appearances the file refers to must be
+	 * registered in the cache under the same names they were saved with.
+	 * @param file	File to read
+	 * @param scene	Scene to add the objects to
+	 * @param cache	Cache to get the objects' nodes from
+	 * @return Number of objects added
+	 * @throws IOException If the file cannot be read, is not a scene file or refers to something the cache does not have
+	 */
+	public static int Load(File file, Scene3D scene, GeometryCache cache) throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		
+		try
+		{
+			FileChannel channel = in.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			
+			if (buffer.remaining() < 16 || buffer.getInt() != MAGIC)
+				throw new IOException(file + " is not a scene file");
+			
+			int version = buffer.getInt();
+			
+			if (version != VERSION)
+				throw new IOException(file + " has unsupported version " + version);
+			
+			int refCount = buffer.getInt();
+			int n = buffer.getInt();
+			
+			if (refCount < 0 || n < 0)
+				throw new IOException(file + " has a bad header");
+			
+			// each reference takes at least its kind and a string length
+			if (refCount > buffer.remaining()/5)
+				throw new IOException(file + " is truncated");
+			
+			// one reference per distinct mesh, the objects clone from these
+			byte[] kinds = new byte[refCount];
+			String[] names = new String[refCount];
+			String[] types = new String[refCount];
+			int[] flags = new int[refCount];
+			Appearance[] appearances = new Appearance[refCount];
+			float[][] params = new float[refCount][];
+			
+			for (int i = 0; i < refCount; i++)
+			{
+				kinds[i] = buffer.get();
+				
+				if (kinds[i] == PRIMITIVE)
+				{
+					types[i] = GetString(buffer);
+					flags[i] = buffer.getInt();
+					String appearance = GetString(buffer);
+					int paramCount = buffer.getInt();
+					
+					if (paramCount < 0 || paramCount > buffer.remaining()/4)
+						throw new IOException(file + " has a bad parameter count " + paramCount);
+					
+					params[i] = new float[paramCount];
+					buffer.asFloatBuffer().get(params[i]);
+					buffer.position(buffer.position() + params[i].length*4);
+					
+					if (appearance.length() > 0 && (appearances[i] = cache.GetAppearance(appearance)) == null)
+						throw new IOException("Appearance " + appearance + " is not registered");
+				}
+				else
+				{
+					names[i] = GetString(buffer);
+					
+					if (!cache.Contains(names[i]))
+						throw new IOException("Mesh " + names[i] + " is not registered");
+				}
+			}
+			
+			if (buffer.remaining() < (long)n*(4 + 1 + 7*4 + 9*8))
+				throw new IOException(file + " is truncated");
+			
+			// read every column in bulk
+			int[] refColumn = new int[n];
+			byte[] objFlags = new byte[n];
+			float[][] floats = new float[7][n];
+			double[] rotMat = new double[n*9];
+			
+			buffer.asIntBuffer().get(refColumn);
+			buffer.position(buffer.position() + n*4);
+			buffer.get(objFlags);
+			
+			for (int c = 0; c < 7; c++)
+			{
+				buffer.asFloatBuffer().get(floats[c]);
+				buffer.position(buffer.position() + n*4);
+			}
+			
+			buffer.asDoubleBuffer().get(rotMat);
+			
+			Object3D[] objects = new Object3D[n];
+			
+			for (int i = 0; i < n; i++)
+			{
+				int ref = refColumn[i];
+				
+				if (ref < 0 || ref >= refCount)
+					throw new IOException(file + " has a bad reference");
+				
+				Node node;
+				
+				if (kinds[ref] == PRIMITIVE)
+					node = cache.GetPrimitive(types[ref], flags[ref], appearances[ref], params[ref]);
+				else if (kinds[ref] == LINK)
+					node = cache.GetLink(names[ref]);
+				else
+					node = cache.Get(names[ref]);
+				
+				if (node == null)
+					throw new IOException("Unknown primitive " + types[ref]);
+				
+				Object3D object3D = new Object3D(node);
+				TransformStore st = object3D.store;
+				int slot = object3D.slot;
+				
+				st.posX[slot] = floats[0][i];
+				st.posY[slot] = floats[1][i];
+				st.posZ[slot] = floats[2][i];
+				st.rotX[slot] = floats[3][i];
+				st.rotY[slot] = floats[4][i];
+				st.rotZ[slot] = floats[5][i];
+				st.scale[slot] = floats[6][i];
+				System.arraycopy(rotMat, i*9, st.rotMat, slot*9, 9);
+				
+				object3D.SetStatic((objFlags[i] & STATIC) != 0);
+				object3D.UpdateTransform();
+				objects[i] = object3D;
+			}
+			
+			// only add once the whole file has been read, so a bad file adds nothing
+			for (int i = 0; i < n; i++)
+				scene.AddObject(objects[i]);
+			
+			return n;
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException(file + " is truncated");
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	private static String GetString(ByteBuffer buffer) throws IOException
+	{
+		int length = buffer.getInt();
+		
+		if (length < 0 || length > buffer.remaining())
+			throw new IOException("Bad string length " + length);
+		
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
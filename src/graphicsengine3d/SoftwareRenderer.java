@@ -0,0 +1,835 @@
+package graphicsengine3d;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.media.j3d.Appearance;
+import javax.media.j3d.ColoringAttributes;
+import javax.media.j3d.Geometry;
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.Group;
+import javax.media.j3d.ImageComponent;
+import javax.media.j3d.ImageComponent2D;
+import javax.media.j3d.Link;
+import javax.media.j3d.Material;
+import javax.media.j3d.Node;
+import javax.media.j3d.PolygonAttributes;
+import javax.media.j3d.Shape3D;
+import javax.media.j3d.Switch;
+import javax.media.j3d.Texture;
+import javax.media.j3d.TextureAttributes;
+import javax.media.j3d.Transform3D;
+import javax.media.j3d.TransformGroup;
+import javax.vecmath.Color3f;
+
+/**
+ * @author Mike
+ * Draws scenes into an int[] framebuffer without a display or graphics card, for example to render thumbnails on a
+ * server or compare images in tests. Triangles are transformed and sorted into 64x64 pixel tiles on the calling
+ * thread, then the tiles are filled by a pool of threads, each tile by one thread so no locking is needed.
+ * <p>
+ * The geometry that static batching can merge is drawn: triangle, quad, strip and fan arrays with vertex colors, one
+ * 2D texture and normals. Appearances with a Material are lit by a light at the view, others are drawn with their
+ * colors as they are. Back faces are culled unless the appearance's PolygonAttributes say otherwise.
+ * <p>
+ * Scenes drawn by the renderer are usually made with a null universe and never shown. Their geometry is read while
+ * drawing, so scenes that are shown or compiled need the read capabilities of their nodes.
+ * @see Scene3D#Scene3D(Universe3D)
+ */
+public class SoftwareRenderer
+{
+	private static final int TILE_SIZE = 64;
+	
+	// floats stored per triangle: screen x, y, 1/w, then r, g, b, u, v divided by w, for each corner
+	private static final int CORNER = 8;
+	private static final int STRIDE = CORNER*3;
+	
+	// light from above and to the right of the view, in view space
+	private static final double LIGHT_X = 0.3d, LIGHT_Y = 0.5d, LIGHT_Z = 0.81d;
+	private static final double AMBIENT = 0.3d;
+	
+	private static final double[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+	
+	private int width, height;
+	private BufferedImage image;
+	private int[] pixels;
+	private float[] depth;
+	private int background = 0x000000;
+	
+	// view transform as Universe3D keeps it, the view's axes and position in the world
+	private double[] viewMat = IDENTITY.clone();
+	private double fieldOfView = Math.PI/4.0d;
+	private double nearClip = 0.1d, farClip = 1000000000.0d;
+	
+	private ArrayList<Scene3D> scenes = new ArrayList<Scene3D>();
+	
+	// triangles of the frame and the texture of each, -1 for none
+	private float[] tris = new float[STRIDE*1024];
+	private int[] triTextures = new int[1024];
+	private int triCount = 0;
+	private ArrayList<TextureImage> frameTextures = new ArrayList<TextureImage>();
+	
+	// triangles overlapping each tile, in drawing order
+	private int tilesX, tilesY;
+	private int[][] bins;
+	private int[] binCounts;
+	
+	private ExecutorService pool;
+	private ArrayList<Callable<Object>> workers = new ArrayList<Callable<Object>>();
+	private AtomicInteger nextTile = new AtomicInteger();
+	
+	// geometry flattened to triangle lists and texture images, kept while the geometry and textures are
+	private WeakHashMap<Geometry, StaticBatcher.Batch> meshes = new WeakHashMap<Geometry, StaticBatcher.Batch>();
+	private WeakHashMap<Texture, TextureImage> textures = new WeakHashMap<Texture, TextureImage>();
+	
+	// scratch for one draw
+	private ArrayList<Shape3D> drawShapes = new ArrayList<Shape3D>();
+	private ArrayList<double[]> drawMats = new ArrayList<double[]>();
+	private double[] modelView = new double[16];
+	private double[] worldToView = new double[16];
+	private double[] clipIn = new double[CORNER*4], clipOut = new double[CORNER*4];
+	private Transform3D t3d = new Transform3D();
+	private Color3f color = new Color3f();
+	
+	/**
+	 * Creates a renderer using a thread per processor.
+	 * @param width		Width in pixels
+	 * @param height	Height in pixels
+	 */
+	public SoftwareRenderer(int width, int height)
+	{ this(width, height, Runtime.getRuntime().availableProcessors()); }
+	
+	/**
+	 * @param width		Width in pixels
+	 * @param height	Height in pixels
+	 * @param threads	Number of drawing threads, with 1 the tiles are drawn on the thread calling Render
+	 */
+	public SoftwareRenderer(int width, int height, int threads)
+	{
+		this.width = Math.max(width, 1);
+		this.height = Math.max(height, 1);
+		
+		image = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		depth = new float[this.width*this.height];
+		
+		tilesX = (this.width + TILE_SIZE - 1)/TILE_SIZE;
+		tilesY = (this.height + TILE_SIZE - 1)/TILE_SIZE;
+		bins = new int[tilesX*tilesY][64];
+		binCounts = new int[tilesX*tilesY];
+		
+		if (threads <= 1)
+			return;
+		
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "SoftwareRenderer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		for (int i = 0; i < threads; i++)
+		{
+			workers.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					int tile;
+					
+					while ((tile = nextTile.getAndIncrement()) < binCounts.length)
+						DrawTile(tile);
+					
+					return null;
+				}
+			});
+		}
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Settings
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Adds a scene to be drawn.
+	 * @param scene Scene
+	 */
+	public void AddScene(Scene3D scene)
+	{
+		if (!scenes.contains(scene))
+			scenes.add(scene);
+	}
+	
+	/**
+	 * Removes a scene from those drawn.
+	 * @param scene Scene
+	 * @return If the scene was being drawn
+	 */
+	public boolean RemoveScene(Scene3D scene)
+	{ return scenes.remove(scene); }
+	
+	/**
+	 * Places the view at a position angled to face another position. Z is up.
+	 * @param fromX X position of the view
+	 * @param fromY Y position of the view
+	 * @param fromZ Z position of the view
+	 * @param toX X position to look at
+	 * @param toY Y position to look at
+	 * @param toZ Z position to look at
+	 * @see Universe3D#ViewLookAt(double, double, double, double, double, double)
+	 */
+	public void ViewLookAt(double fromX, double fromY, double fromZ, double toX, double toY, double toZ)
+	{
+		Universe3D.LookAt(viewMat, fromX, fromY, fromZ, toX, toY, toZ);
+	}
+	
+	/**
+	 * Sets the view transform, the view's axes and position in the world.
+	 * @param mat Row major 4x4 matrix, 16 entries
+	 */
+	public void SetViewMatrix(double[] mat)
+	{
+		System.arraycopy(mat, 0, viewMat, 0, 16);
+	}
+	
+	/**
+	 * Sets the horizontal field of view.
+	 * @param fov Field of view in radians
+	 */
+	public void SetFieldOfView(double fov)
+	{
+		fieldOfView = fov;
+	}
+	
+	/**
+	 * Gets the horizontal field of view.
+	 * @return Field of view in radians
+	 */
+	public double GetFieldOfView()
+	{ return fieldOfView; }
+	
+	/**
+	 * Sets the distances in front of the view between which things are drawn.
+	 * @param near	Near distance, greater than 0
+	 * @param far	Far distance
+	 */
+	public void SetClipDistances(double near, double far)
+	{
+		nearClip = Math.max(near, 1e-6d);
+		farClip = Math.max(far, nearClip);
+	}
+	
+	/**
+	 * Sets the color the framebuffer is cleared to.
+	 * @param rgb Color as 0xRRGGBB
+	 */
+	public void SetBackground(int rgb)
+	{
+		background = rgb & 0xFFFFFF;
+	}
+	
+	/**
+	 * Gets the width of the framebuffer.
+	 * @return Width in pixels
+	 */
+	public int GetWidth()
+	{ return width; }
+	
+	/**
+	 * Gets the height of the framebuffer.
+	 * @return Height in pixels
+	 */
+	public int GetHeight()
+	{ return height; }
+	
+	/**
+	 * Gets the framebuffer, one 0xRRGGBB int per pixel, rows from the top. It is drawn into by each Render.
+	 * @return Pixels
+	 */
+	public int[] GetPixels()
+	{ return pixels; }
+	
+	/**
+	 * Gets an image backed by the framebuffer.
+	 * @return BufferedImage showing the last frame
+	 */
+	public BufferedImage GetImage()
+	{ return image; }
+	
+	/**
+	 * Gets the number of triangles drawn in the last frame, after clipping and back face culling.
+	 * @return Number of triangles
+	 */
+	public int GetTriangleCount()
+	{ return triCount; }
+	
+	/**
+	 * Stops the drawing threads.
+	 */
+	public void Shutdown()
+	{
+		if (pool != null)
+			pool.shutdownNow();
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Rendering
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Draws the scenes into the framebuffer. Scenes that are not shown are prepared first, see Scene3D.Prepare.
+	 * Do not change the scenes while they are being drawn.
+	 */
+	public void Render()
+	{
+		triCount = 0;
+		frameTextures.clear();
+		Arrays.fill(binCounts, 0);
+		
+		// the view transform is rigid, so its inverse is the transposed rotation and the rotated negative position
+		for (int r = 0; r < 3; r++)
+		{
+			worldToView[r*4] = viewMat[r];
+			worldToView[r*4 + 1] = viewMat[4 + r];
+			worldToView[r*4 + 2] = viewMat[8 + r];
+			worldToView[r*4 + 3] = -(viewMat[r]*viewMat[3] + viewMat[4 + r]*viewMat[7] + viewMat[8 + r]*viewMat[11]);
+		}
+		
+		worldToView[12] = 0.0d; worldToView[13] = 0.0d; worldToView[14] = 0.0d; worldToView[15] = 1.0d;
+		
+		for (int i = 0; i < scenes.size(); i++)
+			AddScene(scenes.get(i), new double[16]);
+		
+		if (pool == null)
+		{
+			for (int tile = 0; tile < binCounts.length; tile++)
+				DrawTile(tile);
+			
+			return;
+		}
+		
+		nextTile.set(0);
+		
+		try
+		{
+			for (Future<Object> future : pool.invokeAll(workers))
+				future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e)
+		{
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	// transforms and bins the triangles of a scene's objects and batches
+	private void AddScene(Scene3D scene, double[] mat)
+	{
+		scene.Prepare();
+		
+		for (StaticBatcher.Batch batch : scene.GetBatcher().GetBatches())
+		{
+			if (batch.vertexCount > 0)
+				AddMesh(batch, IDENTITY, batch.shape.getAppearance());
+		}
+		
+		for (int i = 0; i < scene.GetObjectCount(); i++)
+		{
+			Object3D object3D = scene.GetObject(i);
+			
+			if (object3D.batches != null)
+				continue;		// drawn with its batches
+			
+			object3D.store.Compose(object3D.slot, mat);
+			drawShapes.clear();
+			drawMats.clear();
+			Collect(object3D.node, mat);
+			
+			for (int s = 0; s < drawShapes.size(); s++)
+			{
+				Shape3D shape = drawShapes.get(s);
+				
+				for (int g = 0; g < shape.numGeometries(); g++)
+				{
+					StaticBatcher.Batch mesh = GetMesh(shape.getGeometry(g));
+					
+					if (mesh != null)
+						AddMesh(mesh, drawMats.get(s), shape.getAppearance());
+				}
+			}
+		}
+	}
+	
+	// finds the shapes under a node with their transforms, switches draw the children they have chosen
+	private void Collect(Node node, double[] mat)
+	{
+		if (node instanceof Shape3D)
+		{
+			drawShapes.add((Shape3D)node);
+			drawMats.add(mat.clone());
+			return;
+		}
+		
+		if (node instanceof Link)
+		{
+			Collect(((Link)node).getSharedGroup(), mat);
+			return;
+		}
+		
+		if (!(node instanceof Group))
+			return;
+		
+		double[] childMat = mat;
+		
+		if (node instanceof TransformGroup)
+		{
+			double[] local = new double[16];
+			((TransformGroup)node).getTransform(t3d);
+			t3d.get(local);
+			childMat = Multiply(mat, local, new double[16]);
+		}
+		
+		Group group = (Group)node;
+		
+		if (node instanceof Switch)
+		{
+			int which = ((Switch)node).getWhichChild();
+			
+			if (which >= 0)
+			{
+				if (which < group.numChildren())
+					Collect(group.getChild(which), childMat);
+				
+				return;
+			}
+			else if (which == Switch.CHILD_NONE)
+				return;
+		}
+		
+		for (int i = 0; i < group.numChildren(); i++)
+			Collect(group.getChild(i), childMat);
+	}
+	
+	// the geometry as a triangle list in its own space, null if it cannot be drawn
+	private StaticBatcher.Batch GetMesh(Geometry geometry)
+	{
+		if (geometry == null || !StaticBatcher.Supported(geometry))
+			return null;
+		
+		StaticBatcher.Batch mesh = meshes.get(geometry);
+		
+		if (mesh == null)
+		{
+			GeometryArray array = (GeometryArray)geometry;
+			mesh = new StaticBatcher.Batch(null, array.getVertexFormat() & StaticBatcher.SUPPORTED);
+			mesh.Append(null, array, IDENTITY);
+			meshes.put(geometry, mesh);
+		}
+		
+		return mesh;
+	}
+	
+	// lights, clips, projects and bins a triangle list
+	private void AddMesh(StaticBatcher.Batch mesh, double[] modelMat, Appearance appearance)
+	{
+		Multiply(worldToView, modelMat, modelView);
+		double[] m = modelView;
+		
+		// what the appearance asks for
+		float baseR = 1.0f, baseG = 1.0f, baseB = 1.0f;
+		boolean lit = false;
+		int cull = PolygonAttributes.CULL_BACK;
+		int texture = -1;
+		double[] texMat = null;
+		
+		if (appearance != null)
+		{
+			Material material = appearance.getMaterial();
+			ColoringAttributes coloring = appearance.getColoringAttributes();
+			
+			if (material != null && material.getLightingEnable())
+			{
+				lit = true;
+				material.getDiffuseColor(color);
+				baseR = color.x; baseG = color.y; baseB = color.z;
+			}
+			else if (coloring != null)
+			{
+				coloring.getColor(color);
+				baseR = color.x; baseG = color.y; baseB = color.z;
+			}
+			
+			if (appearance.getPolygonAttributes() != null)
+				cull = appearance.getPolygonAttributes().getCullFace();
+			
+			if (appearance.getTexture() != null && mesh.texCoords != null)
+			{
+				TextureImage textureImage = GetTexture(appearance.getTexture());
+				TextureAttributes attributes = appearance.getTextureAttributes();
+				
+				if (textureImage != null)
+				{
+					boolean modulate = attributes != null && attributes.getTextureMode() == TextureAttributes.MODULATE;
+					texture = frameTextures.size()*2 + (modulate ? 1 : 0);
+					frameTextures.add(textureImage);
+					
+					if (attributes != null)
+					{
+						attributes.getTextureTransform(t3d);
+						t3d.get(texMat = new double[16]);
+					}
+				}
+			}
+		}
+		
+		float[] coords = mesh.coords, normals = mesh.normals, colors = mesh.colors, texCoords = mesh.texCoords;
+		int colorSize = mesh.colorSize;
+		double focal = width/2.0d/Math.tan(fieldOfView/2.0d);
+		
+		for (int t = 0; t + 2 < mesh.vertexCount; t += 3)
+		{
+			boolean allFar = true;
+			
+			for (int k = 0; k < 3; k++)
+			{
+				int v = t + k, o = k*CORNER;
+				double x = coords[v*3], y = coords[v*3 + 1], z = coords[v*3 + 2];
+				
+				clipIn[o] = m[0]*x + m[1]*y + m[2]*z + m[3];
+				clipIn[o + 1] = m[4]*x + m[5]*y + m[6]*z + m[7];
+				clipIn[o + 2] = m[8]*x + m[9]*y + m[10]*z + m[11];
+				allFar &= -clipIn[o + 2] > farClip;
+				
+				double r = baseR, g = baseG, b = baseB;
+				
+				if (colors != null)
+				{
+					r = colors[v*colorSize];
+					g = colors[v*colorSize + 1];
+					b = colors[v*colorSize + 2];
+				}
+				
+				if (lit && normals != null)
+				{
+					double nx = normals[v*3], ny = normals[v*3 + 1], nz = normals[v*3 + 2];
+					double vx = m[0]*nx + m[1]*ny + m[2]*nz;
+					double vy = m[4]*nx + m[5]*ny + m[6]*nz;
+					double vz = m[8]*nx + m[9]*ny + m[10]*nz;
+					double len = Math.sqrt(vx*vx + vy*vy + vz*vz);
+					double light = len > 0.0d ? Math.max((vx*LIGHT_X + vy*LIGHT_Y + vz*LIGHT_Z)/len, 0.0d) : 0.0d;
+					double shade = AMBIENT + (1.0d - AMBIENT)*light;
+					
+					r *= shade;
+					g *= shade;
+					b *= shade;
+				}
+				
+				clipIn[o + 3] = r;
+				clipIn[o + 4] = g;
+				clipIn[o + 5] = b;
+				
+				if (texture >= 0)
+				{
+					double u = texCoords[v*2], w = texCoords[v*2 + 1];
+					
+					if (texMat != null)
+					{
+						double tu = texMat[0]*u + texMat[1]*w + texMat[3];
+						w = texMat[4]*u + texMat[5]*w + texMat[7];
+						u = tu;
+					}
+					
+					clipIn[o + 6] = u;
+					clipIn[o + 7] = w;
+				}
+			}
+			
+			if (allFar)
+				continue;
+			
+			int corners = ClipNear();
+			
+			// the clipped polygon is a fan of up to two triangles
+			for (int k = 1; k + 1 < corners; k++)
+				AddTriangle(clipOut, 0, k*CORNER, (k + 1)*CORNER, focal, cull, texture);
+		}
+	}
+	
+	// clips the triangle in clipIn against the near plane into clipOut, returns the number of corners
+	private int ClipNear()
+	{
+		double plane = -nearClip;
+		int count = 0;
+		
+		for (int k = 0; k < 3; k++)
+		{
+			int a = k*CORNER, b = ((k + 1)%3)*CORNER;
+			boolean aIn = clipIn[a + 2] <= plane, bIn = clipIn[b + 2] <= plane;
+			
+			if (aIn)
+			{
+				System.arraycopy(clipIn, a, clipOut, count*CORNER, CORNER);
+				count++;
+			}
+			
+			if (aIn != bIn)
+			{
+				double f = (plane - clipIn[a + 2])/(clipIn[b + 2] - clipIn[a + 2]);
+				int o = count*CORNER;
+				
+				for (int i = 0; i < CORNER; i++)
+					clipOut[o + i] = clipIn[a + i] + (clipIn[b + i] - clipIn[a + i])*f;
+				
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	// projects a triangle in view space, culls it by its facing and adds it to the tiles it covers
+	private void AddTriangle(double[] c, int a, int b, int d, double focal, int cull, int texture)
+	{
+		double cx = width/2.0d, cy = height/2.0d;
+		double iwA = -1.0d/c[a + 2], iwB = -1.0d/c[b + 2], iwD = -1.0d/c[d + 2];
+		double xA = cx + c[a]*focal*iwA, yA = cy - c[a + 1]*focal*iwA;
+		double xB = cx + c[b]*focal*iwB, yB = cy - c[b + 1]*focal*iwB;
+		double xD = cx + c[d]*focal*iwD, yD = cy - c[d + 1]*focal*iwD;
+		
+		// counter clockwise triangles face the view, on screen Y is down so their area is negative
+		double area = (xB - xA)*(yD - yA) - (xD - xA)*(yB - yA);
+		
+		if (area == 0.0d || (cull == PolygonAttributes.CULL_BACK && area > 0.0d) || (cull == PolygonAttributes.CULL_FRONT && area < 0.0d))
+			return;
+		
+		if (area > 0.0d)
+		{
+			// keep every stored triangle wound the same way
+			int swap = b; b = d; d = swap;
+			double s = iwB; iwB = iwD; iwD = s;
+			s = xB; xB = xD; xD = s;
+			s = yB; yB = yD; yD = s;
+		}
+		
+		double minX = Math.min(xA, Math.min(xB, xD)), maxX = Math.max(xA, Math.max(xB, xD));
+		double minY = Math.min(yA, Math.min(yB, yD)), maxY = Math.max(yA, Math.max(yB, yD));
+		
+		if (maxX < 0.0d || maxY < 0.0d || minX >= width || minY >= height)
+			return;
+		
+		if (triCount == triTextures.length)
+		{
+			tris = Arrays.copyOf(tris, triCount*2*STRIDE);
+			triTextures = Arrays.copyOf(triTextures, triCount*2);
+		}
+		
+		int o = triCount*STRIDE;
+		PutCorner(o, xA, yA, iwA, c, a);
+		PutCorner(o + CORNER, xB, yB, iwB, c, b);
+		PutCorner(o + CORNER*2, xD, yD, iwD, c, d);
+		triTextures[triCount] = texture;
+		
+		int tx0 = Math.max((int)minX/TILE_SIZE, 0), tx1 = Math.min((int)maxX/TILE_SIZE, tilesX - 1);
+		int ty0 = Math.max((int)minY/TILE_SIZE, 0), ty1 = Math.min((int)maxY/TILE_SIZE, tilesY - 1);
+		
+		for (int ty = ty0; ty <= ty1; ty++)
+		{
+			for (int tx = tx0; tx <= tx1; tx++)
+			{
+				int tile = ty*tilesX + tx;
+				
+				if (binCounts[tile] == bins[tile].length)
+					bins[tile] = Arrays.copyOf(bins[tile], binCounts[tile]*2);
+				
+				bins[tile][binCounts[tile]++] = triCount;
+			}
+		}
+		
+		triCount++;
+	}
+	
+	private void PutCorner(int o, double x, double y, double iw, double[] c, int k)
+	{
+		tris[o] = (float)x;
+		tris[o + 1] = (float)y;
+		tris[o + 2] = (float)iw;
+		
+		for (int i = 3; i < CORNER; i++)
+			tris[o + i] = (float)(c[k + i]*iw);
+	}
+	
+	// clears a tile and fills its triangles in order, runs on the drawing threads
+	private void DrawTile(int tile)
+	{
+		int left = (tile%tilesX)*TILE_SIZE, top = (tile/tilesX)*TILE_SIZE;
+		int right = Math.min(left + TILE_SIZE, width), bottom = Math.min(top + TILE_SIZE, height);
+		
+		for (int y = top; y < bottom; y++)
+		{
+			Arrays.fill(pixels, y*width + left, y*width + right, background);
+			Arrays.fill(depth, y*width + left, y*width + right, 0.0f);
+		}
+		
+		int[] bin = bins[tile];
+		
+		for (int i = 0; i < binCounts[tile]; i++)
+			DrawTriangle(bin[i], left, top, right, bottom);
+	}
+	
+	private void DrawTriangle(int triangle, int left, int top, int right, int bottom)
+	{
+		float[] t = tris;
+		int o = triangle*STRIDE;
+		float x0 = t[o], y0 = t[o + 1];
+		float x1 = t[o + CORNER], y1 = t[o + CORNER + 1];
+		float x2 = t[o + CORNER*2], y2 = t[o + CORNER*2 + 1];
+		
+		int minX = Math.max((int)Math.floor(Math.min(x0, Math.min(x1, x2))), left);
+		int maxX = Math.min((int)Math.ceil(Math.max(x0, Math.max(x1, x2))), right - 1);
+		int minY = Math.max((int)Math.floor(Math.min(y0, Math.min(y1, y2))), top);
+		int maxY = Math.min((int)Math.ceil(Math.max(y0, Math.max(y1, y2))), bottom - 1);
+		
+		if (minX > maxX || minY > maxY)
+			return;
+		
+		float invArea = 1.0f/((x1 - x0)*(y2 - y0) - (x2 - x0)*(y1 - y0));
+		
+		// barycentric weights of corners 0 and 1 change by a constant per pixel along a row
+		float stepX0 = (y1 - y2)*invArea, stepX1 = (y2 - y0)*invArea;
+		
+		int texture = triTextures[triangle];
+		TextureImage textureImage = texture >= 0 ? frameTextures.get(texture >> 1) : null;
+		boolean modulate = (texture & 1) != 0;
+		
+		for (int y = minY; y <= maxY; y++)
+		{
+			float py = y + 0.5f, px = minX + 0.5f;
+			float w0 = ((x1 - px)*(y2 - py) - (x2 - px)*(y1 - py))*invArea;
+			float w1 = ((x2 - px)*(y0 - py) - (x0 - px)*(y2 - py))*invArea;
+			int index = y*width + minX;
+			
+			for (int x = minX; x <= maxX; x++, index++, w0 += stepX0, w1 += stepX1)
+			{
+				float w2 = 1.0f - w0 - w1;
+				
+				if (w0 < 0.0f || w1 < 0.0f || w2 < 0.0f)
+					continue;
+				
+				float iw = w0*t[o + 2] + w1*t[o + CORNER + 2] + w2*t[o + CORNER*2 + 2];
+				
+				if (iw <= depth[index])
+					continue;
+				
+				depth[index] = iw;
+				float w = 1.0f/iw;
+				float r = (w0*t[o + 3] + w1*t[o + CORNER + 3] + w2*t[o + CORNER*2 + 3])*w;
+				float g = (w0*t[o + 4] + w1*t[o + CORNER + 4] + w2*t[o + CORNER*2 + 4])*w;
+				float b = (w0*t[o + 5] + w1*t[o + CORNER + 5] + w2*t[o + CORNER*2 + 5])*w;
+				
+				if (textureImage != null)
+				{
+					float u = (w0*t[o + 6] + w1*t[o + CORNER + 6] + w2*t[o + CORNER*2 + 6])*w;
+					float v = (w0*t[o + 7] + w1*t[o + CORNER + 7] + w2*t[o + CORNER*2 + 7])*w;
+					int texel = textureImage.Sample(u, v);
+					float tr = ((texel >> 16) & 0xFF)/255.0f, tg = ((texel >> 8) & 0xFF)/255.0f, tb = (texel & 0xFF)/255.0f;
+					
+					if (modulate)
+					{
+						r *= tr;
+						g *= tg;
+						b *= tb;
+					}
+					else
+					{
+						r = tr;
+						g = tg;
+						b = tb;
+					}
+				}
+				
+				pixels[index] = (Channel(r) << 16) | (Channel(g) << 8) | Channel(b);
+			}
+		}
+	}
+	
+	private static int Channel(float c)
+	{
+		return c <= 0.0f ? 0 : c >= 1.0f ? 255 : (int)(c*255.0f + 0.5f);
+	}
+	
+	private TextureImage GetTexture(Texture texture)
+	{
+		if (textures.containsKey(texture))
+			return textures.get(texture);
+		
+		TextureImage textureImage = null;
+		ImageComponent level = texture.getImage(0);
+		
+		if (level instanceof ImageComponent2D && ((ImageComponent2D)level).getImage() != null)
+			textureImage = new TextureImage(((ImageComponent2D)level).getImage(), level.isYUp());
+		
+		textures.put(texture, textureImage);
+		return textureImage;
+	}
+	
+	// row major 4x4 a * b into out
+	private static double[] Multiply(double[] a, double[] b, double[] out)
+	{
+		for (int r = 0; r < 4; r++)
+			for (int c = 0; c < 4; c++)
+				out[r*4 + c] = a[r*4]*b[c] + a[r*4 + 1]*b[4 + c] + a[r*4 + 2]*b[8 + c] + a[r*4 + 3]*b[12 + c];
+		
+		return out;
+	}
+	
+	
+	
+	// a texture's first level as packed RGB, sampled nearest with wrapping
+	private static class TextureImage
+	{
+		private final int[] texels;
+		private final int width, height;
+		private final boolean yUp;
+		
+		TextureImage(BufferedImage image, boolean yUp)
+		{
+			width = image.getWidth();
+			height = image.getHeight();
+			texels = image.getRGB(0, 0, width, height, null, 0, width);
+			this.yUp = yUp;
+		}
+		
+		int Sample(float u, float v)
+		{
+			u -= (float)Math.floor(u);
+			v -= (float)Math.floor(v);
+			
+			// t = 0 is the bottom of the image unless its rows are stored bottom up
+			int x = Math.min((int)(u*width), width - 1);
+			int y = Math.min((int)((yUp ? v : 1.0f - v)*height), height - 1);
+			
+			return texels[y*width + x];
+		}
+	}
+}
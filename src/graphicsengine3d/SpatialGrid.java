@@ -0,0 +1,598 @@
+package graphicsengine3d;
+
+import java.util.List;
+
+/**
+ * @author Mike
+ * Uniform grid over the positions of a scene's objects. Objects are moved between cells as their position changes,
+ * so queries only look at the cells they cover instead of every object. Objects are treated as points.
+ * Cells are freed once they are empty. Cell coordinates are kept within about a million cells of the origin,
+ * objects further out share the outermost cells.
+ * The grid is not thread safe, query it from the thread that moves the objects.
+ * @see Scene3D#UseSpatialIndex(float)
+ */
+public class SpatialGrid
+{
+	// cell coordinates are packed 21 bits each into a key
+	private static final int MIN_CELL = -(1 << 20);
+	private static final int MAX_CELL = (1 << 20) - 1;
+	
+	// emptied cells kept for reuse, so objects crossing between cells do not allocate
+	private static final int SPARE_CELLS = 64;
+	
+	private float cellSize;
+	private float invCellSize;
+	
+	// open addressing table of cells by key
+	private long[] keys = new long[64];
+	private Cell[] table = new Cell[64];
+	private Cell[] cells = new Cell[32];
+	private int cellCount = 0;
+	private int objectCount = 0;
+	
+	private Cell[] spare = new Cell[SPARE_CELLS];
+	private int spareCount = 0;
+	
+	// bounds of the cell coordinates that have been used, so searches know when to stop
+	private int minCX = Integer.MAX_VALUE, minCY = Integer.MAX_VALUE, minCZ = Integer.MAX_VALUE;
+	private int maxCX = Integer.MIN_VALUE, maxCY = Integer.MIN_VALUE, maxCZ = Integer.MIN_VALUE;
+	
+	// k nearest scratch heap
+	private Object3D[] heapObjects = new Object3D[16];
+	private double[] heapDists = new double[16];
+	
+	/**
+	 * Creates an empty grid.
+	 * @param cellSize Width of a cell. About the size of a typical query works well.
+	 */
+	public SpatialGrid(float cellSize)
+	{
+		this.cellSize = cellSize;
+		invCellSize = 1.0f/cellSize;
+	}
+	
+	/**
+	 * Gets the width of a cell.
+	 * @return Cell size
+	 */
+	public float GetCellSize()
+	{ return cellSize; }
+	
+	/**
+	 * Gets the number of objects in the grid.
+	 * @return Number of objects
+	 */
+	public int GetSize()
+	{ return objectCount; }
+	
+	/**
+	 * Gets the number of cells holding objects.
+	 * @return Number of cells
+	 */
+	public int GetCellCount()
+	{ return cellCount; }
+	
+	
+	
+	//*********************************************************************************
+	//Queries
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Finds the objects whose position is inside a box.
+	 * @param minX Lowest X
+	 * @param minY Lowest Y
+	 * @param minZ Lowest Z
+	 * @param maxX Highest X
+	 * @param maxY Highest Y
+	 * @param maxZ Highest Z
+	 * @param result List the objects are added to
+	 * @return Number of objects added
+	 */
+	public int QueryBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, List<Object3D> result)
+	{
+		int x0 = CellCoord(minX), y0 = CellCoord(minY), z0 = CellCoord(minZ);
+		int x1 = CellCoord(maxX), y1 = CellCoord(maxY), z1 = CellCoord(maxZ);
+		int found = 0;
+		
+		if ((long)(x1 - x0 + 1)*(y1 - y0 + 1)*(z1 - z0 + 1) > cellCount)
+		{
+			// the box covers more cells than exist, look at the cells that exist instead
+			for (int c = 0; c < cellCount; c++)
+				found += BoxCell(cells[c], minX, minY, minZ, maxX, maxY, maxZ, result);
+			
+			return found;
+		}
+		
+		for (int cx = x0; cx <= x1; cx++)
+			for (int cy = y0; cy <= y1; cy++)
+				for (int cz = z0; cz <= z1; cz++)
+					found += BoxCell(GetCell(cx, cy, cz), minX, minY, minZ, maxX, maxY, maxZ, result);
+		
+		return found;
+	}
+	
+	/**
+	 * Finds the objects whose position is within a distance of a point.
+	 * @param x X position
+	 * @param y Y position
+	 * @param z Z position
+	 * @param radius Distance
+	 * @param result List the objects are added to
+	 * @return Number of objects added
+	 */
+	public int QueryRadius(float x, float y, float z, float radius, List<Object3D> result)
+	{
+		int x0 = CellCoord(x - radius), y0 = CellCoord(y - radius), z0 = CellCoord(z - radius);
+		int x1 = CellCoord(x + radius), y1 = CellCoord(y + radius), z1 = CellCoord(z + radius);
+		float radiusSq = radius*radius;
+		int found = 0;
+		
+		if ((long)(x1 - x0 + 1)*(y1 - y0 + 1)*(z1 - z0 + 1) > cellCount)
+		{
+			for (int c = 0; c < cellCount; c++)
+				found += RadiusCell(cells[c], x, y, z, radiusSq, result);
+			
+			return found;
+		}
+		
+		for (int cx = x0; cx <= x1; cx++)
+			for (int cy = y0; cy <= y1; cy++)
+				for (int cz = z0; cz <= z1; cz++)
+					found += RadiusCell(GetCell(cx, cy, cz), x, y, z, radiusSq, result);
+		
+		return found;
+	}
+	
+	/**
+	 * Finds the objects nearest to a point, nearest first.
+	 * @param x X position
+	 * @param y Y position
+	 * @param z Z position
+	 * @param k Most objects to find
+	 * @param result List the objects are added to
+	 * @return Number of objects added
+	 */
+	public int QueryNearest(float x, float y, float z, int k, List<Object3D> result)
+	{
+		if (k <= 0 || objectCount == 0)
+			return 0;
+		
+		if (heapObjects.length < k)
+		{
+			heapObjects = new Object3D[k];
+			heapDists = new double[k];
+		}
+		
+		int cx = CellCoord(x), cy = CellCoord(y), cz = CellCoord(z);
+		int heapSize = 0;
+		
+		// the furthest shell that can hold anything
+		int maxShell = Math.max(Math.max(Math.max(cx - minCX, maxCX - cx), Math.max(cy - minCY, maxCY - cy)), Math.max(cz - minCZ, maxCZ - cz));
+		
+		// look at shells of cells around the point's cell, the point can be anywhere in its cell
+		// so an object not yet seen in shell s or further out is at least s - 1 cells away
+		for (int s = 0; s <= maxShell; s++)
+		{
+			double reach = (double)(s - 1)*cellSize;
+			
+			if (heapSize == k && s > 0 && heapDists[0] <= reach*reach)
+				break;
+			
+			if ((long)(2*s + 1)*(2*s + 1)*(2*s + 1) > cellCount)
+			{
+				// the shells cover more cells than exist, look at the cells that exist instead
+				heapSize = 0;
+				
+				for (int c = 0; c < cellCount; c++)
+					heapSize = NearestCell(cells[c], x, y, z, k, heapSize);
+				
+				break;
+			}
+			
+			for (int dx = -s; dx <= s; dx++)
+			{
+				for (int dy = -s; dy <= s; dy++)
+				{
+					boolean edge = dx == -s || dx == s || dy == -s || dy == s;
+					int dzStep = edge ? 1 : Math.max(2*s, 1);
+					
+					for (int dz = -s; dz <= s; dz += dzStep)
+					{
+						Cell cell = GetCell(cx + dx, cy + dy, cz + dz);
+						
+						if (cell != null)
+							heapSize = NearestCell(cell, x, y, z, k, heapSize);
+					}
+				}
+			}
+		}
+		
+		// empty the heap furthest first into the end of the result
+		int start = result.size();
+		
+		for (int i = 0; i < heapSize; i++)
+			result.add(null);
+		
+		for (int i = heapSize - 1; i >= 0; i--)
+		{
+			result.set(start + i, heapObjects[0]);
+			heapObjects[0] = heapObjects[i];
+			heapDists[0] = heapDists[i];
+			heapObjects[i] = null;
+			SiftDown(0, i);
+		}
+		
+		return heapSize;
+	}
+	
+	private int BoxCell(Cell cell, float minX, float minY, float minZ, float maxX, float maxY, float maxZ, List<Object3D> result)
+	{
+		if (cell == null)
+			return 0;
+		
+		int found = 0;
+		
+		for (int i = 0; i < cell.count; i++)
+		{
+			Object3D o = cell.objects[i];
+			TransformStore st = o.store;
+			float px = st.posX[o.slot], py = st.posY[o.slot], pz = st.posZ[o.slot];
+			
+			if (px >= minX && px <= maxX && py >= minY && py <= maxY && pz >= minZ && pz <= maxZ)
+			{
+				result.add(o);
+				found++;
+			}
+		}
+		
+		return found;
+	}
+	
+	private int RadiusCell(Cell cell, float x, float y, float z, float radiusSq, List<Object3D> result)
+	{
+		if (cell == null)
+			return 0;
+		
+		int found = 0;
+		
+		for (int i = 0; i < cell.count; i++)
+		{
+			Object3D o = cell.objects[i];
+			TransformStore st = o.store;
+			float dx = st.posX[o.slot] - x, dy = st.posY[o.slot] - y, dz = st.posZ[o.slot] - z;
+			
+			if (dx*dx + dy*dy + dz*dz <= radiusSq)
+			{
+				result.add(o);
+				found++;
+			}
+		}
+		
+		return found;
+	}
+	
+	// adds a cell's objects to the max heap of the k nearest found so far
+	private int NearestCell(Cell cell, float x, float y, float z, int k, int heapSize)
+	{
+		for (int i = 0; i < cell.count; i++)
+		{
+			Object3D o = cell.objects[i];
+			TransformStore st = o.store;
+			double dx = st.posX[o.slot] - x, dy = st.posY[o.slot] - y, dz = st.posZ[o.slot] - z;
+			double dist = dx*dx + dy*dy + dz*dz;
+			
+			if (heapSize < k)
+			{
+				// sift up
+				int child = heapSize++;
+				
+				while (child > 0 && heapDists[(child - 1)/2] < dist)
+				{
+					heapObjects[child] = heapObjects[(child - 1)/2];
+					heapDists[child] = heapDists[(child - 1)/2];
+					child = (child - 1)/2;
+				}
+				
+				heapObjects[child] = o;
+				heapDists[child] = dist;
+			}
+			else if (dist < heapDists[0])
+			{
+				heapObjects[0] = o;
+				heapDists[0] = dist;
+				SiftDown(0, heapSize);
+			}
+		}
+		
+		return heapSize;
+	}
+	
+	private void SiftDown(int parent, int size)
+	{
+		Object3D o = heapObjects[parent];
+		double dist = heapDists[parent];
+		
+		while (true)
+		{
+			int child = parent*2 + 1;
+			
+			if (child >= size)
+				break;
+			
+			if (child + 1 < size && heapDists[child + 1] > heapDists[child])
+				child++;
+			
+			if (heapDists[child] <= dist)
+				break;
+			
+			heapObjects[parent] = heapObjects[child];
+			heapDists[parent] = heapDists[child];
+			parent = child;
+		}
+		
+		heapObjects[parent] = o;
+		heapDists[parent] = dist;
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Objects
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Puts an object in the cell of its position.
+	 * @param object3D Object
+	 */
+	void Insert(Object3D object3D)
+	{
+		TransformStore st = object3D.store;
+		int cx = CellCoord(st.posX[object3D.slot]);
+		int cy = CellCoord(st.posY[object3D.slot]);
+		int cz = CellCoord(st.posZ[object3D.slot]);
+		
+		Cell cell = GetCell(cx, cy, cz);
+		
+		if (cell == null)
+			cell = AddCell(cx, cy, cz);
+		
+		cell.Add(object3D);
+		objectCount++;
+	}
+	
+	/**
+	 * Takes an object out of the grid.
+	 * @param object3D Object
+	 */
+	void Remove(Object3D object3D)
+	{
+		Cell cell = object3D.gridCell;
+		
+		if (cell == null)
+			return;
+		
+		cell.Remove(object3D);
+		objectCount--;
+		
+		if (cell.count == 0)
+			FreeCell(cell);
+	}
+	
+	/**
+	 * Moves an object to another cell if its position left its cell.
+	 * @param object3D Object
+	 */
+	void Update(Object3D object3D)
+	{
+		Cell cell = object3D.gridCell;
+		
+		if (cell == null)
+			return;
+		
+		TransformStore st = object3D.store;
+		
+		if (CellCoord(st.posX[object3D.slot]) != cell.cx || CellCoord(st.posY[object3D.slot]) != cell.cy || CellCoord(st.posZ[object3D.slot]) != cell.cz)
+		{
+			Remove(object3D);
+			Insert(object3D);
+		}
+	}
+	
+	// clamped so far off positions land in the outermost cells instead of wrapping around in the key
+	private int CellCoord(float v)
+	{
+		return (int)Math.max(MIN_CELL, Math.min(MAX_CELL, Math.floor(v*invCellSize)));
+	}
+	
+	private static long Key(int cx, int cy, int cz)
+	{
+		return ((long)(cx - MIN_CELL) << 42) | ((long)(cy - MIN_CELL) << 21) | (cz - MIN_CELL);
+	}
+	
+	private int Hash(long key)
+	{
+		long h = key*0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32)) & (table.length - 1);
+	}
+	
+	private Cell GetCell(int cx, int cy, int cz)
+	{
+		if (cx < MIN_CELL || cx > MAX_CELL || cy < MIN_CELL || cy > MAX_CELL || cz < MIN_CELL || cz > MAX_CELL)
+			return null;		// searches can step past the outermost cells
+		
+		long key = Key(cx, cy, cz);
+		int i = Hash(key);
+		
+		while (table[i] != null)
+		{
+			if (keys[i] == key)
+				return table[i];
+			
+			i = (i + 1) & (table.length - 1);
+		}
+		
+		return null;
+	}
+	
+	private Cell AddCell(int cx, int cy, int cz)
+	{
+		if ((cellCount + 1)*2 > table.length)
+			GrowTable();
+		
+		Cell cell;
+		
+		if (spareCount > 0)
+		{
+			cell = spare[--spareCount];
+			spare[spareCount] = null;
+			cell.Set(cx, cy, cz);
+		}
+		else
+			cell = new Cell(cx, cy, cz);
+		
+		long key = Key(cx, cy, cz);
+		int i = Hash(key);
+		
+		while (table[i] != null)
+			i = (i + 1) & (table.length - 1);
+		
+		keys[i] = key;
+		table[i] = cell;
+		
+		if (cellCount == cells.length)
+		{
+			Cell[] newCells = new Cell[cells.length*2];
+			System.arraycopy(cells, 0, newCells, 0, cellCount);
+			cells = newCells;
+		}
+		
+		cell.index = cellCount;
+		cells[cellCount++] = cell;
+		
+		minCX = Math.min(minCX, cx); maxCX = Math.max(maxCX, cx);
+		minCY = Math.min(minCY, cy); maxCY = Math.max(maxCY, cy);
+		minCZ = Math.min(minCZ, cz); maxCZ = Math.max(maxCZ, cz);
+		
+		return cell;
+	}
+	
+	// takes an empty cell out of the table, moving back the cells after it that probed past it
+	private void FreeCell(Cell cell)
+	{
+		int mask = table.length - 1;
+		int i = Hash(Key(cell.cx, cell.cy, cell.cz));
+		
+		while (table[i] != cell)
+			i = (i + 1) & mask;
+		
+		table[i] = null;
+		
+		for (int j = (i + 1) & mask; table[j] != null; j = (j + 1) & mask)
+		{
+			int home = Hash(keys[j]);
+			
+			// leave the cell where it is if its home slot is after the hole, going round from the hole to it
+			if (((j - home) & mask) < ((j - i) & mask))
+				continue;
+			
+			keys[i] = keys[j];
+			table[i] = table[j];
+			table[j] = null;
+			i = j;
+		}
+		
+		int last = --cellCount;
+		
+		if (cell.index != last)
+		{
+			cells[cell.index] = cells[last];
+			cells[cell.index].index = cell.index;
+		}
+		
+		cells[last] = null;
+		
+		if (spareCount < SPARE_CELLS)
+			spare[spareCount++] = cell;
+	}
+	
+	private void GrowTable()
+	{
+		long[] oldKeys = keys;
+		Cell[] oldTable = table;
+		
+		keys = new long[oldKeys.length*2];
+		table = new Cell[oldTable.length*2];
+		
+		for (int j = 0; j < oldTable.length; j++)
+		{
+			if (oldTable[j] == null)
+				continue;
+			
+			int i = Hash(oldKeys[j]);
+			
+			while (table[i] != null)
+				i = (i + 1) & (table.length - 1);
+			
+			keys[i] = oldKeys[j];
+			table[i] = oldTable[j];
+		}
+	}
+	
+	
+	
+	// the objects in one cell, each object knows its index so removal is a swap with the last
+	static class Cell
+	{
+		int cx, cy, cz;
+		Object3D[] objects = new Object3D[4];
+		int count = 0;
+		
+		// index in the grid's list of cells
+		int index = -1;
+		
+		Cell(int cx, int cy, int cz)
+		{
+			Set(cx, cy, cz);
+		}
+		
+		void Set(int cx, int cy, int cz)
+		{
+			this.cx = cx;
+			this.cy = cy;
+			this.cz = cz;
+		}
+		
+		void Add(Object3D object3D)
+		{
+			if (count == objects.length)
+			{
+				Object3D[] newObjects = new Object3D[objects.length*2];
+				System.arraycopy(objects, 0, newObjects, 0, count);
+				objects = newObjects;
+			}
+			
+			object3D.gridCell = this;
+			object3D.gridIndex = count;
+			objects[count++] = object3D;
+		}
+		
+		void Remove(Object3D object3D)
+		{
+			int index = object3D.gridIndex;
+			int last = --count;
+			
+			if (index != last)
+			{
+				objects[index] = objects[last];
+				objects[index].gridIndex = index;
+			}
+			
+			objects[last] = null;
+			object3D.gridCell = null;
+			object3D.gridIndex = -1;
+		}
+	}
+}
@@ -0,0 +1,621 @@
+package graphicsengine3d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+import javax.media.j3d.Appearance;
+import javax.media.j3d.BranchGroup;
+import javax.media.j3d.CapabilityNotSetException;
+import javax.media.j3d.Geometry;
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.GeometryStripArray;
+import javax.media.j3d.Group;
+import javax.media.j3d.IndexedGeometryArray;
+import javax.media.j3d.IndexedGeometryStripArray;
+import javax.media.j3d.IndexedQuadArray;
+import javax.media.j3d.IndexedTriangleArray;
+import javax.media.j3d.IndexedTriangleFanArray;
+import javax.media.j3d.IndexedTriangleStripArray;
+import javax.media.j3d.Node;
+import javax.media.j3d.QuadArray;
+import javax.media.j3d.Shape3D;
+import javax.media.j3d.SharedGroup;
+import javax.media.j3d.Switch;
+import javax.media.j3d.Transform3D;
+import javax.media.j3d.TransformGroup;
+import javax.media.j3d.TriangleArray;
+import javax.media.j3d.TriangleFanArray;
+import javax.media.j3d.TriangleStripArray;
+
+/**
+ * @author Mike
+ * Merges the geometry of a scene's static objects into one Shape3D per Appearance and vertex format, so a
+ * level full of props is drawn with about one draw per material. Each object's triangles are moved into world
+ * space when it is added, and each batch remembers which vertices came from which object so removing an object
+ * only rebuilds the batches it was in.
+ * <p>
+ * Only triangle, quad, strip and fan arrays that are not by reference are merged, with coordinates, normals,
+ * colors and one set of 2D texture coordinates. Objects holding anything else are left as they are, so are
+ * objects whose nodes or geometry cannot be read because they are live or compiled without the read capabilities.
+ * @see Object3D#SetStatic(boolean)
+ */
+class StaticBatcher
+{
+	static final int SUPPORTED = GeometryArray.COORDINATES | GeometryArray.NORMALS | GeometryArray.COLOR_4 | GeometryArray.TEXTURE_COORDINATE_2;
+	
+	private Group group;
+	private HashMap<BatchKey, Batch> batches = new HashMap<BatchKey, Batch>();
+	
+	// scratch for an object's parts while it is collected
+	private ArrayList<Shape3D> partShapes = new ArrayList<Shape3D>();
+	private ArrayList<GeometryArray> partGeometries = new ArrayList<GeometryArray>();
+	private ArrayList<double[]> partMats = new ArrayList<double[]>();
+	private Transform3D t3d = new Transform3D();
+	
+	/**
+	 * Creates a batcher that adds its batches to a group.
+	 * @param group Group the batches are added to. Needs ALLOW_CHILDREN_EXTEND and ALLOW_CHILDREN_WRITE
+	 */
+	StaticBatcher(Group group)
+	{
+		this.group = group;
+	}
+	
+	/**
+	 * Merges an object's geometry into the batches and takes its node out of its TransformGroup.
+	 * Only call this while the batches are not live.
+	 * @param object3D Object
+	 * @return If the object was merged, false if it holds something that cannot be merged or read
+	 */
+	boolean Add(Object3D object3D)
+	{
+		double[] mat = new double[16];
+		ArrayList<Batch> objectBatches = new ArrayList<Batch>();
+		
+		try
+		{
+			object3D.trans.getTransform(t3d);
+			t3d.get(mat);
+			
+			partShapes.clear();
+			partGeometries.clear();
+			partMats.clear();
+			
+			if (!Collect(object3D.node, mat))
+				return false;
+			
+			for (int i = 0; i < partShapes.size(); i++)
+			{
+				Appearance appearance = partShapes.get(i).getAppearance();
+				GeometryArray geometry = partGeometries.get(i);
+				int format = geometry.getVertexFormat() & SUPPORTED;
+				
+				BatchKey key = new BatchKey(appearance, format);
+				Batch batch = batches.get(key);
+				
+				if (batch == null)
+				{
+					batch = new Batch(appearance, format);
+					batches.put(key, batch);
+					group.addChild(batch.branch);
+				}
+				
+				if (!objectBatches.contains(batch))
+					objectBatches.add(batch);
+				
+				batch.Append(object3D, geometry, partMats.get(i));
+			}
+		}
+		catch (CapabilityNotSetException e)
+		{
+			// take back the parts already appended, the batches' committed geometry was not touched
+			for (int i = 0; i < objectBatches.size(); i++)
+				objectBatches.get(i).Remove(object3D);
+			
+			return false;
+		}
+		
+		for (int i = 0; i < objectBatches.size(); i++)
+			objectBatches.get(i).Commit();
+		
+		object3D.batches = objectBatches.toArray(new Batch[objectBatches.size()]);
+		object3D.trans.removeChild(object3D.node);
+		return true;
+	}
+	
+	/**
+	 * Takes an object's geometry out of the batches it is in and rebuilds only those batches.
+	 * @param object3D Object
+	 */
+	void Remove(Object3D object3D)
+	{
+		if (object3D.batches == null)
+			return;
+		
+		for (int i = 0; i < object3D.batches.length; i++)
+		{
+			object3D.batches[i].Remove(object3D);
+			object3D.batches[i].Commit();
+		}
+		
+		object3D.batches = null;
+	}
+	
+	/**
+	 * Drops every batch. The objects in them are no longer batched.
+	 */
+	void Clear()
+	{
+		for (Batch batch : batches.values())
+		{
+			for (int i = 0; i < batch.ownerCount; i++)
+				batch.owners[i].batches = null;
+		}
+		
+		batches.clear();
+		group.removeAllChildren();
+	}
+	
+	/**
+	 * Gets the batches, including empty ones.
+	 * @return Batches
+	 */
+	Collection<Batch> GetBatches()
+	{ return batches.values(); }
+	
+	/**
+	 * Gets the number of batches holding geometry.
+	 * @return Number of batches
+	 */
+	int GetBatchCount()
+	{
+		int count = 0;
+		
+		for (Batch batch : batches.values())
+		{
+			if (batch.vertexCount > 0)
+				count++;
+		}
+		
+		return count;
+	}
+	
+	// finds the shapes under a node with their transforms, false if something cannot be merged
+	private boolean Collect(Node node, double[] mat)
+	{
+		if (node instanceof Shape3D)
+		{
+			Shape3D shape = (Shape3D)node;
+			
+			for (int i = 0; i < shape.numGeometries(); i++)
+			{
+				Geometry geometry = shape.getGeometry(i);
+				
+				if (geometry == null)
+					continue;
+				
+				if (!Supported(geometry))
+					return false;
+				
+				partShapes.add(shape);
+				partGeometries.add((GeometryArray)geometry);
+				partMats.add(mat);
+			}
+			
+			return true;
+		}
+		
+		// switches and links choose what is drawn at run time, so they cannot be merged
+		if (!(node instanceof Group) || node instanceof Switch || node instanceof SharedGroup)
+			return false;
+		
+		double[] childMat = mat;
+		
+		if (node instanceof TransformGroup)
+		{
+			double[] local = new double[16];
+			((TransformGroup)node).getTransform(t3d);
+			t3d.get(local);
+			
+			childMat = new double[16];
+			
+			for (int r = 0; r < 4; r++)
+				for (int c = 0; c < 4; c++)
+					childMat[r*4 + c] = mat[r*4]*local[c] + mat[r*4 + 1]*local[4 + c] + mat[r*4 + 2]*local[8 + c] + mat[r*4 + 3]*local[12 + c];
+		}
+		
+		Group group = (Group)node;
+		
+		for (int i = 0; i < group.numChildren(); i++)
+		{
+			if (!Collect(group.getChild(i), childMat))
+				return false;
+		}
+		
+		return true;
+	}
+	
+	static boolean Supported(Geometry geometry)
+	{
+		if (!(geometry instanceof TriangleArray || geometry instanceof QuadArray
+			|| geometry instanceof TriangleStripArray || geometry instanceof TriangleFanArray
+			|| geometry instanceof IndexedTriangleArray || geometry instanceof IndexedQuadArray
+			|| geometry instanceof IndexedTriangleStripArray || geometry instanceof IndexedTriangleFanArray))
+			return false;
+		
+		GeometryArray array = (GeometryArray)geometry;
+		int format = array.getVertexFormat();
+		int unsupported = GeometryArray.BY_REFERENCE | GeometryArray.INTERLEAVED | GeometryArray.USE_NIO_BUFFER
+			| GeometryArray.TEXTURE_COORDINATE_3 | GeometryArray.TEXTURE_COORDINATE_4;
+		
+		if ((format & unsupported) != 0)
+			return false;
+		
+		if ((format & GeometryArray.TEXTURE_COORDINATE_2) != 0 && array.getTexCoordSetCount() != 1)
+			return false;
+		
+		return true;
+	}
+	
+	
+	
+	// the positions, three per triangle, of the vertices or indices of a geometry array that make its triangles
+	private static int[] Triangles(GeometryArray geometry, int count)
+	{
+		int[] strips = null;
+		
+		if (geometry instanceof GeometryStripArray)
+		{
+			strips = new int[((GeometryStripArray)geometry).getNumStrips()];
+			((GeometryStripArray)geometry).getStripVertexCounts(strips);
+		}
+		else if (geometry instanceof IndexedGeometryStripArray)
+		{
+			strips = new int[((IndexedGeometryStripArray)geometry).getNumStrips()];
+			((IndexedGeometryStripArray)geometry).getStripIndexCounts(strips);
+		}
+		
+		if (strips == null)
+		{
+			if (geometry instanceof QuadArray || geometry instanceof IndexedQuadArray)
+			{
+				int[] tris = new int[count/4*6];
+				
+				for (int q = 0, t = 0; q + 3 < count; q += 4)
+				{
+					tris[t++] = q;     tris[t++] = q + 1; tris[t++] = q + 2;
+					tris[t++] = q;     tris[t++] = q + 2; tris[t++] = q + 3;
+				}
+				
+				return tris;
+			}
+			
+			int[] tris = new int[count/3*3];
+			
+			for (int t = 0; t < tris.length; t++)
+				tris[t] = t;
+			
+			return tris;
+		}
+		
+		boolean fan = geometry instanceof TriangleFanArray || geometry instanceof IndexedTriangleFanArray;
+		int total = 0;
+		
+		for (int i = 0; i < strips.length; i++)
+			total += Math.max(strips[i] - 2, 0);
+		
+		int[] tris = new int[total*3];
+		int t = 0, offset = 0;
+		
+		for (int i = 0; i < strips.length; i++)
+		{
+			for (int v = 0; v < strips[i] - 2; v++)
+			{
+				if (fan)
+				{
+					tris[t++] = offset; tris[t++] = offset + v + 1; tris[t++] = offset + v + 2;
+				}
+				else if ((v & 1) == 0)
+				{
+					tris[t++] = offset + v; tris[t++] = offset + v + 1; tris[t++] = offset + v + 2;
+				}
+				else
+				{
+					// every other strip triangle is wound the other way
+					tris[t++] = offset + v + 1; tris[t++] = offset + v; tris[t++] = offset + v + 2;
+				}
+			}
+			
+			offset += strips[i];
+		}
+		
+		return tris;
+	}
+	
+	
+	
+	// one merged shape and the range of its vertices each object added
+	static class Batch
+	{
+		final int format;
+		final int colorSize;
+		final BranchGroup branch = new BranchGroup();
+		final Shape3D shape = new Shape3D();
+		
+		float[] coords = new float[0];
+		float[] normals, colors, texCoords;
+		int vertexCount = 0;
+		
+		Object3D[] owners = new Object3D[4];
+		int[] starts = new int[4];
+		int[] lengths = new int[4];
+		int ownerCount = 0;
+		
+		Batch(Appearance appearance, int format)
+		{
+			this.format = format;
+			colorSize = (format & GeometryArray.COLOR_4) == GeometryArray.COLOR_4 ? 4 : 3;
+			
+			if ((format & GeometryArray.NORMALS) != 0)
+				normals = new float[0];
+			
+			if ((format & GeometryArray.COLOR_3) != 0)
+				colors = new float[0];
+			
+			if ((format & GeometryArray.TEXTURE_COORDINATE_2) != 0)
+				texCoords = new float[0];
+			
+			shape.setAppearance(appearance);
+			shape.setCapability(Shape3D.ALLOW_GEOMETRY_WRITE);
+			branch.setCapability(BranchGroup.ALLOW_DETACH);
+			branch.addChild(shape);
+		}
+		
+		// adds a geometry's triangles moved into world space by a row major matrix
+		void Append(Object3D object3D, GeometryArray geometry, double[] m)
+		{
+			boolean indexed = geometry instanceof IndexedGeometryArray;
+			IndexedGeometryArray ig = indexed ? (IndexedGeometryArray)geometry : null;
+			
+			int count = indexed ? ig.getValidIndexCount() : geometry.getValidVertexCount();
+			int first = indexed ? ig.getInitialIndexIndex() : geometry.getInitialVertexIndex();
+			int vertices = indexed ? geometry.getVertexCount() : count;
+			int from = indexed ? 0 : first;
+			
+			// the source's data, indexed arrays have their whole vertex list read
+			float[] srcCoords = new float[vertices*3];
+			geometry.getCoordinates(from, srcCoords);
+			
+			float[] srcNormals = null, srcColors = null, srcTex = null;
+			
+			if (normals != null)
+			{
+				srcNormals = new float[vertices*3];
+				geometry.getNormals(from, srcNormals);
+			}
+			
+			if (colors != null)
+			{
+				srcColors = new float[vertices*colorSize];
+				geometry.getColors(from, srcColors);
+			}
+			
+			if (texCoords != null)
+			{
+				srcTex = new float[vertices*2];
+				geometry.getTextureCoordinates(0, from, srcTex);
+			}
+			
+			int[] coordIdx = null, normalIdx = null, colorIdx = null, texIdx = null;
+			
+			if (indexed)
+			{
+				coordIdx = new int[count];
+				ig.getCoordinateIndices(first, coordIdx);
+				
+				if ((geometry.getVertexFormat() & GeometryArray.USE_COORD_INDEX_ONLY) != 0)
+				{
+					normalIdx = coordIdx;
+					colorIdx = coordIdx;
+					texIdx = coordIdx;
+				}
+				else
+				{
+					if (normals != null)
+						ig.getNormalIndices(first, normalIdx = new int[count]);
+					
+					if (colors != null)
+						ig.getColorIndices(first, colorIdx = new int[count]);
+					
+					if (texCoords != null)
+						ig.getTextureCoordinateIndices(0, first, texIdx = new int[count]);
+				}
+			}
+			
+			int[] tris = Triangles(geometry, count);
+			Grow(vertexCount + tris.length);
+			
+			// normals are moved by the cofactors of the rotation and scale part, the inverse transpose times the determinant
+			double c00 = m[5]*m[10] - m[6]*m[9], c01 = m[6]*m[8] - m[4]*m[10], c02 = m[4]*m[9] - m[5]*m[8];
+			double c10 = m[2]*m[9] - m[1]*m[10], c11 = m[0]*m[10] - m[2]*m[8], c12 = m[1]*m[8] - m[0]*m[9];
+			double c20 = m[1]*m[6] - m[2]*m[5], c21 = m[2]*m[4] - m[0]*m[6], c22 = m[0]*m[5] - m[1]*m[4];
+			double sign = m[0]*c00 + m[1]*c01 + m[2]*c02 < 0.0d ? -1.0d : 1.0d;
+			
+			int v = vertexCount;
+			
+			for (int t = 0; t < tris.length; t++, v++)
+			{
+				int p = tris[t];
+				int ci = indexed ? coordIdx[p] : p;
+				double x = srcCoords[ci*3], y = srcCoords[ci*3 + 1], z = srcCoords[ci*3 + 2];
+				
+				coords[v*3] = (float)(m[0]*x + m[1]*y + m[2]*z + m[3]);
+				coords[v*3 + 1] = (float)(m[4]*x + m[5]*y + m[6]*z + m[7]);
+				coords[v*3 + 2] = (float)(m[8]*x + m[9]*y + m[10]*z + m[11]);
+				
+				if (normals != null)
+				{
+					int ni = indexed ? normalIdx[p] : p;
+					double nx = srcNormals[ni*3], ny = srcNormals[ni*3 + 1], nz = srcNormals[ni*3 + 2];
+					double tx = c00*nx + c01*ny + c02*nz;
+					double ty = c10*nx + c11*ny + c12*nz;
+					double tz = c20*nx + c21*ny + c22*nz;
+					double len = Math.sqrt(tx*tx + ty*ty + tz*tz);
+					
+					if (len > 0.0d)
+						len = sign/len;
+					
+					normals[v*3] = (float)(tx*len);
+					normals[v*3 + 1] = (float)(ty*len);
+					normals[v*3 + 2] = (float)(tz*len);
+				}
+				
+				if (colors != null)
+				{
+					int ki = indexed ? colorIdx[p] : p;
+					System.arraycopy(srcColors, ki*colorSize, colors, v*colorSize, colorSize);
+				}
+				
+				if (texCoords != null)
+				{
+					int ti = indexed ? texIdx[p] : p;
+					texCoords[v*2] = srcTex[ti*2];
+					texCoords[v*2 + 1] = srcTex[ti*2 + 1];
+				}
+			}
+			
+			// an object's parts are added together, so its vertices stay in one range
+			if (ownerCount > 0 && owners[ownerCount - 1] == object3D)
+				lengths[ownerCount - 1] += tris.length;
+			else
+			{
+				if (ownerCount == owners.length)
+				{
+					owners = Arrays.copyOf(owners, ownerCount*2);
+					starts = Arrays.copyOf(starts, ownerCount*2);
+					lengths = Arrays.copyOf(lengths, ownerCount*2);
+				}
+				
+				owners[ownerCount] = object3D;
+				starts[ownerCount] = vertexCount;
+				lengths[ownerCount] = tris.length;
+				ownerCount++;
+			}
+			
+			vertexCount += tris.length;
+		}
+		
+		// takes an object's range out into new arrays, the old ones may still be drawn
+		void Remove(Object3D object3D)
+		{
+			int k = 0;
+			
+			while (k < ownerCount && owners[k] != object3D)
+				k++;
+			
+			if (k == ownerCount)
+				return;
+			
+			int start = starts[k], length = lengths[k];
+			int newCount = vertexCount - length;
+			
+			coords = Cut(coords, 3, start, length, newCount);
+			
+			if (normals != null)
+				normals = Cut(normals, 3, start, length, newCount);
+			
+			if (colors != null)
+				colors = Cut(colors, colorSize, start, length, newCount);
+			
+			if (texCoords != null)
+				texCoords = Cut(texCoords, 2, start, length, newCount);
+			
+			for (int i = k + 1; i < ownerCount; i++)
+			{
+				owners[i - 1] = owners[i];
+				starts[i - 1] = starts[i] - length;
+				lengths[i - 1] = lengths[i];
+			}
+			
+			owners[--ownerCount] = null;
+			vertexCount = newCount;
+		}
+		
+		// hands the arrays to a new geometry by reference, so they are not copied
+		void Commit()
+		{
+			if (vertexCount == 0)
+			{
+				shape.setGeometry(null);
+				return;
+			}
+			
+			TriangleArray geometry = new TriangleArray(vertexCount, format | GeometryArray.BY_REFERENCE);
+			geometry.setCoordRefFloat(coords);
+			
+			if (normals != null)
+				geometry.setNormalRefFloat(normals);
+			
+			if (colors != null)
+				geometry.setColorRefFloat(colors);
+			
+			if (texCoords != null)
+				geometry.setTexCoordRefFloat(0, texCoords);
+			
+			shape.setGeometry(geometry);
+		}
+		
+		private void Grow(int vertices)
+		{
+			if (coords.length >= vertices*3)
+				return;
+			
+			int capacity = Math.max(vertices, coords.length/3*2);
+			coords = Arrays.copyOf(coords, capacity*3);
+			
+			if (normals != null)
+				normals = Arrays.copyOf(normals, capacity*3);
+			
+			if (colors != null)
+				colors = Arrays.copyOf(colors, capacity*colorSize);
+			
+			if (texCoords != null)
+				texCoords = Arrays.copyOf(texCoords, capacity*2);
+		}
+		
+		private static float[] Cut(float[] data, int size, int start, int length, int newCount)
+		{
+			float[] cut = new float[newCount*size];
+			System.arraycopy(data, 0, cut, 0, start*size);
+			System.arraycopy(data, (start + length)*size, cut, start*size, (newCount - start)*size);
+			return cut;
+		}
+	}
+	
+	
+	
+	// appearance by reference and vertex format
+	private static class BatchKey
+	{
+		private final Appearance appearance;
+		private final int format;
+		
+		BatchKey(Appearance appearance, int format)
+		{
+			this.appearance = appearance;
+			this.format = format;
+		}
+		
+		public boolean equals(Object o)
+		{
+			return o instanceof BatchKey && ((BatchKey)o).appearance == appearance && ((BatchKey)o).format == format;
+		}
+		
+		public int hashCode()
+		{
+			return System.identityHashCode(appearance)*31 + format;
+		}
+	}
+}
@@ -1,10 +1,9 @@
 package graphicsengine3d;
 
-import java.awt.AWTException;
-import java.awt.Point;
-import java.awt.Robot;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.media.j3d.Appearance;
 import javax.media.j3d.Texture;
@@ -12,15 +11,12 @@ import javax.media.j3d.TextureAttributes;
 import javax.media.j3d.Transform3D;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
-import javax.swing.SwingUtilities;
 import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
 import javax.vecmath.Vector3f;
 
-import com.sun.j3d.utils.geometry.ColorCube;
 import com.sun.j3d.utils.geometry.Box;
 import com.sun.j3d.utils.geometry.Primitive;
-import com.sun.j3d.utils.image.TextureLoader;
 
 public class Test extends JFrame
 {
@@ -35,17 +31,13 @@ public class Test extends JFrame
 	private static Scene3D scene;
 	private static Object3D movingCube;
 	
-	private double camX = board_cols*cellsize/2, camY = board_rows*cellsize/2;
-	private double camRotXY = 0, camRotYZ = 0;
-	private double camZoom = 400;
+	private CameraController camera;
 	
 	private boolean dragging = false;
 	private boolean firstClick = true;
 	
 	private int keyDown = -1;
 	
-	private boolean fallowing = false;
-	
 	public static void main(String[] args)
 	{
 		new Test();
@@ -64,25 +56,57 @@ public class Test extends JFrame
 		// set the input listeners
 		GE3D.GetDefaultUniverse().SetKeyBoardListener(new KeyBoardListener());
 		GE3D.GetDefaultUniverse().SetMouseListener(new MouseListener());
+		GE3D.GetDefaultUniverse().SetInputPolling(true);
+		
+		// set up the camera, then start with an overview. The camera takes over once it is moved
+		camera = new CameraController(GE3D.GetDefaultUniverse());
+		camera.SetPosition(board_cols*cellsize/2, board_rows*cellsize/2, 0);
+		camera.SetDistance(400);
+		camera.SetPitchLimits(0.1, 1.5);
+		camera.Apply();
 		
-		// set the view
 		GE3D.GetDefaultUniverse().ViewLookAt(new Point3d(-200, -200, 1000), new Point3d(200, 200, 0));
 		
 		// create scene
 		scene = new Scene3D();
+		scene.SetCompileOnShow(true);		// only the moving cube changes after the scene is shown
 		
-		// crate objects and add them to the scene
-		movingCube = new Object3D(new ColorCube(10));
+		// start loading the board's texture, it is read while the cubes are made
+		Future<Texture> grass = GE3D.GetAssetManager().LoadTexture("grass.jpg");
+		
+		// crate objects and add them to the scene, the cubes share one copy of their geometry
+		GeometryCache cache = GE3D.GetGeometryCache();
+		movingCube = new Object3D(cache.GetColorCube(10), new Vector3f(board_cols*cellsize/2, board_rows*cellsize/2, 7));
 		
 		scene.AddObject(movingCube);
-		scene.AddObject(new Object3D(new ColorCube(10)));
-		scene.AddObject(new Object3D(new ColorCube(10), new Vector3f(board_cols*cellsize, 0, 0)));
-		scene.AddObject(new Object3D(new ColorCube(10), new Vector3f(board_cols*cellsize, board_rows*cellsize, 0)));
-		scene.AddObject(new Object3D(new ColorCube(10), new Vector3f(0, board_rows*cellsize, 0)));
-		scene.AddObject(new Object3D(new ColorCube(10), new Vector3f(board_cols*cellsize/2, board_rows*cellsize/2, 0)));
 		
-		// create a texture, transform it, apply it to an object an add it to the scene
-		Texture textImage = new TextureLoader("grass.jpg", this).getTexture();
+		// the engine moves the cube, the game loop only bounces it off the edges of the board
+		GE3D.GetKinematics().Add(movingCube);
+		GE3D.GetKinematics().SetVelocity(movingCube, 25, 100, 0);
+		
+		// the other cubes and the board never move, so they are merged into batches when the scene is shown
+		AddStaticObject(new Object3D(cache.GetColorCube(10)));
+		AddStaticObject(new Object3D(cache.GetColorCube(10), new Vector3f(board_cols*cellsize, 0, 0)));
+		AddStaticObject(new Object3D(cache.GetColorCube(10), new Vector3f(board_cols*cellsize, board_rows*cellsize, 0)));
+		AddStaticObject(new Object3D(cache.GetColorCube(10), new Vector3f(0, board_rows*cellsize, 0)));
+		AddStaticObject(new Object3D(cache.GetColorCube(10), new Vector3f(board_cols*cellsize/2, board_rows*cellsize/2, 0)));
+		
+		// transform the texture, apply it to an object an add it to the scene
+		Texture textImage = null;
+		
+		try
+		{
+			textImage = grass.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e)
+		{
+			System.err.println("Could not load grass.jpg: " + e.getCause());
+		}
+		
 		Appearance appearance = new Appearance();
 		
 		Transform3D textTrans = new Transform3D();
@@ -94,42 +118,50 @@ public class Test extends JFrame
 		appearance.setTexture(textImage);
 		appearance.setTextureAttributes(textureAttributes);
 		
-		scene.AddObject(new Object3D(new Box(board_cols*cellsize/2, board_rows*cellsize/2, 2, Primitive.GENERATE_TEXTURE_COORDS, appearance), new Vector3f(board_cols*cellsize/2, board_rows*cellsize/2, 0)));
+		AddStaticObject(new Object3D(new Box(board_cols*cellsize/2, board_rows*cellsize/2, 2, Primitive.GENERATE_TEXTURE_COORDS, appearance), new Vector3f(board_cols*cellsize/2, board_rows*cellsize/2, 0)));
 		
 		// show the scene
 		scene.Show();
 		
-		Vector3f pos = new Vector3f(board_cols*cellsize/2, board_rows*cellsize/2, 7);
-		float xv = 0.2f, yv = 0.8f;
+		// run the game loop on the engine's scheduler at the old 8ms step
+		GE3D.GetScheduler().SetUpdateRate(125);
+		GE3D.GetScheduler().AddListener(new GameLoop());
+		GE3D.GetScheduler().AddListener(camera);
+	}
+	
+	
+	
+	private void AddStaticObject(Object3D object3D)
+	{
+		object3D.SetStatic(true);
+		scene.AddObject(object3D);
+	}
+	
+	
+	
+	private class GameLoop extends FrameListener
+	{
+		private Vector3f velocity = new Vector3f();
 		
-		while(true)
+		public void Update(float step)
 		{
-			// move the cube around
-			pos.x += xv;
-			pos.y += yv;
+			// handle the input that came in since the last update
+			GE3D.GetDefaultUniverse().DispatchInput();
 			
-			movingCube.SetPosition(pos);
+			// bounce the cube off the edges of the board
+			Kinematics kinematics = GE3D.GetKinematics();
+			kinematics.GetVelocity(movingCube, velocity);
 			
-			if (fallowing)
-			{
-				camX = pos.x;
-				camY = pos.y;
-				
-				double camRotX = camX + Math.cos(camRotXY)*camZoom*Math.cos(camRotYZ);
-				double camRotY = camY + Math.sin(camRotXY)*camZoom*Math.cos(camRotYZ);
-				double camRotZ = 100 + Math.sin(camRotYZ)*camZoom;
-				
-				GE3D.GetDefaultUniverse().ViewLookAt(new Point3d(camRotX, camRotY, camRotZ), new Point3d(camX, camY, 0));
-			}
+			if (movingCube.GetX() < 0)
+				velocity.x = 25;
+			if (movingCube.GetX() > board_cols*cellsize)
+				velocity.x = -25;
+			if (movingCube.GetY() < 0)
+				velocity.y = 100;
+			if (movingCube.GetY() > board_rows*cellsize)
+				velocity.y = -100;
 			
-			if (pos.x < 0)
-				xv = 0.2f;
-			if (pos.x > board_cols*cellsize)
-				xv = -0.2f;
-			if (pos.y < 0)
-				yv = 0.8f;
-			if (pos.y > board_rows*cellsize)
-				yv = -0.8f;
+			kinematics.SetVelocity(movingCube, velocity.x, velocity.y, velocity.z);
 			
 			if (dragging)
 				mouseDragged();
@@ -137,40 +169,13 @@ public class Test extends JFrame
 			if (keyDown > -1)
 			{
 				if (keyDown == KeyEvent.VK_UP)
-				{
-					camX -= Math.cos(camRotXY) * 8;
-					camY -= Math.sin(camRotXY) * 8;
-				}
+					camera.Pan(8, 0);
 				else if (keyDown == KeyEvent.VK_DOWN)
-				{
-					camX += Math.cos(camRotXY) * 8;
-					camY += Math.sin(camRotXY) * 8;
-				}
+					camera.Pan(-8, 0);
 				else if (keyDown == KeyEvent.VK_LEFT)
-				{
-					camX -= Math.cos(camRotXY + Math.PI/2) * 8;
-					camY -= Math.sin(camRotXY + Math.PI/2) * 8;
-				}
+					camera.Pan(0, -8);
 				else if (keyDown == KeyEvent.VK_RIGHT)
-				{
-					camX += Math.cos(camRotXY + Math.PI/2) * 8;
-					camY += Math.sin(camRotXY + Math.PI/2) * 8;
-				}
-				
-				double camRotX = camX + Math.cos(camRotXY)*camZoom*Math.cos(camRotYZ);
-				double camRotY = camY + Math.sin(camRotXY)*camZoom*Math.cos(camRotYZ);
-				double camRotZ = Math.sin(camRotYZ)*camZoom;
-				
-				GE3D.GetDefaultUniverse().ViewLookAt(new Point3d(camRotX, camRotY, camRotZ), new Point3d(camX, camY, 0));
-			}
-			
-			try
-			{
-				Thread.currentThread().sleep(8);
-			}
-			catch(Exception e)
-			{
-				System.err.println(e); 
+					camera.Pan(0, 8);
 			}
 		}
 	}
@@ -214,70 +219,20 @@ public class Test extends JFrame
 	
 	public void mouseDragged()
 	{
-		Point mouse = getMousePosition();
-		
-		if (mouse == null)
-			return;
-		
-		SwingUtilities.convertPointToScreen(mouse, this);
-		
-		if (!firstClick)
-		{
-			double xy, yz;
-	
-			Point winPoint = new Point();
-			SwingUtilities.convertPointToScreen(winPoint, this);
-			
-			xy = (winPoint.x + this.getWidth()/2 - mouse.x)/400.0d;
-			yz = (winPoint.y + this.getHeight()/2 - mouse.y)/400.0d;
-			
-			camRotXY += xy;
-			camRotYZ -= yz;
-	
-			if (camRotYZ > 1.5)
-				camRotYZ = 1.5;
-	
-			if (camRotYZ < 0.1)
-				camRotYZ = 0.1;
-		}
-		else
-			firstClick = false;
-		
-		double camRotX = camX + Math.cos(camRotXY) * camZoom*Math.cos(camRotYZ);
-		double camRotY = camY + Math.sin(camRotXY) * camZoom*Math.cos(camRotYZ);
-		double camRotZ = Math.sin(camRotYZ) * camZoom;
-		
-		Robot rob = null;
-		try
-		{
-			rob = new Robot();
-		}
-		catch (AWTException e)
-		{
-		}
-		
-		Point mousePoint = new Point();
-		SwingUtilities.convertPointToScreen(mousePoint, this);
-		rob.mouseMove(mousePoint.x + this.getWidth()/2, mousePoint.y + this.getHeight()/2);
-		
-		GE3D.GetDefaultUniverse().ViewLookAt(new Point3d(camRotX, camRotY, camRotZ), new Point3d(camX, camY, 0));
+		camera.PointerRotate(this, !firstClick);
+		firstClick = false;
 	}
 	
 	private void fallowButtonActionPerformed(java.awt.event.ActionEvent evt)
 	{
-		fallowing = true;
+		camera.SetHeightOffset(100);
+		camera.Follow(movingCube);
 	}
 	
 	private void stopButtonActionPerformed(java.awt.event.ActionEvent evt)
 	{
-		fallowing = false;
-		camX = board_cols*cellsize/2;
-		camY = board_rows*cellsize/2;
-		
-		double camRotX = camX + Math.cos(camRotXY)*camZoom*Math.cos(camRotYZ);
-		double camRotY = camY + Math.sin(camRotXY)*camZoom*Math.cos(camRotYZ);
-		double camRotZ = 100 + Math.sin(camRotYZ)*camZoom;
-		GE3D.GetDefaultUniverse().ViewLookAt(new Point3d(camRotX, camRotY, camRotZ), new Point3d(camX, camY, 0));
+		camera.SetMode(CameraController.ORBIT);
+		camera.SetPosition(board_cols*cellsize/2, board_rows*cellsize/2, 0);
 	}
 	
 	private static void exitMenuItemActionPerformed(java.awt.event.ActionEvent evt)
@@ -0,0 +1,285 @@
+package graphicsengine3d;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.imageio.ImageIO;
+import javax.media.j3d.ImageComponent;
+import javax.media.j3d.ImageComponent2D;
+import javax.media.j3d.Texture;
+import javax.media.j3d.Texture2D;
+
+/**
+ * @author Mike
+ * Reads and writes preprocessed textures. A texture file holds every mip level already scaled to a power of two,
+ * flipped and in the byte order Java 3D uses by reference, so reading one is a copy out of a memory mapped file
+ * with no decoding. Convert images ahead of time with the main method:
+ * <pre>java graphicsengine3d.TextureFile grass.jpg</pre>
+ * which writes grass.mip. AssetManager reads files ending in .mip this way.
+ * <p>
+ * The file is a header of five big endian ints: magic, version, width, height and level count. Each level follows
+ * as 4 bytes a texel in ABGR order, bottom row first, halving in size down to 1x1.
+ * @see AssetManager
+ */
+public class TextureFile
+{
+	/**
+	 * Extension of texture files.
+	 */
+	public static final String EXTENSION = ".mip";
+	
+	private static final int MAGIC = 0x47334454;	// "G3DT"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 20;
+	
+	/**
+	 * Converts images to texture files next to them.
+	 * @param args Image files
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length == 0)
+		{
+			System.err.println("Usage: TextureFile image...");
+			System.exit(1);
+		}
+		
+		for (int i = 0; i < args.length; i++)
+		{
+			File source = new File(args[i]);
+			File target = GetTargetFile(source);
+			
+			try
+			{
+				Convert(source, target);
+				System.out.println(source + " -> " + target);
+			}
+			catch (IOException e)
+			{
+				System.err.println(source + ": " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Gets the texture file an image converts to, the image's path with its extension replaced.
+	 * @param source Image file
+	 * @return Texture file
+	 */
+	public static File GetTargetFile(File source)
+	{
+		String name = source.getName();
+		int dot = name.lastIndexOf('.');
+		
+		if (dot > 0)
+			name = name.substring(0, dot);
+		
+		return new File(source.getParentFile(), name + EXTENSION);
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Writing
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Converts an image file to a texture file.
+	 * @param source	Image file, any format ImageIO reads
+	 * @param target	Texture file to write
+	 * @throws IOException If the image cannot be read or the texture file written
+	 */
+	public static void Convert(File source, File target) throws IOException
+	{
+		BufferedImage image = ImageIO.read(source);
+		
+		if (image == null)
+			throw new IOException("Cannot decode " + source);
+		
+		Write(image, target);
+	}
+	
+	/**
+	 * Writes an image as a texture file. The image is scaled to the closest power of two size and its mip levels are made
+	 * by averaging each 2x2 block of the level above.
+	 * @param image	Image
+	 * @param target	Texture file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void Write(BufferedImage image, File target) throws IOException
+	{
+		int width = PowerOfTwo(image.getWidth());
+		int height = PowerOfTwo(image.getHeight());
+		
+		// draw the image upside down into the layout Java 3D takes by reference
+		BufferedImage base = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+		Graphics2D g = base.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(image, 0, height, width, 0, 0, 0, image.getWidth(), image.getHeight(), null);
+		g.dispose();
+		
+		byte[] level = ((DataBufferByte)base.getRaster().getDataBuffer()).getData();
+		int levels = LevelCount(width, height);
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target), 1 << 16));
+		
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(levels);
+			
+			for (int i = 0; i < levels; i++)
+			{
+				out.write(level, 0, width*height*4);
+				
+				if (i + 1 < levels)
+				{
+					level = Downsample(level, width, height);
+					width = Math.max(width/2, 1);
+					height = Math.max(height/2, 1);
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+	
+	// averages each 2x2 block into one texel, a side that is already 1 texel is only halved along the other
+	private static byte[] Downsample(byte[] src, int width, int height)
+	{
+		int w = Math.max(width/2, 1), h = Math.max(height/2, 1);
+		int dx = width > 1 ? 4 : 0;
+		int dy = height > 1 ? width*4 : 0;
+		byte[] dst = new byte[w*h*4];
+		int d = 0;
+		
+		for (int y = 0; y < h; y++)
+		{
+			int row = (height > 1 ? y*2 : y)*width*4;
+			
+			for (int x = 0; x < w; x++)
+			{
+				int s = row + (width > 1 ? x*8 : x*4);
+				
+				for (int c = 0; c < 4; c++, s++)
+				{
+					int sum = (src[s] & 0xFF) + (src[s + dx] & 0xFF) + (src[s + dy] & 0xFF) + (src[s + dx + dy] & 0xFF);
+					dst[d++] = (byte)((sum + 2) >> 2);
+				}
+			}
+		}
+		
+		return dst;
+	}
+	
+	private static int LevelCount(int width, int height)
+	{
+		int levels = 1;
+		
+		while (width > 1 || height > 1)
+		{
+			width = Math.max(width/2, 1);
+			height = Math.max(height/2, 1);
+			levels++;
+		}
+		
+		return levels;
+	}
+	
+	// closest power of two, Java 3D textures must be a power of two in size
+	private static int PowerOfTwo(int size)
+	{
+		int low = Integer.highestOneBit(Math.max(size, 1));
+		return size - low > low*2 - size ? low*2 : low;
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Reading
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Reads a texture file. The levels are copied out of the mapped file straight into the images Java 3D uses by reference.
+	 * @param file Texture file
+	 * @return Texture with all of the file's mip levels
+	 * @throws IOException If the file cannot be read or is not a texture file
+	 */
+	public static Texture2D Read(File file) throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		
+		try
+		{
+			FileChannel channel = in.getChannel();
+			
+			if (channel.size() < HEADER_SIZE)
+				throw new IOException(file + " is not a texture file");
+			
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			
+			if (buffer.getInt() != MAGIC)
+				throw new IOException(file + " is not a texture file");
+			
+			int version = buffer.getInt();
+			
+			if (version != VERSION)
+				throw new IOException(file + " has unsupported version " + version);
+			
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			int levels = buffer.getInt();
+			
+			// Java 3D only takes power of two sizes
+			if (width <= 0 || height <= 0 || (width & (width - 1)) != 0 || (height & (height - 1)) != 0
+				|| levels <= 0 || levels > LevelCount(width, height))
+				throw new IOException(file + " has a bad header");
+			
+			// check all of the levels are there before allocating any of them
+			long size = 0;
+			
+			for (int i = 0, w = width, h = height; i < levels; i++, w = Math.max(w/2, 1), h = Math.max(h/2, 1))
+				size += (long)w*h*4;
+			
+			if (buffer.remaining() < size)
+				throw new IOException(file + " is truncated");
+			
+			Texture2D texture = new Texture2D(levels > 1 ? Texture.MULTI_LEVEL_MIPMAP : Texture.BASE_LEVEL, Texture.RGBA, width, height);
+			
+			for (int i = 0; i < levels; i++)
+			{
+				BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+				buffer.get(((DataBufferByte)image.getRaster().getDataBuffer()).getData());
+				texture.setImage(i, new ImageComponent2D(ImageComponent.FORMAT_RGBA, image, true, true));
+				
+				width = Math.max(width/2, 1);
+				height = Math.max(height/2, 1);
+			}
+			
+			texture.setMinFilter(levels > 1 ? Texture.MULTI_LEVEL_LINEAR : Texture.BASE_LEVEL_LINEAR);
+			texture.setMagFilter(Texture.BASE_LEVEL_LINEAR);
+			return texture;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
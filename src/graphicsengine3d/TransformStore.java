@@ -0,0 +1,293 @@
+package graphicsengine3d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * @author Mike
+ * Holds the position, rotation and scale of Object3D's in primitive arrays indexed by slot.
+ * Every Object3D is a handle onto a slot. Objects that are not in a scene using a shared
+ * store get a slot in one of the loose blocks all such objects share. Slots are kept dense,
+ * slot 0 to GetSize() - 1 are all in use, except in loose blocks.
+ * @see Scene3D#UseTransformStore(int)
+ * @see Object3D
+ */
+public class TransformStore
+{
+	int size = 0;
+	Object3D[] objects;
+	
+	// position, rotation angles (X, Y, Z) and scale, one entry per slot
+	float[] posX, posY, posZ;
+	float[] rotX, rotY, rotZ;
+	float[] scale;
+	
+	// rotation matrix (row major 3x3, unscaled), 9 entries per slot
+	double[] rotMat;
+	
+	// objects that are not in a scene's store share fixed size loose blocks, so each costs a slot and not a store.
+	// A block never grows or moves a slot, so objects can be written by their own threads while others come and go
+	private static final int BLOCK_SIZE = 256;
+	private static final ArrayList<TransformStore> openBlocks = new ArrayList<TransformStore>();	// blocks with a free slot
+	private int[] freeSlots;	// null unless this is a loose block
+	private int freeCount = 0;
+	
+	/**
+	 * Creates a store with room for the specified number of objects. The store grows as needed.
+	 * @param capacity Initial capacity
+	 */
+	public TransformStore(int capacity)
+	{
+		if (capacity < 1)
+			capacity = 1;
+		
+		objects = new Object3D[capacity];
+		posX = new float[capacity];
+		posY = new float[capacity];
+		posZ = new float[capacity];
+		rotX = new float[capacity];
+		rotY = new float[capacity];
+		rotZ = new float[capacity];
+		scale = new float[capacity];
+		rotMat = new double[capacity*9];
+	}
+	
+	/**
+	 * Gets the number of slots in use.
+	 * @return Number of objects in the store
+	 */
+	public int GetSize()
+	{ return size; }
+	
+	/**
+	 * Gets the object in a slot.
+	 * @param slot Slot
+	 * @return Object3D
+	 */
+	public Object3D GetObject(int slot)
+	{ return objects[slot]; }
+	
+	
+	
+	//*********************************************************************************
+	//Bulk Operations
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Adds to the position of every object in the store.
+	 * @param x Amount to add to X
+	 * @param y Amount to add to Y
+	 * @param z Amount to add to Z
+	 */
+	public void AddPositionAll(float x, float y, float z)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			posX[i] += x;
+			posY[i] += y;
+			posZ[i] += z;
+		}
+		
+		UpdateAll();
+	}
+	
+	/**
+	 * Adds to the scale of every object in the store.
+	 * @param amt Amount to add
+	 */
+	public void AddScaleAll(float amt)
+	{
+		for (int i = 0; i < size; i++)
+			scale[i] += amt;
+		
+		UpdateAll();
+	}
+	
+	/**
+	 * Pushes the transform of every object in the store to its TransformGroup, or marks it
+	 * dirty if its scene defers transform commits.
+	 */
+	public void UpdateAll()
+	{
+		for (int i = 0; i < size; i++)
+			objects[i].UpdateTransform();
+	}
+	
+	/**
+	 * Multiplies a slot's rotation matrix by rotX(x) * rotY(y) * rotZ(z), on the right.
+	 * @param slot Slot
+	 * @param x Angle around X
+	 * @param y Angle around Y
+	 * @param z Angle around Z
+	 */
+	void MulRotation(int slot, double x, double y, double z)
+	{
+		double sa = Math.sin(x), ca = Math.cos(x);
+		double sb = Math.sin(y), cb = Math.cos(y);
+		double sc = Math.sin(z), cc = Math.cos(z);
+		
+		// closed form of rotX(x) * rotY(y) * rotZ(z)
+		double r00 = cb*cc,              r01 = -cb*sc,             r02 = sb;
+		double r10 = sa*sb*cc + ca*sc,   r11 = ca*cc - sa*sb*sc,   r12 = -sa*cb;
+		double r20 = sa*sc - ca*sb*cc,   r21 = ca*sb*sc + sa*cc,   r22 = ca*cb;
+		
+		for (int i = slot*9, end = i + 9; i < end; i += 3)
+		{
+			double m0 = rotMat[i], m1 = rotMat[i + 1], m2 = rotMat[i + 2];
+			
+			rotMat[i]     = m0*r00 + m1*r10 + m2*r20;
+			rotMat[i + 1] = m0*r01 + m1*r11 + m2*r21;
+			rotMat[i + 2] = m0*r02 + m1*r12 + m2*r22;
+		}
+	}
+	
+	/**
+	 * Writes a slot's translation * rotation * scale into a row major 4x4 matrix.
+	 * @param slot Slot
+	 * @param mat Destination, 16 entries
+	 */
+	void Compose(int slot, double[] mat)
+	{
+		int r = slot*9;
+		double s = scale[slot];
+		
+		mat[0]  = rotMat[r]*s;     mat[1]  = rotMat[r + 1]*s; mat[2]  = rotMat[r + 2]*s; mat[3]  = posX[slot];
+		mat[4]  = rotMat[r + 3]*s; mat[5]  = rotMat[r + 4]*s; mat[6]  = rotMat[r + 5]*s; mat[7]  = posY[slot];
+		mat[8]  = rotMat[r + 6]*s; mat[9]  = rotMat[r + 7]*s; mat[10] = rotMat[r + 8]*s; mat[11] = posZ[slot];
+		mat[12] = 0.0d;            mat[13] = 0.0d;            mat[14] = 0.0d;            mat[15] = 1.0d;
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Slots
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Gives an object a slot in a loose block, at the default position, rotation and scale. Sets the object's store and slot.
+	 * @param object3D Object the slot belongs to
+	 */
+	static void AllocateLoose(Object3D object3D)
+	{
+		synchronized (openBlocks)
+		{
+			if (openBlocks.isEmpty())
+			{
+				TransformStore block = new TransformStore(BLOCK_SIZE);
+				block.freeSlots = new int[BLOCK_SIZE];
+				openBlocks.add(block);
+			}
+			
+			TransformStore block = openBlocks.get(openBlocks.size() - 1);
+			object3D.slot = block.Allocate(object3D);
+			object3D.store = block;
+			
+			if (block.freeCount == 0 && block.size == BLOCK_SIZE)
+				openBlocks.remove(openBlocks.size() - 1);
+		}
+	}
+	
+	/**
+	 * Gives an object a slot at the default position, rotation and scale.
+	 * @param object3D Object the slot belongs to
+	 * @return Slot
+	 */
+	int Allocate(Object3D object3D)
+	{
+		int slot;
+		
+		if (freeCount > 0)
+			slot = freeSlots[--freeCount];
+		else
+		{
+			if (size == objects.length)
+				Grow(size*2);
+			
+			slot = size++;
+		}
+		
+		objects[slot] = object3D;
+		posX[slot] = 0.0f;
+		posY[slot] = 0.0f;
+		posZ[slot] = 0.0f;
+		rotX[slot] = 0.0f;
+		rotY[slot] = 0.0f;
+		rotZ[slot] = 0.0f;
+		scale[slot] = 1.0f;
+		
+		int r = slot*9;
+		Arrays.fill(rotMat, r, r + 9, 0.0d);
+		rotMat[r] = 1.0d;
+		rotMat[r + 4] = 1.0d;
+		rotMat[r + 8] = 1.0d;
+		
+		return slot;
+	}
+	
+	/**
+	 * Frees a slot. The last slot is moved into its place and that object's handle is updated,
+	 * except in loose blocks where the slot is only marked free.
+	 * @param slot Slot
+	 */
+	void Release(int slot)
+	{
+		if (freeSlots != null)
+		{
+			// loose blocks keep every other slot where it is
+			synchronized (openBlocks)
+			{
+				if (freeCount == 0 && size == BLOCK_SIZE)
+					openBlocks.add(this);
+				
+				objects[slot] = null;
+				freeSlots[freeCount++] = slot;
+			}
+			
+			return;
+		}
+		
+		int last = --size;
+		
+		if (slot != last)
+		{
+			Copy(this, last, slot);
+			objects[slot] = objects[last];
+			objects[slot].slot = slot;
+		}
+		
+		objects[last] = null;
+	}
+	
+	/**
+	 * Copies a slot's data from another (or the same) store.
+	 * @param from Source store
+	 * @param fromSlot Source slot
+	 * @param toSlot Destination slot
+	 */
+	void Copy(TransformStore from, int fromSlot, int toSlot)
+	{
+		posX[toSlot] = from.posX[fromSlot];
+		posY[toSlot] = from.posY[fromSlot];
+		posZ[toSlot] = from.posZ[fromSlot];
+		rotX[toSlot] = from.rotX[fromSlot];
+		rotY[toSlot] = from.rotY[fromSlot];
+		rotZ[toSlot] = from.rotZ[fromSlot];
+		scale[toSlot] = from.scale[fromSlot];
+		System.arraycopy(from.rotMat, fromSlot*9, rotMat, toSlot*9, 9);
+	}
+	
+	private void Grow(int capacity)
+	{
+		objects = Arrays.copyOf(objects, capacity);
+		posX = Arrays.copyOf(posX, capacity);
+		posY = Arrays.copyOf(posY, capacity);
+		posZ = Arrays.copyOf(posZ, capacity);
+		rotX = Arrays.copyOf(rotX, capacity);
+		rotY = Arrays.copyOf(rotY, capacity);
+		rotZ = Arrays.copyOf(rotZ, capacity);
+		scale = Arrays.copyOf(scale, capacity);
+		rotMat = Arrays.copyOf(rotMat, capacity*9);
+	}
+}
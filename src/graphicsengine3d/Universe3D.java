@@ -1,5 +1,6 @@
 package graphicsengine3d;
 
+import java.awt.AWTEvent;
 import java.awt.GraphicsConfiguration;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
@@ -14,7 +15,6 @@ import javax.media.j3d.TransformGroup;
 import javax.media.j3d.WakeupOnAWTEvent;
 import javax.swing.JPanel;
 import javax.vecmath.Point3d;
-import javax.vecmath.Vector3d;
 
 import com.sun.j3d.utils.universe.SimpleUniverse;
 
@@ -27,21 +27,33 @@ import com.sun.j3d.utils.universe.SimpleUniverse;
 public class Universe3D
 {
 	private SimpleUniverse univ;
+	private Canvas3D canvas;
 	private TransformGroup viewTransformGroup;
+	private Transform3D viewTrans3d = new Transform3D();
+	private double[] viewMat = new double[16];
 	private BranchGroup inputBranch = new BranchGroup();
 	private UniverseKeyBoardListener keyboardListener;
 	private UniverseMouseListener mouseListener;
 	
+	// input events from the input behavior, see SetInputPolling
+	private InputEventBuffer inputBuffer = new InputEventBuffer(1024);
+	private volatile boolean inputPolling = false;
+	
 	private boolean dragging = false;
 	private boolean firstClick = true;
 	
 	private int keyDown = -1;
 	
+	// scenes being shown, looked through when picking
+	private volatile Scene3D[] shownScenes = new Scene3D[0];
+	private double[] pickMat = new double[16];
+	
 	protected Universe3D(JPanel drawingPanel)
 	{
 		// create canvas and add set config
 		GraphicsConfiguration config = SimpleUniverse.getPreferredConfiguration();
 		Canvas3D c = new Canvas3D(config);
+		canvas = c;
 		
 		// create the universe
 		univ = new SimpleUniverse(c);
@@ -52,30 +64,11 @@ public class Universe3D
 		univ.getViewer().getView().setMinimumFrameCycleTime(20);
 		univ.getViewer().getView().setBackClipDistance(1000000000);
 		
-		//Input Listeners
-		BoundingSphere bounds = new BoundingSphere(new Point3d(), 1000000000);
-		KeyBoardListener_KeyPressed keyBoardListener_KeyPressed = new KeyBoardListener_KeyPressed();
-		keyBoardListener_KeyPressed.setSchedulingBounds(bounds);
-		KeyBoardListener_KeyReleased keyBoardListener_KeyReleased = new KeyBoardListener_KeyReleased();
-		keyBoardListener_KeyReleased.setSchedulingBounds(bounds);
-		MouseListener_MouseClicked mouseListener_MouseClicked = new MouseListener_MouseClicked();
-		mouseListener_MouseClicked.setSchedulingBounds(bounds);
-		MouseListener_MouseDragged mouseListener_MouseDragged = new MouseListener_MouseDragged();
-		mouseListener_MouseDragged.setSchedulingBounds(bounds);
-		MouseListener_MouseMoved mouseListener_MouseMoved = new MouseListener_MouseMoved();
-		mouseListener_MouseMoved.setSchedulingBounds(bounds);
-		MouseListener_MousePressed mouseListener_MousePressed = new MouseListener_MousePressed();
-		mouseListener_MousePressed.setSchedulingBounds(bounds);
-		MouseListener_MouseReleased mouseListener_MouseReleased = new MouseListener_MouseReleased();
-		mouseListener_MouseReleased.setSchedulingBounds(bounds);
+		//Input Listener
+		InputBehavior inputBehavior = new InputBehavior();
+		inputBehavior.setSchedulingBounds(new BoundingSphere(new Point3d(), 1000000000));
 		
-		inputBranch.addChild(keyBoardListener_KeyPressed);
-		inputBranch.addChild(keyBoardListener_KeyReleased);
-		inputBranch.addChild(mouseListener_MouseClicked);
-		inputBranch.addChild(mouseListener_MouseDragged);
-		inputBranch.addChild(mouseListener_MouseMoved);
-		inputBranch.addChild(mouseListener_MousePressed);
-		inputBranch.addChild(mouseListener_MouseReleased);
+		inputBranch.addChild(inputBehavior);
 		inputBranch.compile();
 		univ.addBranchGraph(inputBranch);
 		
@@ -99,11 +92,95 @@ public class Universe3D
 	 */
 	public void ViewLookAt(Point3d from, Point3d to)
 	{
-		Transform3D trans = new Transform3D();
-		trans.lookAt(from, to, new Vector3d(0.0d, 0.0d, 1.0d));
-		trans.invert();
+		ViewLookAt(from.x, from.y, from.z, to.x, to.y, to.z);
+	}
+	
+	/**
+	 * Places the view at a position angled to face another position. Z is up.
+	 * @param fromX X position of the view
+	 * @param fromY Y position of the view
+	 * @param fromZ Z position of the view
+	 * @param toX X position to look at
+	 * @param toY Y position to look at
+	 * @param toZ Z position to look at
+	 */
+	public synchronized void ViewLookAt(double fromX, double fromY, double fromZ, double toX, double toY, double toZ)
+	{
+		if (!LookAt(viewMat, fromX, fromY, fromZ, toX, toY, toZ))
+			return;
+		
+		viewTrans3d.set(viewMat);
+		viewTransformGroup.setTransform(viewTrans3d);
+	}
+	
+	/**
+	 * Writes the view transform of a view at a position facing another position, Z up, as a row major 4x4 matrix.
+	 * @return False if the positions are the same and nothing was written
+	 */
+	static boolean LookAt(double[] viewMat, double fromX, double fromY, double fromZ, double toX, double toY, double toZ)
+	{
+		// the view transform is the inverse of lookAt, so it is written directly:
+		// the columns are the view's side, up and backward axes and the last column is its position
+		double fx = fromX - toX, fy = fromY - toY, fz = fromZ - toZ;
+		double len = Math.sqrt(fx*fx + fy*fy + fz*fz);
+		
+		if (len == 0.0d)
+			return false;
+		
+		fx /= len; fy /= len; fz /= len;
 		
-		viewTransformGroup.setTransform(trans);
+		// side = up (0, 0, 1) x backward
+		double sx = -fy, sy = fx;
+		len = Math.sqrt(sx*sx + sy*sy);
+		
+		if (len < 1e-9d)
+		{
+			// looking straight up or down
+			sx = 1.0d;
+			sy = 0.0d;
+		}
+		else
+		{
+			sx /= len;
+			sy /= len;
+		}
+		
+		// up = backward x side
+		double ux = -fz*sy, uy = fz*sx, uz = fx*sy - fy*sx;
+		
+		viewMat[0] = sx;   viewMat[1] = ux;   viewMat[2] = fx;   viewMat[3] = fromX;
+		viewMat[4] = sy;   viewMat[5] = uy;   viewMat[6] = fy;   viewMat[7] = fromY;
+		viewMat[8] = 0.0d; viewMat[9] = uz;   viewMat[10] = fz;  viewMat[11] = fromZ;
+		viewMat[12] = 0.0d; viewMat[13] = 0.0d; viewMat[14] = 0.0d; viewMat[15] = 1.0d;
+		return true;
+	}
+	
+	/**
+	 * Reads the view's transform, the view's position and axes in the world, as a row major 4x4 matrix.
+	 * @param mat Destination, 16 entries
+	 */
+	synchronized void GetViewMatrix(double[] mat)
+	{
+		viewTransformGroup.getTransform(viewTrans3d);
+		viewTrans3d.get(mat);
+	}
+	
+	/**
+	 * Gets the horizontal field of view.
+	 * @return Field of view in radians
+	 */
+	public double GetFieldOfView()
+	{
+		return univ.getViewer().getView().getFieldOfView();
+	}
+	
+	/**
+	 * Gets the canvas the universe draws on.
+	 * @return Canvas3D
+	 */
+	public Canvas3D GetCanvas3D()
+	{
+		return canvas;
 	}
 	
 	protected void AddBranchGraph(BranchGroup objBranch)
@@ -111,6 +188,122 @@ public class Universe3D
 		univ.addBranchGraph(objBranch);
 	}
 	
+	synchronized void SceneShown(Scene3D scene)
+	{
+		Scene3D[] newScenes = new Scene3D[shownScenes.length + 1];
+		System.arraycopy(shownScenes, 0, newScenes, 0, shownScenes.length);
+		newScenes[shownScenes.length] = scene;
+		
+		shownScenes = newScenes;
+	}
+	
+	synchronized void SceneHidden(Scene3D scene)
+	{
+		for (int i = 0; i < shownScenes.length; i++)
+		{
+			if (shownScenes[i] == scene)
+			{
+				Scene3D[] newScenes = new Scene3D[shownScenes.length - 1];
+				System.arraycopy(shownScenes, 0, newScenes, 0, i);
+				System.arraycopy(shownScenes, i + 1, newScenes, i, shownScenes.length - i - 1);
+				
+				shownScenes = newScenes;
+				return;
+			}
+		}
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Picking
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Finds the nearest object of the shown scenes under the pointer of a mouse event.
+	 * @param e Mouse event on the canvas
+	 * @return The hit, or null if nothing is under the pointer
+	 */
+	public PickHit Pick(MouseEvent e)
+	{
+		return Pick(e.getX(), e.getY());
+	}
+	
+	/**
+	 * Finds the nearest object of the shown scenes under a point of the canvas.
+	 * @param x X position on the canvas
+	 * @param y Y position on the canvas
+	 * @return The hit, or null if nothing is under the point
+	 */
+	public PickHit Pick(int x, int y)
+	{
+		PickHit hit = new PickHit();
+		
+		if (Pick(x, y, hit))
+			return hit;
+		
+		return null;
+	}
+	
+	/**
+	 * Finds the nearest object of the shown scenes under a point of the canvas. Objects are hit by their bounding spheres.
+	 * @param x X position on the canvas
+	 * @param y Y position on the canvas
+	 * @param hit Hit to fill, reused to avoid allocating
+	 * @return If anything was hit
+	 */
+	public boolean Pick(int x, int y, PickHit hit)
+	{
+		int width = Math.max(canvas.getWidth(), 1);
+		int height = Math.max(canvas.getHeight(), 1);
+		double ox, oy, oz, dx, dy, dz;
+		
+		synchronized (this)
+		{
+			GetViewMatrix(pickMat);
+			
+			// direction through the pixel's center relative to the view, the field of view spans the width
+			double tanX = Math.tan(GetFieldOfView()/2.0d);
+			double vx = (2.0d*(x + 0.5d)/width - 1.0d)*tanX;
+			double vy = (1.0d - 2.0d*(y + 0.5d)/height)*tanX*height/width;
+			
+			// to the world with the view's side, up and backward axes
+			dx = vx*pickMat[0] + vy*pickMat[1] - pickMat[2];
+			dy = vx*pickMat[4] + vy*pickMat[5] - pickMat[6];
+			dz = vx*pickMat[8] + vy*pickMat[9] - pickMat[10];
+			ox = pickMat[3];
+			oy = pickMat[7];
+			oz = pickMat[11];
+		}
+		
+		return PickRay(ox, oy, oz, dx, dy, dz, hit);
+	}
+	
+	/**
+	 * Finds the nearest object of the shown scenes hit by a ray.
+	 * @param ox X position of the ray's origin
+	 * @param oy Y position of the ray's origin
+	 * @param oz Z position of the ray's origin
+	 * @param dx X of the ray's direction
+	 * @param dy Y of the ray's direction
+	 * @param dz Z of the ray's direction
+	 * @param hit Hit to fill
+	 * @return If anything was hit
+	 */
+	public boolean PickRay(double ox, double oy, double oz, double dx, double dy, double dz, PickHit hit)
+	{
+		Scene3D[] scenes = shownScenes;
+		boolean found = false;
+		
+		hit.Reset();
+		
+		for (int i = 0; i < scenes.length; i++)
+			found |= scenes[i].PickRay(ox, oy, oz, dx, dy, dz, hit);
+		
+		return found;
+	}
+	
 	protected void finalize() throws Throwable
 	{
 		univ.removeAllLocales();
@@ -148,123 +341,120 @@ public class Universe3D
 	
 
 	
-	//KeyBoard Listener KeyPressed
-	private class KeyBoardListener_KeyPressed extends Behavior
+	/**
+	 * Sets whether input events wait in the input buffer for the game loop. When false (the default) the
+	 * listeners are called on the J3D behavior thread as events arrive. When true they are only called by
+	 * DispatchInput, which the game loop calls once per frame.
+	 * @param polling If input is polled by the game loop
+	 * @see #DispatchInput()
+	 */
+	public void SetInputPolling(boolean polling)
 	{
-		public void initialize()
-		{
-			this.wakeupOn(new WakeupOnAWTEvent(KeyEvent.KEY_PRESSED));
-		}
-
-		public void processStimulus(Enumeration criteria) 
-	    {
-	    	if (keyboardListener != null)
-	    		keyboardListener.KeyPressed((KeyEvent)(((WakeupOnAWTEvent)criteria.nextElement()).getAWTEvent()[0]));
-	    	
-	    	this.wakeupOn(new WakeupOnAWTEvent(KeyEvent.KEY_PRESSED));
-	    }
+		inputPolling = polling;
 	}
 	
-	//KeyBoard Listener KeyReleased
-	private class KeyBoardListener_KeyReleased extends Behavior
-	{
-		public void initialize()
-		{
-			this.wakeupOn(new WakeupOnAWTEvent(KeyEvent.KEY_RELEASED));
-		}
-
-		public void processStimulus(Enumeration criteria) 
-	    {
-	    	if (keyboardListener != null)
-	    		keyboardListener.KeyReleased((KeyEvent)(((WakeupOnAWTEvent)criteria.nextElement()).getAWTEvent()[0]));
-	    	
-	    	this.wakeupOn(new WakeupOnAWTEvent(KeyEvent.KEY_RELEASED));
-	    }
-	}
+	/**
+	 * Gets whether input events wait in the input buffer for the game loop.
+	 * @return If input is polled by the game loop
+	 */
+	public boolean GetInputPolling()
+	{ return inputPolling; }
 	
+	/**
+	 * Gets the buffer input events are put in. With input polling on, a game loop that does not use the
+	 * listeners can read the events from it directly instead of calling DispatchInput.
+	 * @return InputEventBuffer
+	 */
+	public InputEventBuffer GetInputBuffer()
+	{ return inputBuffer; }
 	
-	//Mouse Listener MouseClicked
-	private class MouseListener_MouseClicked extends Behavior
-	{
-		public void initialize()
-		{
-			this.wakeupOn(new WakeupOnAWTEvent(MouseEvent.MOUSE_CLICKED));
-		}
-
-		public void processStimulus(Enumeration criteria) 
-	    {
-	    	if (mouseListener != null)
-	    		mouseListener.MouseClicked((MouseEvent)(((WakeupOnAWTEvent)criteria.nextElement()).getAWTEvent()[0]));
-	    	
-	    	this.wakeupOn(new WakeupOnAWTEvent(MouseEvent.MOUSE_CLICKED));
-	    }
-	}
+	/**
+	 * Passes every buffered input event to the keyboard and mouse listeners.
+	 * @return Number of events dispatched
+	 */
+	public int DispatchInput()
+	{ return Dispatch(inputBuffer, keyboardListener, mouseListener); }
 	
-	//Mouse Listener MouseDragged
-	private class MouseListener_MouseDragged extends Behavior
+	// passes the buffered events to the listeners, either may be null
+	static int Dispatch(InputEventBuffer inputBuffer, UniverseKeyBoardListener keyboardListener, UniverseMouseListener mouseListener)
 	{
-		public void initialize()
+		int count = 0;
+		
+		while (inputBuffer.Next())
 		{
-			this.wakeupOn(new WakeupOnAWTEvent(MouseEvent.MOUSE_DRAGGED));
+			int id = inputBuffer.GetID();
+			
+			if (id == KeyEvent.KEY_PRESSED || id == KeyEvent.KEY_RELEASED)
+			{
+				if (keyboardListener != null)
+				{
+					if (id == KeyEvent.KEY_PRESSED)
+						keyboardListener.KeyPressed((KeyEvent)inputBuffer.GetEvent());
+					else
+						keyboardListener.KeyReleased((KeyEvent)inputBuffer.GetEvent());
+				}
+			}
+			else if (mouseListener != null)
+			{
+				MouseEvent e = (MouseEvent)inputBuffer.GetEvent();
+				
+				if (id == MouseEvent.MOUSE_CLICKED)
+					mouseListener.MouseClicked(e);
+				else if (id == MouseEvent.MOUSE_DRAGGED)
+					mouseListener.MouseDragged(e);
+				else if (id == MouseEvent.MOUSE_MOVED)
+					mouseListener.MouseMoved(e);
+				else if (id == MouseEvent.MOUSE_PRESSED)
+					mouseListener.MousePressed(e);
+				else if (id == MouseEvent.MOUSE_RELEASED)
+					mouseListener.MouseReleased(e);
+			}
+			
+			count++;
 		}
-
-		public void processStimulus(Enumeration criteria) 
-	    {
-	    	if (mouseListener != null)
-	    		mouseListener.MouseDragged((MouseEvent)(((WakeupOnAWTEvent)criteria.nextElement()).getAWTEvent()[0]));
-	    	
-	    	this.wakeupOn(new WakeupOnAWTEvent(MouseEvent.MOUSE_DRAGGED));
-	    }
+		
+		return count;
 	}
 	
-	//Mouse Listener MouseMoved
-	private class MouseListener_MouseMoved extends Behavior
+	// puts the events of one wakeup in the buffer
+	static void Buffer(AWTEvent[] events, InputEventBuffer inputBuffer)
 	{
-		public void initialize()
+		for (int i = 0; i < events.length; i++)
 		{
-			this.wakeupOn(new WakeupOnAWTEvent(MouseEvent.MOUSE_MOVED));
+			int id = events[i].getID();
+			
+			if (id == KeyEvent.KEY_TYPED || id == MouseEvent.MOUSE_ENTERED || id == MouseEvent.MOUSE_EXITED || id == MouseEvent.MOUSE_WHEEL)
+				continue;
+			
+			// skip a move or drag that is directly followed by another of the same kind
+			if ((id == MouseEvent.MOUSE_MOVED || id == MouseEvent.MOUSE_DRAGGED) && i + 1 < events.length && events[i + 1].getID() == id)
+				continue;
+			
+			inputBuffer.Publish(events[i]);
 		}
-
-		public void processStimulus(Enumeration criteria) 
-	    {
-	    	if (mouseListener != null)
-	    		mouseListener.MouseMoved((MouseEvent)(((WakeupOnAWTEvent)criteria.nextElement()).getAWTEvent()[0]));
-	    	
-	    	this.wakeupOn(new WakeupOnAWTEvent(MouseEvent.MOUSE_MOVED));
-	    }
 	}
 	
-	//Mouse Listener MousePressed
-	private class MouseListener_MousePressed extends Behavior
+	
+	
+	//Input Listener. Buffers all key and mouse events, only the last of a run of moves or drags is kept
+	private class InputBehavior extends Behavior
 	{
+		private WakeupOnAWTEvent wakeup = new WakeupOnAWTEvent(AWTEvent.KEY_EVENT_MASK | AWTEvent.MOUSE_EVENT_MASK | AWTEvent.MOUSE_MOTION_EVENT_MASK);
+		
 		public void initialize()
 		{
-			this.wakeupOn(new WakeupOnAWTEvent(MouseEvent.MOUSE_PRESSED));
+			this.wakeupOn(wakeup);
 		}
-
-		public void processStimulus(Enumeration criteria) 
-	    {
-	    	if (mouseListener != null)
-	    		mouseListener.MousePressed((MouseEvent)(((WakeupOnAWTEvent)criteria.nextElement()).getAWTEvent()[0]));
-	    	
-	    	this.wakeupOn(new WakeupOnAWTEvent(MouseEvent.MOUSE_PRESSED));
-	    }
-	}
-	
-	//Mouse Listener MouseReleased
-	private class MouseListener_MouseReleased extends Behavior
-	{
-		public void initialize()
+		
+		public void processStimulus(Enumeration criteria)
 		{
-			this.wakeupOn(new WakeupOnAWTEvent(MouseEvent.MOUSE_RELEASED));
+			while (criteria.hasMoreElements())
+				Buffer(((WakeupOnAWTEvent)criteria.nextElement()).getAWTEvent(), inputBuffer);
+			
+			if (!inputPolling)
+				DispatchInput();
+			
+			this.wakeupOn(wakeup);
 		}
-
-		public void processStimulus(Enumeration criteria) 
-	    {
-	    	if (mouseListener != null)
-	    		mouseListener.MouseReleased((MouseEvent)(((WakeupOnAWTEvent)criteria.nextElement()).getAWTEvent()[0]));
-	    	
-	    	this.wakeupOn(new WakeupOnAWTEvent(MouseEvent.MOUSE_RELEASED));
-	    }
 	}
 }
\ No newline at end of file
@@ -0,0 +1,528 @@
+package graphicsengine3d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @author Mike
+ * Streams a large world around the view. The X/Y plane is cut into square chunks, each its own Scene3D. Chunks
+ * within the load radius of the view are built in the background by a ChunkBuilder and shown a few per frame,
+ * nearest first. Chunks beyond the unload radius are removed. How many chunks and objects are kept is limited
+ * by a budget, so the cost depends on the area around the view and not on the size of the world.
+ * A chunk that fails to build is handed to ChunkBuilder.Failed and built again after a delay.
+ * <p>
+ * Add the streamer to a FrameScheduler, it does its work in Render once per frame. Its other methods should
+ * be called from the frame thread too, for example from another FrameListener.
+ * @see ChunkBuilder
+ * @see GraphicsEngine3D#GetScheduler()
+ */
+public class WorldStreamer extends FrameListener
+{
+	private Universe3D univ;
+	private ChunkBuilder builder;
+	private float chunkSize;
+	private ExecutorService pool;
+	
+	private float loadRadius, unloadRadius;
+	private int maxChunks = 256;
+	private int maxObjects = Integer.MAX_VALUE;
+	private int maxShowsPerFrame = 2;
+	private boolean compile = false;
+	private float retryDelay = 5.0f;
+	
+	// chunks loading or loaded by packed index, only touched on the frame thread
+	private HashMap<Long, Chunk> chunks = new HashMap<Long, Chunk>();
+	private ConcurrentLinkedQueue<Chunk> built = new ConcurrentLinkedQueue<Chunk>();
+	private int loadingCount = 0;
+	private int shownCount = 0;
+	private int objectCount = 0;
+	
+	// chunks that failed to build by packed index, with the System.nanoTime they can be built again at
+	private HashMap<Long, Long> retryTimes = new HashMap<Long, Long>();
+	private long nextRetry;
+	
+	// where the view was when the wanted chunks were last looked for
+	private double scanX = Double.NaN, scanY = Double.NaN;
+	private boolean rescan = true;
+	private double[] viewMat = new double[16];
+	private ArrayList<Chunk> candidates = new ArrayList<Chunk>();
+	
+	/**
+	 * @param universe		Universe whose view the chunks are loaded around and in which they are shown
+	 * @param chunkSize		Width of a chunk
+	 * @param loadRadius		Distance from the view within which chunks are loaded
+	 * @param threads		Number of loading threads
+	 * @param chunkBuilder	Builds the chunks
+	 */
+	public WorldStreamer(Universe3D universe, float chunkSize, float loadRadius, int threads, ChunkBuilder chunkBuilder)
+	{
+		univ = universe;
+		builder = chunkBuilder;
+		this.chunkSize = chunkSize;
+		SetRadius(loadRadius, loadRadius + chunkSize/2);
+		
+		pool = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory()
+		{
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "WorldStreamer");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.NORM_PRIORITY - 1);		// stay out of the way of the frames
+				return thread;
+			}
+		});
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Settings
+	//
+	//*********************************************************************************
+	
+	/**
+	 * Sets the distances from the view at which chunks are loaded and removed. The gap between them
+	 * keeps chunks on the edge from being loaded and removed over and over.
+	 * @param load		Chunks closer than this are loaded
+	 * @param unload	Chunks farther than this are removed, at least the load distance
+	 */
+	public void SetRadius(float load, float unload)
+	{
+		loadRadius = load;
+		unloadRadius = Math.max(unload, load);
+		rescan = true;
+	}
+	
+	/**
+	 * Gets the distance within which chunks are loaded.
+	 * @return Load radius
+	 */
+	public float GetLoadRadius()
+	{ return loadRadius; }
+	
+	/**
+	 * Gets the distance beyond which chunks are removed.
+	 * @return Unload radius
+	 */
+	public float GetUnloadRadius()
+	{ return unloadRadius; }
+	
+	/**
+	 * Sets the budget of chunks loaded or loading at once. When full, a nearer chunk replaces the farthest one.
+	 * @param max Maximum chunks
+	 */
+	public void SetMaxChunks(int max)
+	{
+		maxChunks = Math.max(max, 1);
+		rescan = true;
+	}
+	
+	/**
+	 * Gets the budget of chunks.
+	 * @return Maximum chunks
+	 */
+	public int GetMaxChunks()
+	{ return maxChunks; }
+	
+	/**
+	 * Sets the budget of objects in the loaded chunks. No more chunks are loaded while it is exceeded.
+	 * @param max Maximum objects
+	 */
+	public void SetMaxObjects(int max)
+	{
+		maxObjects = Math.max(max, 0);
+		rescan = true;
+	}
+	
+	/**
+	 * Gets the budget of objects.
+	 * @return Maximum objects
+	 */
+	public int GetMaxObjects()
+	{ return maxObjects; }
+	
+	/**
+	 * Sets how many built chunks are shown per frame. Showing a chunk adds its branch to the universe,
+	 * which takes Java 3D some time, so showing them a few at a time keeps frames even.
+	 * @param max Maximum chunks shown per frame
+	 */
+	public void SetMaxShowsPerFrame(int max)
+	{
+		maxShowsPerFrame = Math.max(max, 1);
+	}
+	
+	/**
+	 * Gets how many built chunks are shown per frame.
+	 * @return Maximum chunks shown per frame
+	 */
+	public int GetMaxShowsPerFrame()
+	{ return maxShowsPerFrame; }
+	
+	/**
+	 * Sets whether chunk scenes are compiled, see Scene3D.SetCompileOnShow. Applies to chunks built after this.
+	 * @param compile If chunks should be compiled
+	 */
+	public void SetCompileChunks(boolean compile)
+	{
+		this.compile = compile;
+	}
+	
+	/**
+	 * Gets if chunk scenes are compiled.
+	 * @return If chunks are compiled
+	 */
+	public boolean GetCompileChunks()
+	{ return compile; }
+	
+	/**
+	 * Sets how long a chunk that failed to build is left before it is built again.
+	 * @param seconds Delay in seconds
+	 */
+	public void SetRetryDelay(float seconds)
+	{
+		retryDelay = Math.max(seconds, 0.0f);
+	}
+	
+	/**
+	 * Gets how long a chunk that failed to build is left before it is built again.
+	 * @return Delay in seconds
+	 */
+	public float GetRetryDelay()
+	{ return retryDelay; }
+	
+	/**
+	 * Gets the width of a chunk.
+	 * @return Chunk size
+	 */
+	public float GetChunkSize()
+	{ return chunkSize; }
+	
+	/**
+	 * Gets the number of chunks loaded or loading.
+	 * @return Number of chunks
+	 */
+	public int GetChunkCount()
+	{ return chunks.size(); }
+	
+	/**
+	 * Gets the number of chunks being built.
+	 * @return Number of chunks loading
+	 */
+	public int GetLoadingCount()
+	{ return loadingCount; }
+	
+	/**
+	 * Gets the number of chunks shown.
+	 * @return Number of chunks shown
+	 */
+	public int GetShownCount()
+	{ return shownCount; }
+	
+	/**
+	 * Gets the number of objects in the loaded chunks.
+	 * @return Number of objects
+	 */
+	public int GetObjectCount()
+	{ return objectCount; }
+	
+	/**
+	 * Gets the scene of a loaded chunk.
+	 * @param chunkX	Chunk X index
+	 * @param chunkY	Chunk Y index
+	 * @return Scene3D, or null if the chunk is not loaded
+	 */
+	public Scene3D GetChunk(int chunkX, int chunkY)
+	{
+		Chunk chunk = chunks.get(Key(chunkX, chunkY));
+		return chunk != null && chunk.loaded ? chunk.scene : null;
+	}
+	
+	/**
+	 * Removes every chunk and stops the loading threads.
+	 */
+	public void Shutdown()
+	{
+		pool.shutdownNow();
+		
+		for (Chunk chunk : chunks.values())
+			if (chunk.loaded)
+				Release(chunk);
+		
+		chunks.clear();
+		built.clear();
+		retryTimes.clear();
+		loadingCount = 0;
+	}
+	
+	
+	
+	//*********************************************************************************
+	//Streaming
+	//
+	//*********************************************************************************
+	
+	public void Update(float step) {}
+	
+	/**
+	 * Shows built chunks, removes chunks out of range and starts loading chunks that came into range.
+	 */
+	public void Render(float alpha)
+	{
+		univ.GetViewMatrix(viewMat);
+		double x = viewMat[3], y = viewMat[7];
+		
+		ShowBuilt(x, y);
+		
+		if (!retryTimes.isEmpty() && System.nanoTime() - nextRetry >= 0)
+			ExpireRetries();
+		
+		// only look at the chunks again when the view has moved a bit or something changed
+		double mx = x - scanX, my = y - scanY;
+		
+		if (rescan || !(mx*mx + my*my < chunkSize*chunkSize/16.0d))
+		{
+			rescan = false;
+			scanX = x;
+			scanY = y;
+			
+			RemoveOutOfRange(x, y);
+			LoadInRange(x, y);
+		}
+	}
+	
+	private void ShowBuilt(double x, double y)
+	{
+		Chunk chunk;
+		int shows = 0;
+		
+		while (shows < maxShowsPerFrame && (chunk = built.poll()) != null)
+		{
+			loadingCount--;
+			rescan = true;
+			
+			if (chunks.get(chunk.key) != chunk)
+			{
+				// dropped while it was being built
+				if (chunk.scene != null)
+					chunk.scene.Delete();
+				
+				continue;
+			}
+			
+			if (chunk.failure != null)
+			{
+				// forget the chunk so it is built again once the delay has passed
+				chunks.remove(chunk.key);
+				
+				if (chunk.scene != null)
+					chunk.scene.Delete();
+				
+				long retry = System.nanoTime() + (long)(retryDelay*1e9d);
+				
+				if (retryTimes.isEmpty() || retry - nextRetry < 0)
+					nextRetry = retry;
+				
+				retryTimes.put(chunk.key, retry);
+				builder.Failed(chunk.chunkX, chunk.chunkY, chunk.failure);
+				continue;
+			}
+			
+			chunk.loaded = true;
+			objectCount += chunk.objectCount;
+			
+			if (chunk.objectCount > 0 && Distance(chunk, x, y) <= unloadRadius)
+			{
+				chunk.scene.Show();
+				chunk.shown = true;
+				shownCount++;
+				shows++;
+			}
+		}
+	}
+	
+	private void RemoveOutOfRange(double x, double y)
+	{
+		Iterator<Chunk> it = chunks.values().iterator();
+		
+		while (it.hasNext())
+		{
+			Chunk chunk = it.next();
+			
+			if (Distance(chunk, x, y) > unloadRadius)
+			{
+				it.remove();
+				
+				if (chunk.loaded)
+					Release(chunk);
+				else
+					chunk.dropped = true;
+			}
+		}
+	}
+	
+	// starts loading the missing chunks in range, nearest first, while the budget allows
+	private void LoadInRange(double x, double y)
+	{
+		int minX = (int)Math.floor((x - loadRadius)/chunkSize), maxX = (int)Math.floor((x + loadRadius)/chunkSize);
+		int minY = (int)Math.floor((y - loadRadius)/chunkSize), maxY = (int)Math.floor((y + loadRadius)/chunkSize);
+		candidates.clear();
+		
+		for (int cx = minX; cx <= maxX; cx++)
+		{
+			for (int cy = minY; cy <= maxY; cy++)
+			{
+				if (chunks.containsKey(Key(cx, cy)) || retryTimes.containsKey(Key(cx, cy)))
+					continue;
+				
+				Chunk chunk = new Chunk(cx, cy);
+				chunk.distance = Distance(chunk, x, y);
+				
+				if (chunk.distance <= loadRadius)
+					candidates.add(chunk);
+			}
+		}
+		
+		if (candidates.isEmpty())
+			return;
+		
+		Chunk[] sorted = candidates.toArray(new Chunk[candidates.size()]);
+		Arrays.sort(sorted);
+		
+		for (int i = 0; i < sorted.length && objectCount <= maxObjects; i++)
+		{
+			Chunk chunk = sorted[i];
+			
+			// full, make room if a loaded chunk is farther than this one
+			if (chunks.size() >= maxChunks && !ReleaseFarthest(x, y, chunk.distance))
+				break;
+			
+			chunks.put(chunk.key, chunk);
+			loadingCount++;
+			pool.execute(chunk);
+		}
+	}
+	
+	// lets the chunks whose delay has passed be built again
+	private void ExpireRetries()
+	{
+		long now = System.nanoTime();
+		Iterator<Long> it = retryTimes.values().iterator();
+		
+		while (it.hasNext())
+		{
+			long retry = it.next();
+			
+			if (now - retry >= 0)
+				it.remove();
+			else if (now - nextRetry >= 0 || retry - nextRetry < 0)
+				nextRetry = retry;
+		}
+		
+		rescan = true;
+	}
+	
+	private boolean ReleaseFarthest(double x, double y, double distance)
+	{
+		Chunk farthest = null;
+		double farthestDistance = distance;
+		
+		for (Chunk chunk : chunks.values())
+		{
+			double d = Distance(chunk, x, y);
+			
+			if (chunk.loaded && d > farthestDistance)
+			{
+				farthest = chunk;
+				farthestDistance = d;
+			}
+		}
+		
+		if (farthest == null)
+			return false;
+		
+		chunks.remove(farthest.key);
+		Release(farthest);
+		return true;
+	}
+	
+	private void Release(Chunk chunk)
+	{
+		chunk.scene.Delete();		// first, so the counts still hold the chunk if it throws
+		
+		if (chunk.shown)
+			shownCount--;
+		
+		objectCount -= chunk.objectCount;
+		chunk.shown = false;
+		chunk.loaded = false;
+		builder.Release(chunk.chunkX, chunk.chunkY, chunk.scene);
+	}
+	
+	// distance from a point to the nearest point of the chunk's square
+	private double Distance(Chunk chunk, double x, double y)
+	{
+		double minX = chunk.chunkX*(double)chunkSize, minY = chunk.chunkY*(double)chunkSize;
+		double dx = Math.max(Math.max(minX - x, x - (minX + chunkSize)), 0.0d);
+		double dy = Math.max(Math.max(minY - y, y - (minY + chunkSize)), 0.0d);
+		
+		return Math.sqrt(dx*dx + dy*dy);
+	}
+	
+	private static long Key(int chunkX, int chunkY)
+	{ return ((long)chunkX << 32) | (chunkY & 0xFFFFFFFFL); }
+	
+	
+	
+	// a chunk and its scene, built on a loading thread then handed to the frame thread through the built queue
+	private class Chunk implements Runnable, Comparable<Chunk>
+	{
+		private final int chunkX, chunkY;
+		private final long key;
+		private Scene3D scene;
+		private int objectCount;
+		private double distance;
+		private boolean loaded = false;
+		private boolean shown = false;
+		private volatile boolean dropped = false;
+		private Throwable failure;
+		
+		Chunk(int chunkX, int chunkY)
+		{
+			this.chunkX = chunkX;
+			this.chunkY = chunkY;
+			key = Key(chunkX, chunkY);
+		}
+		
+		public void run()
+		{
+			try
+			{
+				if (!dropped)		// skipped if it went out of range before it was started
+				{
+					scene = new Scene3D(univ);
+					scene.SetCompileOnShow(compile);
+					builder.Build(chunkX, chunkY, chunkSize, scene);
+					scene.Prepare();
+					objectCount = scene.GetObjectCount();
+				}
+			}
+			catch (Throwable e)
+			{
+				failure = e;		// reported on the frame thread, errors too so the chunk is not lost
+			}
+			finally
+			{
+				built.add(this);	// always handed back, the frame thread counts it as no longer loading
+			}
+		}
+		
+		public int compareTo(Chunk o)
+		{ return Double.compare(distance, o.distance); }
+	}
+}